@@ -0,0 +1,115 @@
+package cn.gzsendi.config.mybatis;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultSetType;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+import com.mysql.cj.conf.PropertyKey;
+import com.mysql.cj.conf.PropertySet;
+import com.mysql.cj.conf.RuntimeProperty;
+import com.mysql.cj.jdbc.JdbcConnection;
+
+/**
+ * 使用MySQL服务端游标读取查询结果，并在运行时指定每次读取的行数.
+ *
+ * <pre>
+ * fetchSize为Integer.MIN_VALUE的流式查询逐行从socket读取，结果集读完之前连接上不能执行其它语句；
+ * 连接开启useCursorFetch后，fetchSize大于0的查询在服务端打开游标，驱动每次取fetchSize行，批量读取、内存有界。
+ * mapper xml中的fetchSize是固定值，在{@link #fetch(int, Runnable)}中执行的查询改用指定的fetchSize，用于按报表调优和压测比较。
+ *
+ * useCursorFetch会同时启用服务端预编译，放在jdbc url上会让所有语句都变成服务端预编译，
+ * 这里只在fetch中的查询执行期间对当前连接开启useCursorFetch和useServerPrepStmts，查询结束后恢复。
+ * 不在fetch中执行的FORWARD_ONLY、fetchSize大于0的查询会被驱动整个读入内存，这里直接报错而不是悄悄把内存占满。
+ * </pre>
+ */
+@Intercepts({
+	@Signature(type = Executor.class, method = "query", args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+	@Signature(type = StatementHandler.class, method = "prepare", args = {Connection.class, Integer.class})
+})
+public class CursorFetchInterceptor implements Interceptor {
+
+	//当前线程上查询使用的fetchSize，null时使用mapper xml中的配置
+	private static final ThreadLocal<Integer> FETCH_SIZE = new ThreadLocal<Integer>();
+
+	/**在当前线程上执行query，其中的查询使用服务端游标，每次读取fetchSize行*/
+	public static void fetch(int fetchSize, Runnable query) {
+
+		if (fetchSize < 1) {
+			throw new IllegalArgumentException("cursor fetchSize must be greater than 0");
+		}
+		Integer previous = FETCH_SIZE.get();
+		FETCH_SIZE.set(fetchSize);
+		try {
+			query.run();
+		} finally {
+			if (previous == null) {
+				FETCH_SIZE.remove();
+			} else {
+				FETCH_SIZE.set(previous);
+			}
+		}
+
+	}
+
+	@Override
+	public Object intercept(Invocation invocation) throws Throwable {
+
+		if (invocation.getTarget() instanceof Executor) {
+			return query(invocation);
+		}
+
+		Statement statement = (Statement) invocation.proceed();
+		Integer fetchSize = FETCH_SIZE.get();
+		if (fetchSize != null) {
+			statement.setFetchSize(fetchSize);
+		}
+		return statement;
+
+	}
+
+	//预编译、执行和读取结果集都在Executor.query中，整个期间对当前连接开启服务端游标
+	private Object query(Invocation invocation) throws Throwable {
+
+		MappedStatement mappedStatement = (MappedStatement) invocation.getArgs()[0];
+		if (FETCH_SIZE.get() == null) {
+			if (isCursorStatement(mappedStatement)) {
+				throw new IllegalStateException(mappedStatement.getId() + " uses a server-side cursor and must be called inside CursorFetchInterceptor.fetch");
+			}
+			return invocation.proceed();
+		}
+
+		Connection connection = ((Executor) invocation.getTarget()).getTransaction().getConnection();
+		PropertySet propertySet = connection.unwrap(JdbcConnection.class).getPropertySet();
+		RuntimeProperty<Boolean> useCursorFetch = propertySet.getBooleanProperty(PropertyKey.useCursorFetch);
+		RuntimeProperty<Boolean> useServerPrepStmts = propertySet.getBooleanProperty(PropertyKey.useServerPrepStmts);
+		Boolean previousCursorFetch = useCursorFetch.getValue();
+		Boolean previousServerPrepStmts = useServerPrepStmts.getValue();
+		useCursorFetch.setValue(true);
+		useServerPrepStmts.setValue(true);
+		try {
+			return invocation.proceed();
+		} finally {
+			//连接会归还连接池，其它查询仍然使用客户端预编译
+			useCursorFetch.setValue(previousCursorFetch);
+			useServerPrepStmts.setValue(previousServerPrepStmts);
+		}
+
+	}
+
+	//FORWARD_ONLY并且fetchSize大于0的查询需要服务端游标，Integer.MIN_VALUE的流式查询不受影响
+	private boolean isCursorStatement(MappedStatement mappedStatement) {
+		Integer fetchSize = mappedStatement.getFetchSize();
+		return fetchSize != null && fetchSize > 0 && mappedStatement.getResultSetType() == ResultSetType.FORWARD_ONLY;
+	}
+
+}
@@ -7,6 +7,7 @@ import com.alibaba.druid.pool.DruidDataSource;
 import com.alibaba.druid.wall.WallConfig;
 import com.alibaba.druid.wall.WallFilter;
 import org.apache.ibatis.io.VFS;
+import org.apache.ibatis.plugin.Interceptor;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.mybatis.spring.annotation.MapperScan;
 import org.mybatis.spring.boot.autoconfigure.SpringBootVFS;
@@ -21,6 +22,7 @@ import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import javax.sql.DataSource;
 import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.Properties;
 
 //https://blog.csdn.net/u011943534/article/details/82260311
 //springboot 添加druid监控，开启慢日志，配置spring监控
@@ -79,6 +81,41 @@ public class DefaultDbConfig {
 		return ds;
 	}
 	
+	/**
+	 * 批量写入专用的连接池，只给LOAD DATA LOCAL INFILE等批量写入使用.
+	 * allowLoadLocalInfile允许服务端要求客户端上传本地文件，只在这个池的连接上开启，普通查询使用的defaultDataSource不开启。
+	 * useAffectedRows让insert ... on duplicate key update的影响行数区分插入和未变化（见BatchUpserter）。
+	 * 连接不参与defaultTransactionManager的事务，按需创建，最多4个。
+	 */
+	@Bean(name = "bulkDataSource")
+	public DataSource bulkDataSource(){
+		
+		DruidDataSource ds = new DruidDataSource();
+		ds.setDriverClassName("com.mysql.cj.jdbc.Driver");
+		ds.setUrl(url);
+		ds.setUsername(username);
+		ds.setPassword(password);
+		ds.setInitialSize(0);
+		ds.setMaxActive(4);
+		ds.setMinIdle(0);
+		ds.setMaxWait(60000);
+		ds.setValidationQuery("select 1");
+		ds.setTestOnBorrow(false);
+		ds.setTestOnReturn(false);
+		ds.setTestWhileIdle(true);
+		ds.setTimeBetweenEvictionRunsMillis(60000);
+		ds.setMinEvictableIdleTimeMillis(300000);
+		
+		Properties properties = new Properties();
+		properties.setProperty("allowLoadLocalInfile", "true");
+		properties.setProperty("useAffectedRows", "true");
+		ds.setConnectProperties(properties);
+		
+		ds.setProxyFilters(Arrays.asList(statFilter(),logFilter(),wallFilter()));
+		
+		return ds;
+	}
+	
 	//@Bean
     //@Primary
     public StatFilter statFilter(){
@@ -113,6 +150,10 @@ public class DefaultDbConfig {
         sqlSessionFactoryBean.setDataSource(dataSource);  
         sqlSessionFactoryBean.setTypeAliasesPackage(this.aliasesPackage);
         sqlSessionFactoryBean.setObjectWrapperFactory(new MapWrapperFactory());
+        //resultType为map的查询，每行按共享的列索引存放，导出时按下标取值
+        sqlSessionFactoryBean.setObjectFactory(new SlotRowMapObjectFactory());
+        //CursorFetchInterceptor用于查询期间对连接开启服务端游标并指定每次读取的行数，QueryCancelInterceptor用于导出中途取消sql
+        sqlSessionFactoryBean.setPlugins(new Interceptor[]{new SlotRowMapInterceptor(), new CursorFetchInterceptor(), new QueryCancelInterceptor()});
         
         PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();  
         sqlSessionFactoryBean.setMapperLocations(resolver.getResources("classpath*:cn/gzsendi/modules/**/mapper/xml/*.xml"));  
@@ -0,0 +1,44 @@
+package cn.gzsendi.config.mybatis;
+
+import java.sql.Statement;
+
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+
+import cn.gzsendi.modules.framework.utils.QueryCanceller;
+
+/**
+ * 把正在执行的查询登记到当前线程绑定的{@link QueryCanceller}，没有绑定时原样执行.
+ *
+ * <pre>
+ * StatementHandler.query包含执行sql和读取、关闭结果集，整个过程中都可以被取消。
+ * </pre>
+ */
+@Intercepts({
+	@Signature(type = StatementHandler.class, method = "query", args = {Statement.class, ResultHandler.class})
+})
+public class QueryCancelInterceptor implements Interceptor {
+
+	@Override
+	public Object intercept(Invocation invocation) throws Throwable {
+
+		QueryCanceller canceller = QueryCanceller.current();
+		if (canceller == null) {
+			return invocation.proceed();
+		}
+
+		Statement statement = (Statement) invocation.getArgs()[0];
+		canceller.attach(statement);
+		try {
+			return invocation.proceed();
+		} finally {
+			canceller.detach(statement);
+		}
+
+	}
+
+}
@@ -0,0 +1,95 @@
+package cn.gzsendi.config.mybatis;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.executor.resultset.ResultSetHandler;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.Configuration;
+
+import cn.gzsendi.modules.framework.utils.SlotRowMap;
+
+/**
+ * resultType为map的查询，在处理结果集之前按ResultSet的列建立{@link SlotRowMap.Index}.
+ *
+ * <pre>
+ * 每次查询只读取一次ResultSetMetaData，列名按mybatis自动映射同样的规则转换成Map的key
+ * （useColumnLabel、驼峰转换及{@link cn.gzsendi.config.mybatis.wrapper.CustomWrapper}），
+ * 之后{@link SlotRowMapObjectFactory}创建的每一行都共享这个索引。
+ * 只处理没有显式映射的单结果集查询，其它查询原样执行。
+ * </pre>
+ */
+@Intercepts(@Signature(type = ResultSetHandler.class, method = "handleResultSets", args = {Statement.class}))
+public class SlotRowMapInterceptor implements Interceptor {
+
+	@Override
+	public Object intercept(Invocation invocation) throws Throwable {
+
+		MetaObject resultSetHandler = SystemMetaObject.forObject(invocation.getTarget());
+		if (!resultSetHandler.hasGetter("mappedStatement")) {
+			return invocation.proceed();
+		}
+		MappedStatement mappedStatement = (MappedStatement) resultSetHandler.getValue("mappedStatement");
+		if (!isAutoMappedMap(mappedStatement)) {
+			return invocation.proceed();
+		}
+
+		SlotRowMap.Index index = buildIndex((Statement) invocation.getArgs()[0], mappedStatement.getConfiguration());
+		if (index == null) {
+			return invocation.proceed();
+		}
+
+		//嵌套查询会在当前结果集处理过程中再次进入，结束后恢复外层的索引
+		SlotRowMap.Index previous = SlotRowMapObjectFactory.setCurrentIndex(index);
+		try {
+			return invocation.proceed();
+		} finally {
+			SlotRowMapObjectFactory.setCurrentIndex(previous);
+		}
+
+	}
+
+	//resultType="map"：只有一个ResultMap，类型为Map且没有显式的字段映射
+	private boolean isAutoMappedMap(MappedStatement mappedStatement) {
+		List<ResultMap> resultMaps = mappedStatement.getResultMaps();
+		if (resultMaps.size() != 1) {
+			return false;
+		}
+		ResultMap resultMap = resultMaps.get(0);
+		return resultMap.getType() == Map.class && resultMap.getResultMappings().isEmpty();
+	}
+
+	private SlotRowMap.Index buildIndex(Statement statement, Configuration configuration) throws Exception {
+
+		//返回的是当前结果集，不会移动游标，流式查询也可以读取
+		ResultSet resultSet = statement.getResultSet();
+		if (resultSet == null) {
+			return null;
+		}
+		ResultSetMetaData metaData = resultSet.getMetaData();
+
+		//用一个空Map的MetaObject转换列名，与自动映射时的key完全一致
+		MetaObject keyResolver = configuration.newMetaObject(new HashMap<String, Object>());
+		List<String> keys = new ArrayList<String>(metaData.getColumnCount());
+		for (int i = 1; i <= metaData.getColumnCount(); i++) {
+			String columnName = configuration.isUseColumnLabel() ? metaData.getColumnLabel(i) : metaData.getColumnName(i);
+			String property = keyResolver.findProperty(columnName, configuration.isMapUnderscoreToCamelCase());
+			keys.add(property == null ? columnName : property);
+		}
+		return new SlotRowMap.Index(keys);
+
+	}
+
+}
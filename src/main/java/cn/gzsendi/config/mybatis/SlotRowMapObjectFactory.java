@@ -0,0 +1,48 @@
+package cn.gzsendi.config.mybatis;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.reflection.factory.DefaultObjectFactory;
+
+import cn.gzsendi.modules.framework.utils.SlotRowMap;
+
+/**
+ * resultType为map的查询，行对象创建为{@link SlotRowMap}.
+ *
+ * <pre>
+ * 当前查询的列索引由{@link SlotRowMapInterceptor}在处理结果集之前放到当前线程，
+ * 不在结果集处理中（或没有索引）时与DefaultObjectFactory一样创建HashMap。
+ * 只替换Map接口本身，resultType写成hashmap等具体类型时不受影响。
+ * </pre>
+ */
+public class SlotRowMapObjectFactory extends DefaultObjectFactory {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final ThreadLocal<SlotRowMap.Index> CURRENT_INDEX = new ThreadLocal<SlotRowMap.Index>();
+
+	/**设置当前线程正在处理的结果集的列索引，返回之前的索引，用于嵌套查询结束后恢复*/
+	static SlotRowMap.Index setCurrentIndex(SlotRowMap.Index index) {
+		SlotRowMap.Index previous = CURRENT_INDEX.get();
+		if (index == null) {
+			CURRENT_INDEX.remove();
+		} else {
+			CURRENT_INDEX.set(index);
+		}
+		return previous;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T create(Class<T> type, List<Class<?>> constructorArgTypes, List<Object> constructorArgs) {
+		if (type == Map.class && constructorArgTypes == null) {
+			SlotRowMap.Index index = CURRENT_INDEX.get();
+			if (index != null) {
+				return (T) new SlotRowMap(index);
+			}
+		}
+		return super.create(type, constructorArgTypes, constructorArgs);
+	}
+
+}
@@ -0,0 +1,27 @@
+package cn.gzsendi.modules.export.controller;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import cn.gzsendi.modules.export.service.ExportRejectedException;
+
+/**
+ * 导出被准入控制拒绝时返回429，并通过Retry-After告诉客户端多久后重试
+ */
+@RestControllerAdvice
+public class ExportExceptionHandler {
+
+	private static final int SC_TOO_MANY_REQUESTS = 429;
+
+	@ExceptionHandler(ExportRejectedException.class)
+	public Object exportRejected(ExportRejectedException e, HttpServletResponse response){
+
+		response.setStatus(SC_TOO_MANY_REQUESTS);
+		response.setHeader("Retry-After", String.valueOf(e.getRetryAfterSeconds()));
+		return e.getMessage();
+
+	}
+
+}
@@ -0,0 +1,64 @@
+package cn.gzsendi.modules.export.controller;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import cn.gzsendi.modules.export.model.ExportJob;
+import cn.gzsendi.modules.export.model.ExportJobPhase;
+import cn.gzsendi.modules.export.service.ExportJobService;
+
+/**
+ * 异步导出任务的状态查询和下载，任务由各业务模块提交，如/user/exportJob
+ */
+@RestController
+@RequestMapping("/export/jobs")
+public class ExportJobController {
+
+	@Autowired
+	private ExportJobService exportJobService;
+
+	//查询导出任务的状态及已写入的行数
+	//http://localhost:8080/test/export/jobs/{jobId}
+	@RequestMapping(value="/{jobId}", method = RequestMethod.GET)
+	public Object status(@PathVariable("jobId") String jobId, HttpServletResponse response){
+
+		ExportJob job = exportJobService.getJob(jobId);
+		if(job == null){
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return "export job not found";
+		}
+		return job;
+
+	}
+
+	//下载导出完成的文件
+	//http://localhost:8080/test/export/jobs/{jobId}/download
+	@RequestMapping(value="/{jobId}/download", method = RequestMethod.GET)
+	public void download(@PathVariable("jobId") String jobId, HttpServletResponse response) throws IOException{
+
+		ExportJob job = exportJobService.getJob(jobId);
+		if(job == null){
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "export job not found");
+			return;
+		}
+		if(job.getPhase() != ExportJobPhase.FINISHED){
+			response.sendError(HttpServletResponse.SC_CONFLICT, "export job is " + job.getPhase());
+			return;
+		}
+
+		response.setContentType("application/octet-stream");
+		response.setHeader("Content-Disposition", "attachment;filename=" + new String(job.getFileName().getBytes("utf-8"),"iso8859-1"));
+		response.setContentLengthLong(job.getFile().length());
+		Files.copy(job.getFile().toPath(), response.getOutputStream());
+
+	}
+
+}
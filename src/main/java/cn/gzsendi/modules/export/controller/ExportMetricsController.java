@@ -0,0 +1,30 @@
+package cn.gzsendi.modules.export.controller;
+
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import cn.gzsendi.modules.framework.metrics.MetricsRegistry;
+
+/**
+ * 导出指标：耗时、行数、字节数、各阶段耗时的直方图
+ */
+@RestController
+@RequestMapping("/export/metrics")
+public class ExportMetricsController {
+
+	//json格式
+	//http://localhost:8080/test/export/metrics
+	@RequestMapping(method = RequestMethod.GET)
+	public Object metrics(){
+		return MetricsRegistry.getInstance().snapshot();
+	}
+
+	//prometheus文本格式，用于采集
+	//http://localhost:8080/test/export/metrics/prometheus
+	@RequestMapping(value="/prometheus", method = RequestMethod.GET, produces = "text/plain; version=0.0.4; charset=utf-8")
+	public String prometheus(){
+		return MetricsRegistry.getInstance().toPrometheus();
+	}
+
+}
@@ -0,0 +1,92 @@
+package cn.gzsendi.modules.export.model;
+
+import java.io.File;
+import java.util.Date;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import cn.gzsendi.modules.framework.utils.ExcelResultHandler;
+
+/**
+ * 异步导出任务
+ */
+public class ExportJob {
+	
+	private String jobId;
+	private String fileName;//下载时的文件名，带后缀
+	@JsonIgnore
+	private String user;//提交任务的用户，执行时按这个用户获取导出许可
+	private volatile ExportJobPhase phase = ExportJobPhase.QUEUED;
+	private volatile String errorMessage;
+	private Date createTime = new Date();
+	private volatile Date startTime;
+	private volatile Date finishTime;
+	
+	@JsonIgnore
+	private File file;//导出的本地文件
+	
+	@JsonIgnore
+	private ExcelResultHandler<?> handler;//导出中的handler，用于实时获取已写入的行数
+	
+	public ExportJob(String jobId, String fileName, String user, File file, ExcelResultHandler<?> handler) {
+		this.jobId = jobId;
+		this.fileName = fileName;
+		this.user = user;
+		this.file = file;
+		this.handler = handler;
+	}
+	
+	public String getJobId() {
+		return jobId;
+	}
+	public String getFileName() {
+		return fileName;
+	}
+	public String getUser() {
+		return user;
+	}
+	public ExportJobPhase getPhase() {
+		return phase;
+	}
+	public void setPhase(ExportJobPhase phase) {
+		this.phase = phase;
+	}
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+	public void setErrorMessage(String errorMessage) {
+		this.errorMessage = errorMessage;
+	}
+	public Date getCreateTime() {
+		return createTime;
+	}
+	public Date getStartTime() {
+		return startTime;
+	}
+	public void setStartTime(Date startTime) {
+		this.startTime = startTime;
+	}
+	public Date getFinishTime() {
+		return finishTime;
+	}
+	public void setFinishTime(Date finishTime) {
+		this.finishTime = finishTime;
+	}
+	public File getFile() {
+		return file;
+	}
+	public ExcelResultHandler<?> getHandler() {
+		return handler;
+	}
+	
+	/**已写入的数据行数*/
+	public int getRowsWritten() {
+		return handler.getCurrentRowNumber();
+	}
+	
+	/**已写入文件的字节数*/
+	public long getFileSize() {
+		return file.length();
+	}
+
+}
@@ -0,0 +1,20 @@
+package cn.gzsendi.modules.export.model;
+
+/**
+ * 异步导出任务的阶段
+ */
+public enum ExportJobPhase {
+	
+	/**已提交，等待导出线程执行和导出许可*/
+	QUEUED,
+	
+	/**正在查询并写入文件*/
+	RUNNING,
+	
+	/**导出完成，可以下载*/
+	FINISHED,
+	
+	/**导出失败*/
+	FAILED
+	
+}
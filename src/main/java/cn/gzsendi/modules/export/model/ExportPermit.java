@@ -0,0 +1,41 @@
+package cn.gzsendi.modules.export.model;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import cn.gzsendi.modules.export.service.ExportAdmissionService;
+
+/**
+ * 导出许可，导出结束后必须在finally中调用close()释放，关闭多次只释放一次
+ */
+public class ExportPermit implements AutoCloseable {
+
+	private final String user;
+	private final int permits;//占用的数据库连接数
+	private final long acquireTime = System.currentTimeMillis();
+	private final ExportAdmissionService admissionService;
+	private final AtomicBoolean released = new AtomicBoolean(false);
+
+	public ExportPermit(String user, int permits, ExportAdmissionService admissionService) {
+		this.user = user;
+		this.permits = permits;
+		this.admissionService = admissionService;
+	}
+
+	public String getUser() {
+		return user;
+	}
+	public int getPermits() {
+		return permits;
+	}
+	public long getAcquireTime() {
+		return acquireTime;
+	}
+
+	@Override
+	public void close() {
+		if (released.compareAndSet(false, true)) {
+			admissionService.release(this);
+		}
+	}
+
+}
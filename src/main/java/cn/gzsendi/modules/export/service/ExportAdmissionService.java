@@ -0,0 +1,40 @@
+package cn.gzsendi.modules.export.service;
+
+import cn.gzsendi.modules.export.model.ExportPermit;
+
+/**
+ * 导出准入控制.
+ *
+ * <pre>
+ * 流式导出在整个导出期间都占用一个数据库连接，同时导出的人多了会占满连接池，影响普通查询。
+ * 导出前先获取许可：并发数未满时立即通过，否则按用户公平排队（各用户轮流），
+ * 排队已满或等待超时时抛出{@link ExportRejectedException}。
+ * </pre>
+ */
+public interface ExportAdmissionService {
+
+	/**
+	 * 为当前请求的用户获取permits个许可（如分片导出占用多个连接），可能阻塞排队.
+	 * permits不能超过{@link #getMaxConcurrent()}，否则抛出IllegalArgumentException，调用方需要先按上限减少并行度
+	 */
+	public ExportPermit acquire(int permits);
+
+	/**为指定用户获取许可，用于不在请求线程中执行的导出（如异步导出任务）*/
+	public ExportPermit acquire(String user, int permits);
+
+	/**当前请求的用户，没有请求时为system*/
+	public String currentUser();
+
+	/**一次导出最多可以获取的许可数，即同时导出占用的最大连接数*/
+	public int getMaxConcurrent();
+
+	/**释放许可，由{@link ExportPermit#close()}调用*/
+	public void release(ExportPermit permit);
+
+	/**正在导出占用的许可数*/
+	public int getActivePermits();
+
+	/**排队等待的导出数*/
+	public int getQueuedCount();
+
+}
@@ -0,0 +1,23 @@
+package cn.gzsendi.modules.export.service;
+
+import java.util.function.Supplier;
+
+import cn.gzsendi.modules.framework.utils.ExcelResultHandler;
+
+/**
+ * 导出结果的本地磁盘缓存
+ */
+public interface ExportCacheService {
+
+	/**
+	 * 导出到当前请求的response，命中缓存时直接输出缓存文件，否则执行handler导出并同时写入缓存.
+	 * statementId、params、tableVersion和handler的输出设置一起组成缓存的key，
+	 * tableVersion在获取导出许可后才调用，应是一个廉价的表版本信号（如行数加最大修改时间），
+	 * 插入、原地更新和删除后都要变化，数据变化后旧的缓存不再命中。
+	 */
+	public void export(String statementId, Object params, Supplier<String> tableVersion, ExcelResultHandler<?> handler);
+
+	/**删除全部缓存文件*/
+	public void clear();
+
+}
@@ -0,0 +1,17 @@
+package cn.gzsendi.modules.export.service;
+
+import cn.gzsendi.modules.export.model.ExportJob;
+import cn.gzsendi.modules.framework.utils.ExcelResultHandler;
+
+/**
+ * 异步导出任务
+ */
+public interface ExportJobService {
+	
+	/**提交一个导出任务，由导出线程池执行handler写入本地文件，导出队列已满时抛出RejectedExecutionException*/
+	public ExportJob submit(ExcelResultHandler<?> handler);
+	
+	/**查询导出任务，不存在或已过期时返回null*/
+	public ExportJob getJob(String jobId);
+
+}
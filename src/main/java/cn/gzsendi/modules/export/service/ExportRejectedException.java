@@ -0,0 +1,21 @@
+package cn.gzsendi.modules.export.service;
+
+/**
+ * 导出并发已满且排队已满（或排队超时）时拒绝导出，由ExportExceptionHandler返回429和Retry-After
+ */
+public class ExportRejectedException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int retryAfterSeconds;//建议客户端多少秒后重试
+
+	public ExportRejectedException(String message, int retryAfterSeconds) {
+		super(message);
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	public int getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+
+}
@@ -0,0 +1,217 @@
+package cn.gzsendi.modules.export.service.impl;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import cn.gzsendi.modules.export.model.ExportPermit;
+import cn.gzsendi.modules.export.service.ExportAdmissionService;
+import cn.gzsendi.modules.export.service.ExportRejectedException;
+
+@Service
+public class ExportAdmissionServiceImpl implements ExportAdmissionService{
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	//同时导出占用的最大连接数，需要给普通查询留出足够的连接（连接池maxActive为20）
+	@Value("${export.admission.maxConcurrent:4}")
+	private int maxConcurrent;
+
+	//排队等待的最大导出数，超过后直接拒绝
+	@Value("${export.admission.maxQueue:20}")
+	private int maxQueue;
+
+	//每个用户最多排队的导出数，避免一个用户占满队列
+	@Value("${export.admission.maxQueuedPerUser:2}")
+	private int maxQueuedPerUser;
+
+	//排队的最长等待秒数，超时后拒绝
+	@Value("${export.admission.maxWaitSeconds:60}")
+	private int maxWaitSeconds;
+
+	private int activePermits = 0;
+	private int queuedCount = 0;
+
+	//每个用户一个等待队列，按用户轮流放行，放行后该用户移到最后
+	private final LinkedHashMap<String, ArrayDeque<Waiter>> waitQueues = new LinkedHashMap<String, ArrayDeque<Waiter>>();
+
+	//导出平均耗时，用于估算Retry-After
+	private double averageHoldMillis = 30000;
+
+	@Override
+	public ExportPermit acquire(int permits) {
+		return acquire(currentUser(), permits);
+	}
+
+	@Override
+	public ExportPermit acquire(String user, int permits) {
+
+		//超过上限的请求永远无法放行，也不能悄悄按上限处理（调用方会按申请的数量占用连接）
+		if (permits < 1 || permits > maxConcurrent) {
+			throw new IllegalArgumentException("export permits must be between 1 and " + maxConcurrent + ", requested: " + permits);
+		}
+		int required = permits;
+
+		Waiter waiter;
+		synchronized (this) {
+
+			if (queuedCount == 0 && activePermits + required <= maxConcurrent) {
+				activePermits += required;
+				return new ExportPermit(user, required, this);
+			}
+
+			ArrayDeque<Waiter> userQueue = waitQueues.get(user);
+			if (queuedCount >= maxQueue || (userQueue != null && userQueue.size() >= maxQueuedPerUser)) {
+				logger.warn("export rejected, user: {}, active permits: {}, queued: {}", user, activePermits, queuedCount);
+				throw new ExportRejectedException("too many exports in progress, please try again later", retryAfterSeconds());
+			}
+
+			waiter = new Waiter(required);
+			if (userQueue == null) {
+				userQueue = new ArrayDeque<Waiter>();
+				waitQueues.put(user, userQueue);
+			}
+			userQueue.add(waiter);
+			queuedCount++;
+
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(maxWaitSeconds);
+			boolean interrupted = false;
+			while (!waiter.granted) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0 || interrupted) {
+					break;
+				}
+				try {
+					TimeUnit.NANOSECONDS.timedWait(this, remaining);
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+
+			if (!waiter.granted) {
+				removeWaiter(user, waiter);
+				//排在后面的请求可能因为这个请求的离开而可以放行
+				dispatch();
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+				logger.warn("export rejected after waiting {}s, user: {}", maxWaitSeconds, user);
+				throw new ExportRejectedException("export queue wait timeout, please try again later", retryAfterSeconds());
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+
+		}
+
+		return new ExportPermit(user, required, this);
+
+	}
+
+	@Override
+	public synchronized void release(ExportPermit permit) {
+
+		activePermits -= permit.getPermits();
+		long holdMillis = System.currentTimeMillis() - permit.getAcquireTime();
+		averageHoldMillis = averageHoldMillis * 0.8 + holdMillis * 0.2;
+		dispatch();
+
+	}
+
+	@Override
+	public int getMaxConcurrent() {
+		return maxConcurrent;
+	}
+
+	@Override
+	public synchronized int getActivePermits() {
+		return activePermits;
+	}
+
+	@Override
+	public synchronized int getQueuedCount() {
+		return queuedCount;
+	}
+
+	//按用户轮流放行排在队首的请求，队首需要的许可不够时停止，避免需要多个连接的请求一直等不到
+	private void dispatch() {
+
+		boolean granted = false;
+		while (!waitQueues.isEmpty()) {
+
+			Iterator<Map.Entry<String, ArrayDeque<Waiter>>> iterator = waitQueues.entrySet().iterator();
+			Map.Entry<String, ArrayDeque<Waiter>> next = iterator.next();
+			Waiter waiter = next.getValue().peek();
+			if (activePermits + waiter.permits > maxConcurrent) {
+				break;
+			}
+
+			next.getValue().poll();
+			iterator.remove();
+			if (!next.getValue().isEmpty()) {
+				//该用户还有排队的请求，移到最后，先放行其他用户
+				waitQueues.put(next.getKey(), next.getValue());
+			}
+			queuedCount--;
+			activePermits += waiter.permits;
+			waiter.granted = true;
+			granted = true;
+
+		}
+		if (granted) {
+			notifyAll();
+		}
+
+	}
+
+	private void removeWaiter(String user, Waiter waiter) {
+		ArrayDeque<Waiter> userQueue = waitQueues.get(user);
+		if (userQueue != null && userQueue.remove(waiter)) {
+			queuedCount--;
+			if (userQueue.isEmpty()) {
+				waitQueues.remove(user);
+			}
+		}
+	}
+
+	//按平均导出耗时和前面排队的数量估算多久之后可能有空位
+	private int retryAfterSeconds() {
+		double rounds = (double) (queuedCount + 1) / Math.max(1, maxConcurrent);
+		return (int) Math.max(1, Math.ceil(averageHoldMillis * rounds / 1000));
+	}
+
+	//没有登录体系时按客户端地址区分用户
+	@Override
+	public String currentUser() {
+		RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+		if (!(attributes instanceof ServletRequestAttributes)) {
+			return "system";
+		}
+		HttpServletRequest request = ((ServletRequestAttributes) attributes).getRequest();
+		return request.getRemoteUser() != null ? request.getRemoteUser() : request.getRemoteAddr();
+	}
+
+	private static class Waiter {
+
+		private final int permits;
+		private boolean granted = false;
+
+		private Waiter(int permits) {
+			this.permits = permits;
+		}
+
+	}
+
+}
@@ -0,0 +1,319 @@
+package cn.gzsendi.modules.export.service.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.google.common.hash.Hashing;
+
+import cn.gzsendi.modules.export.model.ExportPermit;
+import cn.gzsendi.modules.export.service.ExportAdmissionService;
+import cn.gzsendi.modules.export.service.ExportCacheService;
+import cn.gzsendi.modules.framework.utils.ContextHolderUtils;
+import cn.gzsendi.modules.framework.utils.ExcelResultHandler;
+import cn.gzsendi.modules.framework.utils.JsonUtil;
+import cn.gzsendi.modules.framework.utils.TeeOutputStream;
+
+@Service
+public class ExportCacheServiceImpl implements ExportCacheService{
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private static final String CACHE_FILE_SUFFIX = ".cache";
+	private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+	//缓存文件名为key-创建时间-随机数.cache，同一个key重新缓存时使用新文件，不会覆盖正在输出的旧文件；
+	//文件的修改时间在每次命中时更新，只用于恢复LRU顺序，过期按文件名中的创建时间计算
+	private static final char KEY_SEPARATOR = '-';
+
+	@Autowired
+	private ExportAdmissionService exportAdmissionService;
+
+	//是否启用导出缓存
+	@Value("${export.cache.enabled:true}")
+	private boolean enabled;
+
+	//缓存文件的存放目录
+	@Value("${export.cache.dir:${java.io.tmpdir}/export-cache}")
+	private String cacheDir;
+
+	//缓存文件的总大小上限，超过后按最近最少使用淘汰
+	@Value("${export.cache.maxSizeMb:1024}")
+	private long maxSizeMb;
+
+	//缓存的最长保留时间，表版本信号感知不到的修改（如直接指定了update_time的写入）靠过期时间兜底
+	@Value("${export.cache.maxAgeMinutes:1440}")
+	private long maxAgeMinutes;
+
+	//按访问顺序排列，最早的为最近最少使用
+	private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+	private long totalSize = 0;
+
+	@PostConstruct
+	public void init() {
+
+		File dir = new File(cacheDir);
+		dir.mkdirs();
+
+		//重启后继续使用已有的缓存文件，按最后访问时间恢复LRU顺序，未完成的临时文件和无法识别的文件直接删除
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		synchronized (this) {
+			for (File file : files) {
+				String name = file.getName();
+				if (name.endsWith(CACHE_FILE_SUFFIX)) {
+					int keyEnd = name.indexOf(KEY_SEPARATOR);
+					int timeEnd = keyEnd > 0 ? name.indexOf(KEY_SEPARATOR, keyEnd + 1) : -1;
+					long createTime;
+					try {
+						createTime = timeEnd > 0 ? Long.parseLong(name.substring(keyEnd + 1, timeEnd)) : -1;
+					} catch (NumberFormatException e) {
+						createTime = -1;
+					}
+					if (createTime < 0) {
+						file.delete();
+						continue;
+					}
+					String key = name.substring(0, keyEnd);
+					//同一个key有多个文件时（替换旧文件时中断）保留最后访问的
+					remove(key);
+					entries.put(key, new CacheEntry(file, file.length(), createTime));
+					totalSize += file.length();
+				} else if (name.endsWith(TEMP_FILE_SUFFIX)) {
+					file.delete();
+				}
+			}
+			evict();
+		}
+		logger.info("export cache loaded {} files, {} bytes", entries.size(), totalSize);
+
+	}
+
+	@Override
+	public void export(String statementId, Object params, Supplier<String> tableVersion, ExcelResultHandler<?> handler) {
+
+		//查询表版本和未命中时的导出都需要数据库连接，先排队获取导出许可，被拒绝时异常直接抛给controller
+		ExportPermit permit = exportAdmissionService.acquire(1);
+		try {
+
+			if (!enabled) {
+				handler.startExportExcel();
+				return;
+			}
+
+			String version = tableVersion.get();
+			String key = cacheKey(statementId, params, version, handler);
+			HttpServletResponse response = ContextHolderUtils.getResponse();
+
+			//命中时占用缓存文件，输出期间即使被淘汰也不会删除
+			CacheEntry cached = lookup(key);
+			if (cached != null) {
+				//输出缓存文件不需要数据库连接，提前释放许可
+				permit.close();
+				logger.info("export cache hit: {}, {} bytes", statementId, cached.size);
+				try {
+					setDownloadHeaders(response, handler);
+					response.setContentLengthLong(cached.size);
+					Files.copy(cached.file.toPath(), response.getOutputStream());
+					response.getOutputStream().flush();
+				} catch (Exception e) {
+					logger.error("error",e);
+				} finally {
+					release(cached);
+				}
+				return;
+			}
+
+			try {
+				logger.info("export cache miss: {}, version: {}", statementId, version);
+				setDownloadHeaders(response, handler);
+				exportAndCache(key, handler, response);
+			} catch (Exception e) {
+				//客户端中途断开时，查询已在handler中取消，缓存的临时文件在exportAndCache中删除
+				if (ContextHolderUtils.isClientAbort(e)) {
+					logger.warn("client aborted export: {}", statementId);
+				} else {
+					logger.error("error",e);
+				}
+			}
+
+		} finally {
+			permit.close();
+		}
+
+	}
+
+	@Override
+	public synchronized void clear() {
+		for (CacheEntry entry : entries.values()) {
+			discard(entry);
+		}
+		entries.clear();
+		totalSize = 0;
+	}
+
+	//一边输出给客户端一边写入临时文件，导出成功后再放入缓存
+	private void exportAndCache(String key, ExcelResultHandler<?> handler, HttpServletResponse response) throws IOException {
+
+		File tempFile = File.createTempFile(key + KEY_SEPARATOR, TEMP_FILE_SUFFIX, new File(cacheDir));
+		boolean success = false;
+
+		try (OutputStream os = new TeeOutputStream(new BufferedOutputStream(response.getOutputStream()),
+				new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+
+			handler.exportExcel(os);
+			success = true;
+
+		} finally {
+
+			if (success) {
+				commit(key, tempFile);
+			} else {
+				tempFile.delete();
+			}
+
+		}
+
+	}
+
+	private void setDownloadHeaders(HttpServletResponse response, ExcelResultHandler<?> handler) throws IOException {
+		response.setContentType("application/octet-stream");
+		response.setHeader("Content-Disposition", "attachment;filename=" + new String(handler.getExportFileFullName().getBytes("utf-8"),"iso8859-1"));
+	}
+
+	//命中时增加引用计数，输出完成后调用release
+	private synchronized CacheEntry lookup(String key) {
+
+		CacheEntry entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (isExpired(entry) || !entry.file.exists()) {
+			remove(key);
+			return null;
+		}
+		//记录访问时间，重启后用于恢复LRU顺序
+		entry.file.setLastModified(System.currentTimeMillis());
+		entry.readers++;
+		return entry;
+
+	}
+
+	//输出完成，已被淘汰的缓存在最后一个输出完成后删除文件
+	private synchronized void release(CacheEntry entry) {
+		entry.readers--;
+		if (entry.discarded && entry.readers == 0) {
+			entry.file.delete();
+		}
+	}
+
+	//从缓存中移除后删除文件，正在输出时推迟到release
+	private void discard(CacheEntry entry) {
+		entry.discarded = true;
+		if (entry.readers == 0) {
+			entry.file.delete();
+		}
+	}
+
+	private synchronized void commit(String key, File tempFile) throws IOException {
+
+		long size = tempFile.length();
+		if (size > maxSizeMb * 1024 * 1024) {
+			//单个文件就超过了缓存上限，不缓存
+			tempFile.delete();
+			return;
+		}
+
+		//临时文件名为key-随机数.tmp，在key之后插入创建时间
+		long createTime = System.currentTimeMillis();
+		String tempName = tempFile.getName();
+		String random = tempName.substring(key.length() + 1, tempName.length() - TEMP_FILE_SUFFIX.length());
+		File cacheFile = new File(cacheDir, key + KEY_SEPARATOR + createTime + KEY_SEPARATOR + random + CACHE_FILE_SUFFIX);
+		remove(key);
+		Files.move(tempFile.toPath(), cacheFile.toPath());
+		entries.put(key, new CacheEntry(cacheFile, size, createTime));
+		totalSize += size;
+
+		evict();
+
+	}
+
+	//删除过期的缓存，再按最近最少使用淘汰，直到总大小不超过上限
+	private void evict() {
+
+		long maxSize = maxSizeMb * 1024 * 1024;
+		Iterator<Map.Entry<String, CacheEntry>> iterator = entries.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, CacheEntry> eldest = iterator.next();
+			CacheEntry entry = eldest.getValue();
+			if (totalSize <= maxSize && !isExpired(entry)) {
+				continue;
+			}
+			iterator.remove();
+			totalSize -= entry.size;
+			discard(entry);
+			logger.info("export cache evicted: {}", eldest.getKey());
+		}
+
+	}
+
+	private void remove(String key) {
+		CacheEntry entry = entries.remove(key);
+		if (entry != null) {
+			totalSize -= entry.size;
+			discard(entry);
+		}
+	}
+
+	private boolean isExpired(CacheEntry entry) {
+		return System.currentTimeMillis() - entry.createTime > TimeUnit.MINUTES.toMillis(maxAgeMinutes);
+	}
+
+	//查询和输出设置一起决定导出文件的内容，取hash作为缓存文件名
+	private String cacheKey(String statementId, Object params, String tableVersion, ExcelResultHandler<?> handler) {
+		String source = statementId + "\n" + JsonUtil.toJSONString(params) + "\n" + tableVersion + "\n" + handler.getOutputSignature();
+		return Hashing.sha256().hashString(source, StandardCharsets.UTF_8).toString();
+	}
+
+	private static class CacheEntry {
+
+		private final File file;
+		private final long size;
+		private final long createTime;
+
+		//正在输出这个文件的请求数，已从缓存中移除，这两个字段由ExportCacheServiceImpl的锁保护
+		private int readers = 0;
+		private boolean discarded = false;
+
+		private CacheEntry(File file, long size, long createTime) {
+			this.file = file;
+			this.size = size;
+			this.createTime = createTime;
+		}
+
+	}
+
+}
@@ -0,0 +1,171 @@
+package cn.gzsendi.modules.export.service.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import cn.gzsendi.modules.export.model.ExportJob;
+import cn.gzsendi.modules.export.model.ExportJobPhase;
+import cn.gzsendi.modules.export.model.ExportPermit;
+import cn.gzsendi.modules.export.service.ExportAdmissionService;
+import cn.gzsendi.modules.export.service.ExportJobService;
+import cn.gzsendi.modules.framework.utils.ExcelResultHandler;
+
+@Service
+public class ExportJobServiceImpl implements ExportJobService{
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private ExportAdmissionService exportAdmissionService;
+
+	//同时执行的导出任务数，每个任务导出期间占用一个数据库连接，与http线程数分开配置
+	@Value("${export.job.threads:2}")
+	private int threads;
+
+	//排队等待的导出任务数，超过后拒绝提交
+	@Value("${export.job.queueCapacity:20}")
+	private int queueCapacity;
+
+	//导出文件的存放目录
+	@Value("${export.job.dir:${java.io.tmpdir}/export-jobs}")
+	private String jobDir;
+
+	//导出完成后文件保留的分钟数，过期后删除文件和任务
+	@Value("${export.job.retainMinutes:60}")
+	private int retainMinutes;
+
+	private final Map<String, ExportJob> jobs = new ConcurrentHashMap<String, ExportJob>();
+
+	private ThreadPoolExecutor executor;
+	private ScheduledExecutorService cleaner;
+
+	@PostConstruct
+	public void init() {
+
+		new File(jobDir).mkdirs();
+
+		final AtomicInteger threadNumber = new AtomicInteger(0);
+		executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						return new Thread(r, "export-job-" + threadNumber.incrementAndGet());
+					}
+				});
+
+		//定时清理过期的导出文件
+		cleaner = Executors.newSingleThreadScheduledExecutor();
+		cleaner.scheduleWithFixedDelay(this::cleanExpiredJobs, 1, 1, TimeUnit.MINUTES);
+
+	}
+
+	@PreDestroy
+	public void destroy() {
+		executor.shutdownNow();
+		cleaner.shutdownNow();
+	}
+
+	@Override
+	public ExportJob submit(final ExcelResultHandler<?> handler) {
+
+		String jobId = UUID.randomUUID().toString().replace("-", "");
+		//提交时还在请求线程中，记录用户，执行时按这个用户排队
+		final ExportJob job = new ExportJob(jobId, handler.getExportFileFullName(), exportAdmissionService.currentUser(),
+				new File(jobDir, jobId), handler);
+
+		//先登记再执行，任务开始执行或被查询时一定已经登记；队列已满时抛出RejectedExecutionException，撤销登记
+		jobs.put(jobId, job);
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					runJob(job);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			jobs.remove(jobId);
+			throw e;
+		}
+
+		logger.info("export job {} submitted, file: {}", jobId, job.getFileName());
+		return job;
+
+	}
+
+	@Override
+	public ExportJob getJob(String jobId) {
+		return jobs.get(jobId);
+	}
+
+	private void runJob(ExportJob job) {
+
+		ExportPermit permit = null;
+		try {
+
+			//与同步导出共用准入控制，排队等待导出许可，被拒绝时任务失败
+			permit = exportAdmissionService.acquire(job.getUser(), 1);
+			job.setPhase(ExportJobPhase.RUNNING);
+			job.setStartTime(new Date());
+
+			try (OutputStream os = new BufferedOutputStream(new FileOutputStream(job.getFile()))) {
+				job.getHandler().exportExcel(os);
+			}
+			job.setPhase(ExportJobPhase.FINISHED);
+
+		} catch (Exception e) {
+
+			logger.error("export job " + job.getJobId() + " failed", e);
+			job.setErrorMessage(e.getMessage());
+			job.setPhase(ExportJobPhase.FAILED);
+			job.getFile().delete();
+
+		} finally {
+
+			if (permit != null) {
+				permit.close();
+			}
+			job.setFinishTime(new Date());
+			logger.info("export job {} {}, rows: {}", job.getJobId(), job.getPhase(), job.getRowsWritten());
+
+		}
+
+	}
+
+	private void cleanExpiredJobs() {
+
+		long expireTime = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(retainMinutes);
+		Iterator<ExportJob> iterator = jobs.values().iterator();
+		while (iterator.hasNext()) {
+			ExportJob job = iterator.next();
+			if (job.getFinishTime() != null && job.getFinishTime().getTime() < expireTime) {
+				iterator.remove();
+				job.getFile().delete();
+				logger.info("export job {} expired, file deleted", job.getJobId());
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,35 @@
+package cn.gzsendi.modules.framework.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记导出到excel的字段.
+ *
+ * <pre>
+ * 行数据的Class上带有该注解的字段就是导出的列，不需要再手工维护headerArray和fieldArray，
+ * 导出时按注解生成行写入器，见{@link cn.gzsendi.modules.framework.reflect.reflectasm.ExcelRowWriter}。
+ * 字段需要有public的getter方法。
+ * </pre>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface ExcelColumn {
+
+	/**表头，为空时使用字段名*/
+	String header() default "";
+
+	/**列的顺序，从小到大排列，相同时按字段的声明顺序*/
+	int order() default 0;
+
+	/**数值、日期单元格的excel格式，如0.00、yyyy-mm-dd，为空时使用默认格式*/
+	String format() default "";
+
+	/**列宽，单位为字符数，小于等于0时使用默认列宽*/
+	int width() default 0;
+
+}
@@ -0,0 +1,125 @@
+package cn.gzsendi.modules.framework.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单次导出的指标，导出结束时汇总到{@link MetricsRegistry}.
+ *
+ * <pre>
+ * 各阶段的含义：
+ * queryOpen  开始取数到拿到第一行（执行sql、MySQL返回第一批数据）
+ * fetch      拿到第一行之后读取和映射结果集的时间，不含同一线程上生成xml的时间
+ * serialize  把行写成xml（或SXSSF的行）的时间
+ * zip        deflate压缩的耗时，多线程压缩时为各线程耗时之和
+ * flush      中途分块输出及最后finish输出的时间
+ *
+ * 行的计时和中途的flush在写入线程上更新，开启流水线时与导出线程不同，由线程的join保证导出结束时可见。
+ * 分片导出时各分片的指标由{@link #merge(ExportMetrics)}汇总，serialize为各分片之和，与zip相同。
+ * </pre>
+ */
+public class ExportMetrics {
+
+	private long startNanos;
+	private long fetchStartNanos;
+	private long fetchEndNanos;
+	private volatile long firstRowNanos;
+	private long serializeNanos;
+	private long flushNanos;
+	private boolean pipelined;
+
+	public void start() {
+		startNanos = System.nanoTime();
+		MetricsRegistry.getInstance().counter("export.started").increment();
+	}
+
+	public void fetchStarted(boolean pipelined) {
+		this.pipelined = pipelined;
+		fetchStartNanos = System.nanoTime();
+	}
+
+	public void fetchFinished() {
+		fetchEndNanos = System.nanoTime();
+	}
+
+	/**开始写入一行，返回开始时间，传给{@link #rowFinished(long)}*/
+	public long rowStarted() {
+		long now = System.nanoTime();
+		if (firstRowNanos == 0) {
+			firstRowNanos = now;
+		}
+		return now;
+	}
+
+	public void rowFinished(long rowStartNanos) {
+		serializeNanos += System.nanoTime() - rowStartNanos;
+	}
+
+	public void addFlushNanos(long nanos) {
+		flushNanos += nanos;
+	}
+
+	/**汇总一个分片的行计时和flush时间，第一行取最早的分片，需要在分片完成之后调用*/
+	public void merge(ExportMetrics shard) {
+		if (shard.firstRowNanos != 0 && (firstRowNanos == 0 || shard.firstRowNanos - firstRowNanos < 0)) {
+			firstRowNanos = shard.firstRowNanos;
+		}
+		serializeNanos += shard.serializeNanos;
+		flushNanos += shard.flushNanos;
+	}
+
+	/**
+	 * 导出结束，记录到注册表.
+	 *
+	 * @param uncompressedBytes 压缩前的xml（csv导出时为csv）字节数，未知时为-1
+	 * @param compressedBytes xlsx（csv导出时为gzip）压缩后的字节数，未知时为-1
+	 * @param zipNanos 压缩耗时
+	 * @param tempFileBytes SXSSF临时文件占用的磁盘，没有临时文件时为-1
+	 */
+	public void finish(boolean success, long rows, long bytesWritten, long uncompressedBytes, long compressedBytes,
+			long zipNanos, long tempFileBytes) {
+
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		registry.counter(success ? "export.succeeded" : "export.failed").increment();
+		if (!success) {
+			return;
+		}
+
+		long durationNanos = System.nanoTime() - startNanos;
+		registry.counter("export.rows").add(rows);
+		registry.counter("export.bytesWritten").add(bytesWritten);
+
+		registry.histogram("export.duration.ms").record(toMillis(durationNanos));
+		registry.histogram("export.rowsPerExport").record(rows);
+		registry.histogram("export.rowsPerSecond").record(durationNanos == 0 ? 0 : rows * TimeUnit.SECONDS.toNanos(1) / durationNanos);
+		registry.histogram("export.bytesWritten").record(bytesWritten);
+		if (uncompressedBytes >= 0) {
+			registry.histogram("export.uncompressedBytes").record(uncompressedBytes);
+		}
+		if (compressedBytes >= 0) {
+			registry.histogram("export.compressedBytes").record(compressedBytes);
+			if (uncompressedBytes > 0) {
+				//压缩率，百分比
+				registry.histogram("export.compressionRatio.percent").record(compressedBytes * 100 / uncompressedBytes);
+			}
+		}
+		if (tempFileBytes >= 0) {
+			registry.histogram("export.sxssfTempBytes").record(tempFileBytes);
+		}
+
+		if (firstRowNanos != 0) {
+			registry.histogram("export.timeToFirstRow.ms").record(toMillis(firstRowNanos - startNanos));
+			registry.histogram("export.phase.queryOpen.ms").record(toMillis(firstRowNanos - fetchStartNanos));
+			long fetchNanos = fetchEndNanos - firstRowNanos - (pipelined ? 0 : serializeNanos);
+			registry.histogram("export.phase.fetch.ms").record(toMillis(Math.max(0, fetchNanos)));
+		}
+		registry.histogram("export.phase.serialize.ms").record(toMillis(serializeNanos));
+		registry.histogram("export.phase.zip.ms").record(toMillis(zipNanos));
+		registry.histogram("export.phase.flush.ms").record(toMillis(flushNanos));
+
+	}
+
+	private static long toMillis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+}
@@ -0,0 +1,127 @@
+package cn.gzsendi.modules.framework.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 比较不同取数方式的吞吐和内存.
+ *
+ * <pre>
+ * 每种方式先预热一轮（不计入结果），之后各方式轮流执行，避免先后顺序（缓存预热、buffer pool）影响比较。
+ * 只读取数据不生成excel，每一行只计数，测量的是执行sql、读取和映射结果集的开销。
+ *
+ * 内存为执行线程在取数期间分配的字节数（需要jvm支持线程内存分配统计），
+ * 流式查询逐行分配、游标和分页按批分配，分配的总量和每行分配量可以直接比较。
+ * </pre>
+ */
+public class FetchBenchmark {
+
+	/**一种取数方式，每一行交给rowConsumer*/
+	public interface Fetch {
+		void run(Consumer<Object> rowConsumer);
+	}
+
+	private final Map<String, Fetch> fetches = new LinkedHashMap<String, Fetch>();
+
+	public FetchBenchmark add(String name, Fetch fetch) {
+		fetches.put(name, fetch);
+		return this;
+	}
+
+	/**每种方式执行rounds轮，返回每种方式的统计*/
+	public Map<String, Object> run(int rounds) {
+
+		if (rounds < 1) {
+			throw new IllegalArgumentException("rounds must be greater than 0");
+		}
+
+		Map<String, List<long[]>> samples = new LinkedHashMap<String, List<long[]>>();
+		for (Map.Entry<String, Fetch> entry : fetches.entrySet()) {
+			measure(entry.getValue());
+			samples.put(entry.getKey(), new ArrayList<long[]>(rounds));
+		}
+		for (int round = 0; round < rounds; round++) {
+			for (Map.Entry<String, Fetch> entry : fetches.entrySet()) {
+				samples.get(entry.getKey()).add(measure(entry.getValue()));
+			}
+		}
+
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, List<long[]>> entry : samples.entrySet()) {
+			result.put(entry.getKey(), summarize(entry.getValue()));
+		}
+		return result;
+
+	}
+
+	//返回{行数, 耗时纳秒, 首行纳秒, 分配字节数}
+	private long[] measure(Fetch fetch) {
+
+		final long[] sample = new long[4];
+		long allocatedBefore = allocatedBytes();
+		final long start = System.nanoTime();
+		fetch.run(row -> {
+			if (sample[0]++ == 0) {
+				sample[2] = System.nanoTime() - start;
+			}
+		});
+		sample[1] = System.nanoTime() - start;
+		long allocatedAfter = allocatedBytes();
+		sample[3] = allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore;
+		return sample;
+
+	}
+
+	private Map<String, Object> summarize(List<long[]> samples) {
+
+		List<Long> durations = new ArrayList<Long>(samples.size());
+		long allocated = 0;
+		for (long[] sample : samples) {
+			durations.add(sample[1]);
+			allocated = sample[3] < 0 || allocated < 0 ? -1 : allocated + sample[3];
+		}
+		Collections.sort(durations);
+		long medianNanos = durations.get(durations.size() / 2);
+		long rows = samples.get(0)[0];
+		long firstRowNanos = Long.MAX_VALUE;
+		for (long[] sample : samples) {
+			firstRowNanos = Math.min(firstRowNanos, sample[2]);
+		}
+
+		Map<String, Object> summary = new LinkedHashMap<String, Object>();
+		summary.put("rounds", samples.size());
+		summary.put("rows", rows);
+		summary.put("medianMs", TimeUnit.NANOSECONDS.toMillis(medianNanos));
+		summary.put("minMs", TimeUnit.NANOSECONDS.toMillis(durations.get(0)));
+		summary.put("maxMs", TimeUnit.NANOSECONDS.toMillis(durations.get(durations.size() - 1)));
+		summary.put("rowsPerSecond", medianNanos == 0 ? 0 : rows * TimeUnit.SECONDS.toNanos(1) / medianNanos);
+		summary.put("timeToFirstRowMs", TimeUnit.NANOSECONDS.toMillis(firstRowNanos));
+		if (allocated >= 0) {
+			long allocatedPerRound = allocated / samples.size();
+			summary.put("allocatedBytesPerRound", allocatedPerRound);
+			summary.put("allocatedBytesPerRow", rows == 0 ? 0 : allocatedPerRound / rows);
+		}
+		return summary;
+
+	}
+
+	//当前线程已分配的字节数，jvm不支持时返回-1
+	private static long allocatedBytes() {
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunThreadMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+			if (sunThreadMXBean.isThreadAllocatedMemorySupported() && sunThreadMXBean.isThreadAllocatedMemoryEnabled()) {
+				return sunThreadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,128 @@
+package cn.gzsendi.modules.framework.metrics;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定桶的直方图，线程安全.
+ *
+ * <pre>
+ * 桶的上限按1-2-5递增（1,2,5,10,20,50...直到5*10^12），毫秒、行数、字节数都可以用同一套桶，
+ * 记录一个值只需要一次二分查找和几次原子加，分位数按桶的上限近似计算。
+ * </pre>
+ */
+public class Histogram {
+
+	private static final long[] BOUNDS = buildBounds();
+
+	private final AtomicLongArray bucketCounts = new AtomicLongArray(BOUNDS.length + 1);//最后一个桶为超出上限的值
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+	public void record(long value) {
+
+		int index = Arrays.binarySearch(BOUNDS, value);
+		if (index < 0) {
+			index = -index - 1;
+		}
+		bucketCounts.incrementAndGet(index);
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long currentMax;
+		while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+			//并发更新时重试
+		}
+
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getSum() {
+		return sum.get();
+	}
+
+	/**近似分位数，返回第一个累计数量达到quantile的桶的上限，不会超过记录过的最大值*/
+	public long quantile(double quantile) {
+
+		long total = count.get();
+		if (total == 0) {
+			return 0;
+		}
+		long threshold = (long) Math.ceil(total * quantile);
+		long cumulative = 0;
+		for (int i = 0; i < BOUNDS.length; i++) {
+			cumulative += bucketCounts.get(i);
+			if (cumulative >= threshold) {
+				return Math.min(BOUNDS[i], max.get());
+			}
+		}
+		return max.get();
+
+	}
+
+	/**输出为json友好的结构*/
+	public Map<String, Object> snapshot() {
+
+		long total = count.get();
+		Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+		snapshot.put("count", total);
+		snapshot.put("sum", sum.get());
+		snapshot.put("mean", total == 0 ? 0 : sum.get() / total);
+		snapshot.put("max", total == 0 ? 0 : max.get());
+		snapshot.put("p50", quantile(0.5));
+		snapshot.put("p90", quantile(0.9));
+		snapshot.put("p99", quantile(0.99));
+
+		//只输出有数据的桶，key为桶的上限，value为累计数量
+		Map<String, Long> buckets = new LinkedHashMap<String, Long>();
+		long cumulative = 0;
+		for (int i = 0; i < BOUNDS.length; i++) {
+			long bucketCount = bucketCounts.get(i);
+			cumulative += bucketCount;
+			if (bucketCount > 0) {
+				buckets.put(String.valueOf(BOUNDS[i]), cumulative);
+			}
+		}
+		if (bucketCounts.get(BOUNDS.length) > 0) {
+			buckets.put("+Inf", total);
+		}
+		snapshot.put("buckets", buckets);
+		return snapshot;
+
+	}
+
+	/**按prometheus文本格式输出*/
+	public void writePrometheus(String name, StringBuilder sb) {
+
+		sb.append("# TYPE ").append(name).append(" histogram\n");
+		long cumulative = 0;
+		for (int i = 0; i < BOUNDS.length; i++) {
+			cumulative += bucketCounts.get(i);
+			sb.append(name).append("_bucket{le=\"").append(BOUNDS[i]).append("\"} ").append(cumulative).append('\n');
+		}
+		sb.append(name).append("_bucket{le=\"+Inf\"} ").append(count.get()).append('\n');
+		sb.append(name).append("_sum ").append(sum.get()).append('\n');
+		sb.append(name).append("_count ").append(count.get()).append('\n');
+
+	}
+
+	private static long[] buildBounds() {
+		long[] bounds = new long[39];
+		long base = 1;
+		for (int i = 0; i < bounds.length; i += 3) {
+			bounds[i] = base;
+			bounds[i + 1] = base * 2;
+			bounds[i + 2] = base * 5;
+			base *= 10;
+		}
+		return bounds;
+	}
+
+}
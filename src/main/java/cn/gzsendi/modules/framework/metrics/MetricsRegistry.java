@@ -0,0 +1,84 @@
+package cn.gzsendi.modules.framework.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 进程内的指标注册表，保存计数器和直方图.
+ *
+ * <pre>
+ * 导出的handler不是spring的bean，这里用全局单例，通过{@link #getInstance()}获取。
+ * 指标名使用点分隔（如export.phase.fetch.ms），输出prometheus格式时点替换为下划线。
+ * </pre>
+ */
+public class MetricsRegistry {
+
+	private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+	private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<String, LongAdder>();
+	private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+	public static MetricsRegistry getInstance() {
+		return INSTANCE;
+	}
+
+	public LongAdder counter(String name) {
+		LongAdder counter = counters.get(name);
+		if (counter == null) {
+			counter = counters.computeIfAbsent(name, key -> new LongAdder());
+		}
+		return counter;
+	}
+
+	public Histogram histogram(String name) {
+		Histogram histogram = histograms.get(name);
+		if (histogram == null) {
+			histogram = histograms.computeIfAbsent(name, key -> new Histogram());
+		}
+		return histogram;
+	}
+
+	/**全部指标，按名称排序*/
+	public Map<String, Object> snapshot() {
+
+		Map<String, Object> counterSnapshot = new TreeMap<String, Object>();
+		for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+			counterSnapshot.put(entry.getKey(), entry.getValue().sum());
+		}
+		Map<String, Object> histogramSnapshot = new TreeMap<String, Object>();
+		for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+			histogramSnapshot.put(entry.getKey(), entry.getValue().snapshot());
+		}
+
+		Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+		snapshot.put("counters", counterSnapshot);
+		snapshot.put("histograms", histogramSnapshot);
+		return snapshot;
+
+	}
+
+	/**prometheus文本格式*/
+	public String toPrometheus() {
+
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, LongAdder> entry : new TreeMap<String, LongAdder>(counters).entrySet()) {
+			String name = prometheusName(entry.getKey());
+			sb.append("# TYPE ").append(name).append(" counter\n");
+			sb.append(name).append(' ').append(entry.getValue().sum()).append('\n');
+		}
+		for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(histograms).entrySet()) {
+			entry.getValue().writePrometheus(prometheusName(entry.getKey()), sb);
+		}
+		return sb.toString();
+
+	}
+
+	private static String prometheusName(String name) {
+		return name.replace('.', '_');
+	}
+
+}
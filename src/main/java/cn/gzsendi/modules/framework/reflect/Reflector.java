@@ -1,5 +1,6 @@
 package cn.gzsendi.modules.framework.reflect;
 
+import cn.gzsendi.modules.framework.reflect.reflectasm.ExcelRowWriter;
 import cn.gzsendi.modules.framework.reflect.reflectasm.MethodAccessor;
 
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -53,6 +54,17 @@ public abstract class Reflector {
             //构建guava的纯java内存cache实例
             .build();
 
+    /**
+     * excel行写入器的缓存. <br>
+     * 储存带有@ExcelColumn注解的行数据Class对应的生成类实例
+     */
+    private static final Cache<Class<?>, ExcelRowWriter> EXCEL_ROW_WRITER_CACHE = CacheBuilder.newBuilder()
+            .initialCapacity(16)
+            .maximumSize(256)
+            .concurrencyLevel(10)
+            .expireAfterAccess(30, TimeUnit.MINUTES)
+            .build();
+
     /**
      * 参数名缓存. <br>
      * LocalVariableTableParameterNameDiscoverer中有相应的参数名缓存 <br>
@@ -410,6 +422,20 @@ public abstract class Reflector {
         }
     }
 
+    /**
+     * 从内存中获取ExcelRowWriter
+     *
+     * @param clazz 带有@ExcelColumn注解字段的Class对象
+     * @return ExcelRowWriter实例
+     */
+    public static ExcelRowWriter getExcelRowWriter(Class<?> clazz) {
+        try {
+            return EXCEL_ROW_WRITER_CACHE.get(clazz, () -> ExcelRowWriter.get(clazz));
+        } catch (ExecutionException e) {
+            throw new RuntimeException("创建ExcelRowWriter失败", e);
+        }
+    }
+
     /**
      * 获取方法参数名列表(使用Spring支持类库)
      *
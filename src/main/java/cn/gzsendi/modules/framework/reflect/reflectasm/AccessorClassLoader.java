@@ -87,6 +87,9 @@ class AccessorClassLoader extends ClassLoader {
         if (name.equals(MethodAccessor.class.getName())) {
             return MethodAccessor.class;
         }
+        if (name.equals(ExcelRowWriter.class.getName())) {
+            return ExcelRowWriter.class;
+        }
         // All other classes come from the classloader that loaded the type we are accessing.
         return super.loadClass(name, resolve);
     }
@@ -0,0 +1,464 @@
+package cn.gzsendi.modules.framework.reflect.reflectasm;
+
+import static org.springframework.asm.Opcodes.ACC_PUBLIC;
+import static org.springframework.asm.Opcodes.ACC_SUPER;
+import static org.springframework.asm.Opcodes.ALOAD;
+import static org.springframework.asm.Opcodes.ASTORE;
+import static org.springframework.asm.Opcodes.BIPUSH;
+import static org.springframework.asm.Opcodes.CHECKCAST;
+import static org.springframework.asm.Opcodes.F2D;
+import static org.springframework.asm.Opcodes.I2L;
+import static org.springframework.asm.Opcodes.ICONST_0;
+import static org.springframework.asm.Opcodes.INVOKEINTERFACE;
+import static org.springframework.asm.Opcodes.INVOKESPECIAL;
+import static org.springframework.asm.Opcodes.INVOKESTATIC;
+import static org.springframework.asm.Opcodes.INVOKEVIRTUAL;
+import static org.springframework.asm.Opcodes.RETURN;
+import static org.springframework.asm.Opcodes.SIPUSH;
+import static org.springframework.asm.Opcodes.V1_8;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.asm.ClassWriter;
+import org.springframework.asm.MethodVisitor;
+import org.springframework.asm.Type;
+import org.springframework.util.StringUtils;
+
+import cn.gzsendi.modules.framework.annotation.ExcelColumn;
+import cn.gzsendi.modules.framework.reflect.Reflector;
+import cn.gzsendi.modules.framework.utils.ExcelSheetWriter;
+
+/**
+ * asm生成的excel行写入器.
+ *
+ * <pre>
+ * 按行数据Class上的{@link ExcelColumn}注解生成一个子类，writeRow中按列的顺序直接调用getter，
+ * 再按getter的返回值类型调用{@link ExcelSheetWriter}对应的写入方法，生成的代码相当于：
+ *
+ * public void writeRow(Object obj, ExcelSheetWriter writer) {
+ *     User row = (User) obj;
+ *     writeString(writer, 0, row.getUsername());
+ *     writer.writeNumber(1, (long) row.getAge());
+ * }
+ *
+ * 没有反射调用和按字段名的查找，基本类型的getter不会装箱，整行是一段没有分支的字节码，JIT可以直接内联。
+ * 包装类型可能为null，交给下面的静态方法判断后再写入。
+ *
+ * 创建ExcelRowWriter和创建MethodAccessor一样耗时，
+ * 请通过{@link Reflector#getExcelRowWriter(Class)}获取缓存的实例
+ * </pre>
+ */
+public abstract class ExcelRowWriter {
+
+    private static final String WRITER_TYPE = Type.getInternalName(ExcelSheetWriter.class);
+    private static final String SUPER_TYPE = Type.getInternalName(ExcelRowWriter.class);
+
+    private final Class<?> rowClass;
+    /*** 按order排好序的表头. */
+    private final String[] headers;
+    /*** 与headers一一对应的字段名. */
+    private final String[] fieldNames;
+    /*** 与headers一一对应的excel格式，空字符串为默认格式. */
+    private final String[] formats;
+    /*** 与headers一一对应的列宽，小于等于0为默认列宽. */
+    private final int[] widths;
+
+    protected ExcelRowWriter(Class<?> rowClass,
+                             String[] headers,
+                             String[] fieldNames,
+                             String[] formats,
+                             int[] widths) {
+        this.rowClass = rowClass;
+        this.headers = headers;
+        this.fieldNames = fieldNames;
+        this.formats = formats;
+        this.widths = widths;
+    }
+
+    /**
+     * 把一行数据的各列写入writer，调用方负责startRow和endRow.
+     *
+     * @param obj    行数据，必须是构造时的Class或其子类的实例
+     * @param writer excel写入引擎
+     * @throws IOException 写入出错
+     */
+    public abstract void writeRow(Object obj, ExcelSheetWriter writer) throws IOException;
+
+    /**
+     * 创建指定类的ExcelRowWriter.
+     *
+     * @param type 带有{@link ExcelColumn}注解字段的类
+     * @return type对应的ExcelRowWriter子类
+     */
+    public static ExcelRowWriter get(Class<?> type) {
+
+        if (type == null) {
+            throw new IllegalArgumentException("The type must not null");
+        }
+        if (type.isInterface() || type.isPrimitive() || type.isArray()) {
+            throw new IllegalArgumentException("The type must be a class: " + type.getName());
+        }
+
+        List<Field> fields = getExcelColumnFields(type);
+        if (fields.isEmpty()) {
+            throw new IllegalArgumentException("No @ExcelColumn field found in " + type.getName());
+        }
+
+        int size = fields.size();
+        String[] headers = new String[size];
+        String[] fieldNames = new String[size];
+        String[] formats = new String[size];
+        int[] widths = new int[size];
+        Method[] getters = new Method[size];
+        for (int i = 0; i < size; i++) {
+            Field field = fields.get(i);
+            ExcelColumn column = field.getAnnotation(ExcelColumn.class);
+            fieldNames[i] = field.getName();
+            headers[i] = column.header().isEmpty() ? field.getName() : column.header();
+            formats[i] = column.format();
+            widths[i] = column.width();
+            getters[i] = getGetter(type, field);
+        }
+
+        String className = type.getName();
+        String accessorClassName = className + ExcelRowWriter.class.getSimpleName();
+
+        Class<?> accessorClass;
+        AccessorClassLoader loader = AccessorClassLoader.get(type);
+        synchronized (loader) {
+
+            //和MethodAccessor一样，已经生成过的直接加载，否则生成字节码再加载
+            accessorClass = loader.loadAccessorClass(accessorClassName);
+            if (accessorClass == null) {
+
+                String accessorClassNameInternal = accessorClassName.replace('.', '/');
+                String classNameInternal = className.replace('.', '/');
+
+                ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+                cw.visit(V1_8, ACC_PUBLIC + ACC_SUPER, accessorClassNameInternal, null, SUPER_TYPE, null);
+
+                insertParametricConstructor(cw);
+                overrideWriteRowMethod(getters, classNameInternal, cw);
+
+                cw.visitEnd();
+
+                accessorClass = loader.defineAccessorClass(accessorClassName, cw.toByteArray());
+            }
+        }
+
+        return newInstance(accessorClass, type, headers, fieldNames, formats, widths);
+    }
+
+    /**当前写入器是否适用于这个行数据*/
+    public boolean isFor(Class<?> clazz) {
+        return rowClass == clazz || rowClass.isAssignableFrom(clazz);
+    }
+
+    public Class<?> getRowClass() {
+        return rowClass;
+    }
+
+    public String[] getHeaders() {
+        return headers.clone();
+    }
+
+    public String[] getFieldNames() {
+        return fieldNames.clone();
+    }
+
+    public String[] getFormats() {
+        return formats.clone();
+    }
+
+    public int[] getWidths() {
+        return widths.clone();
+    }
+
+    //==================================================================================================
+    //以下静态方法供生成的字节码调用，处理包装类型的null值，null统一写成空白单元格
+
+    protected static void writeString(ExcelSheetWriter writer, int cellNumber, String value) throws IOException {
+        writer.writeString(cellNumber, value == null ? "" : value);
+    }
+
+    protected static void writeLong(ExcelSheetWriter writer, int cellNumber, Number value) throws IOException {
+        if (value == null) {
+            writer.writeString(cellNumber, "");
+        } else {
+            writer.writeNumber(cellNumber, value.longValue());
+        }
+    }
+
+    protected static void writeDouble(ExcelSheetWriter writer, int cellNumber, Number value) throws IOException {
+        if (value == null) {
+            writer.writeString(cellNumber, "");
+        } else {
+            writer.writeNumber(cellNumber, value.doubleValue());
+        }
+    }
+
+    protected static void writeDecimal(ExcelSheetWriter writer, int cellNumber, BigDecimal value) throws IOException {
+        if (value == null) {
+            writer.writeString(cellNumber, "");
+        } else {
+            writer.writeNumber(cellNumber, value);
+        }
+    }
+
+    protected static void writeBigInteger(ExcelSheetWriter writer, int cellNumber, BigInteger value) throws IOException {
+        if (value == null) {
+            writer.writeString(cellNumber, "");
+        } else {
+            writer.writeNumber(cellNumber, new BigDecimal(value));
+        }
+    }
+
+    protected static void writeDate(ExcelSheetWriter writer, int cellNumber, Date value) throws IOException {
+        if (value == null) {
+            writer.writeString(cellNumber, "");
+        } else {
+            writer.writeDate(cellNumber, value);
+        }
+    }
+
+    protected static void writeBoolean(ExcelSheetWriter writer, int cellNumber, Boolean value) throws IOException {
+        if (value == null) {
+            writer.writeString(cellNumber, "");
+        } else {
+            writer.writeBoolean(cellNumber, value);
+        }
+    }
+
+    /**声明类型不确定（如Object、Number）或其它类型，按值的实际类型写入，其它类型toString*/
+    protected static void writeObject(ExcelSheetWriter writer, int cellNumber, Object value) throws IOException {
+        if (value == null) {
+            writer.writeString(cellNumber, "");
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            writer.writeNumber(cellNumber, ((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            writer.writeNumber(cellNumber, ((Number) value).doubleValue());
+        } else if (value instanceof BigDecimal) {
+            writer.writeNumber(cellNumber, (BigDecimal) value);
+        } else if (value instanceof BigInteger) {
+            writer.writeNumber(cellNumber, new BigDecimal((BigInteger) value));
+        } else if (value instanceof Date) {
+            writer.writeDate(cellNumber, (Date) value);
+        } else if (value instanceof Boolean) {
+            writer.writeBoolean(cellNumber, (Boolean) value);
+        } else {
+            writer.writeString(cellNumber, value.toString());
+        }
+    }
+
+    //==================================================================================================
+
+    /**
+     * 获取type及其父类中带有{@link ExcelColumn}注解的字段，父类的字段在前，再按order稳定排序.
+     *
+     * @param type 行数据的Class
+     * @return 排好序的字段列表
+     */
+    private static List<Field> getExcelColumnFields(Class<?> type) {
+        List<Class<?>> classes = new ArrayList<>();
+        for (Class<?> nextClass = type; nextClass != null && nextClass != Object.class; nextClass = nextClass.getSuperclass()) {
+            classes.add(0, nextClass);
+        }
+        List<Field> fields = new ArrayList<>();
+        for (Class<?> clazz : classes) {
+            for (Field field : clazz.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers()) && field.isAnnotationPresent(ExcelColumn.class)) {
+                    fields.add(field);
+                }
+            }
+        }
+        Collections.sort(fields, Comparator.comparingInt(field -> field.getAnnotation(ExcelColumn.class).order()));
+        return fields;
+    }
+
+    /**
+     * 获取字段对应的public getter，boolean字段也支持isXxx.
+     *
+     * @param type  行数据的Class
+     * @param field 字段
+     * @return getter方法
+     */
+    private static Method getGetter(Class<?> type, Field field) {
+        String fieldName = field.getName();
+        List<String> candidates = new ArrayList<>(4);
+        candidates.add(Reflector.GETTER_PREFIX + StringUtils.capitalize(fieldName));
+        if (field.getType() == boolean.class) {
+            candidates.add("is" + StringUtils.capitalize(fieldName));
+        }
+        //首字母小写，第二字母大写的成员变量（奇行种）
+        if (Reflector.isAlienName(fieldName)) {
+            candidates.add(Reflector.GETTER_PREFIX + fieldName);
+        }
+        for (String candidate : candidates) {
+            try {
+                Method method = type.getMethod(candidate);
+                if (!Modifier.isStatic(method.getModifiers()) && method.getReturnType() != void.class) {
+                    return method;
+                }
+            } catch (NoSuchMethodException ignored) {
+                //继续尝试下一个
+            }
+        }
+        throw new IllegalArgumentException("Unable to find public getter for @ExcelColumn field: "
+                + type.getName() + "." + fieldName);
+    }
+
+    /**
+     * 写有参构造函数，直接调用父类的有参构造.
+     *
+     * @param cw 类编辑器
+     */
+    private static void insertParametricConstructor(ClassWriter cw) {
+
+        String parametricConstructorDescriptor = "(" +
+                "Ljava/lang/Class;" +
+                "[Ljava/lang/String;" +
+                "[Ljava/lang/String;" +
+                "[Ljava/lang/String;" +
+                "[I" +
+                ")V";
+        MethodVisitor pcmv = cw.visitMethod(ACC_PUBLIC, "<init>", parametricConstructorDescriptor, null, null);
+        pcmv.visitCode();
+        for (int i = 0; i <= 5; i++) {
+            pcmv.visitVarInsn(ALOAD, i);
+        }
+        pcmv.visitMethodInsn(INVOKESPECIAL, SUPER_TYPE, "<init>", parametricConstructorDescriptor, false);
+        pcmv.visitInsn(RETURN);
+        pcmv.visitMaxs(6, 6);
+        pcmv.visitEnd();
+    }
+
+    /**
+     * 重写writeRow(Object obj, ExcelSheetWriter writer)，每一列一段没有分支的取值和写入.
+     *
+     * <pre>
+     * 局部变量：0 this，1 obj，2 writer，3 强转后的行数据
+     * </pre>
+     *
+     * @param getters           按列顺序的getter
+     * @param classNameInternal 行数据的字节码类名
+     * @param cw                类编辑器
+     */
+    private static void overrideWriteRowMethod(Method[] getters, String classNameInternal, ClassWriter cw) {
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "writeRow",
+                "(Ljava/lang/Object;L" + WRITER_TYPE + ";)V", null, new String[]{"java/io/IOException"});
+        mv.visitCode();
+
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitTypeInsn(CHECKCAST, classNameInternal);
+        mv.visitVarInsn(ASTORE, 3);
+
+        for (int cellNumber = 0; cellNumber < getters.length; cellNumber++) {
+
+            Method getter = getters[cellNumber];
+            Class<?> returnType = getter.getReturnType();
+
+            //writer, cellNumber, row.getXxx()
+            mv.visitVarInsn(ALOAD, 2);
+            pushInt(mv, cellNumber);
+            mv.visitVarInsn(ALOAD, 3);
+            mv.visitMethodInsn(INVOKEVIRTUAL, classNameInternal, getter.getName(),
+                    Type.getMethodDescriptor(getter), false);
+
+            //基本类型直接调用写入引擎，不装箱
+            if (returnType == int.class || returnType == short.class || returnType == byte.class) {
+                mv.visitInsn(I2L);
+                invokeWriter(mv, "writeNumber", "(IJ)V");
+            } else if (returnType == long.class) {
+                invokeWriter(mv, "writeNumber", "(IJ)V");
+            } else if (returnType == float.class) {
+                mv.visitInsn(F2D);
+                invokeWriter(mv, "writeNumber", "(ID)V");
+            } else if (returnType == double.class) {
+                invokeWriter(mv, "writeNumber", "(ID)V");
+            } else if (returnType == boolean.class) {
+                invokeWriter(mv, "writeBoolean", "(IZ)V");
+            } else if (returnType == char.class) {
+                mv.visitMethodInsn(INVOKESTATIC, "java/lang/String", "valueOf", "(C)Ljava/lang/String;", false);
+                invokeWriter(mv, "writeString", "(ILjava/lang/String;)V");
+            }
+            //包装类型及其它引用类型可能为null，调用父类的静态方法
+            else if (returnType == String.class) {
+                invokeHelper(mv, "writeString", String.class);
+            } else if (returnType == Integer.class || returnType == Long.class
+                    || returnType == Short.class || returnType == Byte.class) {
+                invokeHelper(mv, "writeLong", Number.class);
+            } else if (returnType == Double.class || returnType == Float.class) {
+                invokeHelper(mv, "writeDouble", Number.class);
+            } else if (returnType == BigDecimal.class) {
+                invokeHelper(mv, "writeDecimal", BigDecimal.class);
+            } else if (returnType == BigInteger.class) {
+                invokeHelper(mv, "writeBigInteger", BigInteger.class);
+            } else if (Date.class.isAssignableFrom(returnType)) {
+                invokeHelper(mv, "writeDate", Date.class);
+            } else if (returnType == Boolean.class) {
+                invokeHelper(mv, "writeBoolean", Boolean.class);
+            } else {
+                invokeHelper(mv, "writeObject", Object.class);
+            }
+        }
+
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private static void invokeWriter(MethodVisitor mv, String methodName, String descriptor) {
+        mv.visitMethodInsn(INVOKEINTERFACE, WRITER_TYPE, methodName, descriptor, true);
+    }
+
+    private static void invokeHelper(MethodVisitor mv, String methodName, Class<?> valueType) {
+        mv.visitMethodInsn(INVOKESTATIC, SUPER_TYPE, methodName,
+                "(L" + WRITER_TYPE + ";I" + Type.getDescriptor(valueType) + ")V", false);
+    }
+
+    private static void pushInt(MethodVisitor mv, int value) {
+        if (value <= 5) {
+            mv.visitInsn(ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(BIPUSH, value);
+        } else if (value <= Short.MAX_VALUE) {
+            mv.visitIntInsn(SIPUSH, value);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
+
+    /**
+     * 通过有参构造创建ExcelRowWriter子类实例.
+     */
+    private static ExcelRowWriter newInstance(Class<?> accessorClass,
+                                              Class<?> rowClass,
+                                              String[] headers,
+                                              String[] fieldNames,
+                                              String[] formats,
+                                              int[] widths) {
+        try {
+            Constructor<?> parametricConstructor = accessorClass.getConstructor(
+                    Class.class,
+                    String[].class,
+                    String[].class,
+                    String[].class,
+                    int[].class);
+            return (ExcelRowWriter) parametricConstructor.newInstance(rowClass, headers, fieldNames, formats, widths);
+        } catch (Throwable t) {
+            throw new RuntimeException("Error constructing excel row writer class: " + accessorClass.getName(), t);
+        }
+    }
+}
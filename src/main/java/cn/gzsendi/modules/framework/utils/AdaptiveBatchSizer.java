@@ -0,0 +1,106 @@
+package cn.gzsendi.modules.framework.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按实测耗时调整批量写入的批大小.
+ *
+ * <pre>
+ * 批太小时每一批都要付出一次网络往返，往返时间占了大部分耗时；批太大时单条语句占用锁和内存的时间过长，
+ * 还可能超过max_allowed_packet被驱动拆开。合适的大小取决于网络和数据库，固定值很难兼顾。
+ *
+ * 每一批写完后按耗时估算每行的服务端耗时（扣除往返时间，指数平滑），下一批的大小以一批耗时不超过targetBatchNanos的行数为上限，
+ * 以往返时间只占一批耗时的1/RTT_SHARE所需的行数为下限（两者冲突时取下限，往返时间未知时没有下限），
+ * 字节数不超过max_allowed_packet的3/4，再限制在[minSize,maxSize]之间，每次最多增大一倍，避免来回震荡。
+ * </pre>
+ */
+public class AdaptiveBatchSizer {
+
+	//往返时间占一批耗时的比例上限为1/RTT_SHARE
+	private static final int RTT_SHARE = 20;
+
+	//指数平滑系数，新的一批占的权重
+	private static final double SMOOTHING = 0.3;
+
+	private final int minSize;
+	private final int maxSize;
+	private final long targetBatchNanos;
+
+	private long roundTripNanos = 0;
+	private long maxPacketBytes = Long.MAX_VALUE;
+
+	private int batchSize;
+	private double rowNanos = 0;//平滑后的每行服务端耗时
+	private double rowBytes = 0;//平滑后的每行字节数
+
+	/**
+	 * @param initialSize 第一批的大小
+	 * @param minSize 最小批大小
+	 * @param maxSize 最大批大小
+	 * @param targetBatchMillis 一批的目标耗时上限
+	 */
+	public AdaptiveBatchSizer(int initialSize, int minSize, int maxSize, long targetBatchMillis) {
+		if (minSize < 1 || maxSize < minSize) {
+			throw new IllegalArgumentException("batch size range must satisfy 1 <= minSize <= maxSize");
+		}
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.targetBatchNanos = TimeUnit.MILLISECONDS.toNanos(targetBatchMillis);
+		this.batchSize = clamp(initialSize);
+	}
+
+	/**一次网络往返的时间，如select 1的耗时*/
+	public void setRoundTripNanos(long roundTripNanos) {
+		this.roundTripNanos = Math.max(0, roundTripNanos);
+	}
+
+	/**服务端的max_allowed_packet*/
+	public void setMaxPacketBytes(long maxPacketBytes) {
+		this.maxPacketBytes = maxPacketBytes > 0 ? maxPacketBytes : Long.MAX_VALUE;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**一批的字节数是否已达到max_allowed_packet的上限，需要提前写入*/
+	public boolean isPacketFull(long batchBytes) {
+		return batchBytes >= maxPacketBytes / 4 * 3;
+	}
+
+	/**
+	 * 记录一批的写入结果，调整下一批的大小.
+	 *
+	 * @param rows 行数
+	 * @param bytes 估算的字节数
+	 * @param elapsedNanos 写入耗时（含提交）
+	 */
+	public void record(int rows, long bytes, long elapsedNanos) {
+
+		if (rows <= 0) {
+			return;
+		}
+		double currentRowNanos = Math.max(1, (double) (elapsedNanos - roundTripNanos) / rows);
+		double currentRowBytes = Math.max(1, (double) bytes / rows);
+		rowNanos = rowNanos == 0 ? currentRowNanos : SMOOTHING * currentRowNanos + (1 - SMOOTHING) * rowNanos;
+		rowBytes = rowBytes == 0 ? currentRowBytes : SMOOTHING * currentRowBytes + (1 - SMOOTHING) * rowBytes;
+
+		double size = targetBatchNanos / rowNanos;
+		//探测失败时roundTripNanos为0，不能作为下限，否则每批都退回minSize
+		if (roundTripNanos > 0) {
+			size = Math.max(size, roundTripNanos * (RTT_SHARE - 1) / rowNanos);
+		}
+		//max_allowed_packet是硬上限，下限也不能超过
+		if (maxPacketBytes != Long.MAX_VALUE) {
+			size = Math.min(size, maxPacketBytes / 4 * 3 / rowBytes);
+		}
+		size = Math.min(size, (double) batchSize * 2);
+		batchSize = clamp((int) Math.min(Integer.MAX_VALUE, size));
+
+	}
+
+	private int clamp(int size) {
+		return Math.max(minSize, Math.min(maxSize, size));
+	}
+
+}
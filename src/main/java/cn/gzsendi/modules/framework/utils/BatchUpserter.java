@@ -0,0 +1,242 @@
+package cn.gzsendi.modules.framework.utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mysql.cj.conf.PropertyKey;
+import com.mysql.cj.jdbc.JdbcConnection;
+
+/**
+ * 按唯一键批量插入或更新（INSERT ... ON DUPLICATE KEY UPDATE）.
+ *
+ * <pre>
+ * batchInsert一批中只要有一行唯一键冲突，整条语句就失败，重复导入同一个文件时只能全部成功或全部失败。
+ * 这里每批执行一条多values的insert ... on duplicate key update，已存在的行按updateFields更新，不需要逐行先查询。
+ * 同一批中唯一键相同的行先在内存中去重（保留最后一行），避免一条语句里同一行被插入后又被更新。
+ *
+ * 每批的插入、更新、未变化行数由影响行数、去重后的行数和唯一键冲突的行数算出：
+ * 连接需要开启useAffectedRows=true（见DefaultDbConfig的bulkDataSource），插入计1，更新计2，值未变化计0；
+ * 冲突的行数由update子句第一个赋值中累加的会话变量{@value #DUPLICATES_VARIABLE}统计，冲突的行才会执行update子句。
+ * 行数n、冲突d、影响行数a时：插入=n-d，更新=(a-插入)/2，未变化=d-更新。
+ * MySQL 8在表达式中给用户变量赋值会产生弃用警告，但仍然有效。
+ * 每批在连接当前的事务模式下执行，不在事务中时每批单独提交。
+ * </pre>
+ */
+public class BatchUpserter<T> {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	//一条预编译语句最多的参数个数
+	private static final int MAX_PARAMETERS = 65535;
+
+	//统计唯一键冲突行数的会话变量，在一个连接上跨批累加
+	private static final String DUPLICATES_VARIABLE = "@batch_upserter_duplicates";
+
+	/**一批的写入结果*/
+	public static class BatchCounts {
+
+		private final int rows;//去重前的行数
+		private final int deduplicated;//去重后实际发送的行数
+		private final long inserted;
+		private final long updated;
+		private final long unchanged;
+
+		private BatchCounts(int rows, int deduplicated, long inserted, long updated, long unchanged) {
+			this.rows = rows;
+			this.deduplicated = deduplicated;
+			this.inserted = inserted;
+			this.updated = updated;
+			this.unchanged = unchanged;
+		}
+
+		public int getRows() {
+			return rows;
+		}
+
+		public int getDeduplicated() {
+			return deduplicated;
+		}
+
+		public long getInserted() {
+			return inserted;
+		}
+
+		public long getUpdated() {
+			return updated;
+		}
+
+		public long getUnchanged() {
+			return unchanged;
+		}
+
+		@Override
+		public String toString() {
+			return "rows=" + rows + ", deduplicated=" + deduplicated + ", inserted=" + inserted + ", updated=" + updated + ", unchanged=" + unchanged;
+		}
+
+	}
+
+	private final ExportColumnPlan columnPlan;
+	private final int keyCount;
+	private final String sqlPrefix;
+	private final String rowPlaceholder;
+	private final String sqlSuffix;
+
+	//每条语句最多写入的行数
+	private int batchSize = 2000;
+
+	/**
+	 * @param rowClass 行数据的Class
+	 * @param table 表名
+	 * @param keyFields 唯一键的字段，列名按驼峰转下划线得到
+	 * @param updateFields 唯一键冲突时更新的字段，为空时冲突的行保持不变
+	 */
+	public BatchUpserter(Class<T> rowClass, String table, List<String> keyFields, List<String> updateFields) {
+
+		if (keyFields.isEmpty()) {
+			throw new IllegalArgumentException("keyFields must not be empty");
+		}
+		List<String> fieldArray = new ArrayList<String>(keyFields);
+		fieldArray.addAll(updateFields);
+		this.columnPlan = new ExportColumnPlan(rowClass, fieldArray);
+		this.keyCount = keyFields.size();
+		for (int i = 0; i < columnPlan.size(); i++) {
+			if (columnPlan.getGetterIndex(i) == ExportColumnPlan.NO_GETTER) {
+				throw new IllegalArgumentException("no getter for field: " + fieldArray.get(i));
+			}
+		}
+
+		StringBuilder columns = new StringBuilder();
+		StringBuilder placeholder = new StringBuilder("(");
+		for (int i = 0; i < fieldArray.size(); i++) {
+			if (i > 0) {
+				columns.append(',');
+				placeholder.append(',');
+			}
+			columns.append(column(fieldArray.get(i)));
+			placeholder.append('?');
+		}
+		placeholder.append(')');
+
+		//第一个赋值中累加冲突的行数，if的条件总是成立，不影响赋的值；
+		//没有需要更新的字段时把唯一键的第一列赋值为自身，冲突的行不变
+		StringBuilder assignments = new StringBuilder();
+		for (int i = 0; i < Math.max(1, updateFields.size()); i++) {
+			String column = column(updateFields.isEmpty() ? keyFields.get(0) : updateFields.get(i));
+			String value = updateFields.isEmpty() ? column : "values(" + column + ")";
+			if (i > 0) {
+				assignments.append(',').append(column).append('=').append(value);
+			} else {
+				assignments.append(column).append("=if((").append(DUPLICATES_VARIABLE).append(":=").append(DUPLICATES_VARIABLE)
+						.append("+1)>0,").append(value).append(',').append(column).append(')');
+			}
+		}
+
+		this.sqlPrefix = "insert into `" + table + "` (" + columns + ") values ";
+		this.rowPlaceholder = placeholder.toString();
+		this.sqlSuffix = " on duplicate key update " + assignments;
+
+	}
+
+	private static String column(String field) {
+		return "`" + ParameterUtils.camelCaseToSnakeCase(field) + "`";
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be greater than 0");
+		}
+		this.batchSize = batchSize;
+	}
+
+	/**按batchSize分批写入list中的数据，返回每批的结果*/
+	public List<BatchCounts> upsert(Connection connection, List<? extends T> list) throws SQLException {
+
+		//默认的found rows模式下未变化的行也计1，下面的算法不适用
+		if (!connection.unwrap(JdbcConnection.class).getPropertySet().getBooleanProperty(PropertyKey.useAffectedRows).getValue()) {
+			throw new IllegalStateException("upsert counts require useAffectedRows=true on the connection");
+		}
+		//字段多时减少每批的行数，参数个数不能超过上限
+		int size = Math.min(batchSize, MAX_PARAMETERS / columnPlan.size());
+		List<BatchCounts> result = new ArrayList<BatchCounts>();
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("set " + DUPLICATES_VARIABLE + "=0");
+			long duplicates = 0;
+			for (int from = 0; from < list.size(); from += size) {
+				BatchCounts counts = upsertBatch(connection, statement, list.subList(from, Math.min(list.size(), from + size)), duplicates);
+				duplicates += counts.getUpdated() + counts.getUnchanged();
+				result.add(counts);
+			}
+		}
+		return result;
+
+	}
+
+	//duplicates为之前各批冲突行数的合计，即执行前会话变量的值
+	private BatchCounts upsertBatch(Connection connection, Statement statement, List<? extends T> batch, long duplicates) throws SQLException {
+
+		//同一批中唯一键相同的行只保留最后一行，位置按第一次出现的位置
+		Map<List<Object>, T> unique = new LinkedHashMap<List<Object>, T>(batch.size() * 4 / 3 + 1);
+		for (T row : batch) {
+			Object[] key = new Object[keyCount];
+			for (int i = 0; i < keyCount; i++) {
+				key[i] = columnPlan.getValue(row, i);
+			}
+			unique.put(Arrays.asList(key), row);
+		}
+
+		int rows = unique.size();
+		StringBuilder sql = new StringBuilder(sqlPrefix.length() + rows * (rowPlaceholder.length() + 1) + sqlSuffix.length());
+		sql.append(sqlPrefix);
+		for (int i = 0; i < rows; i++) {
+			if (i > 0) {
+				sql.append(',');
+			}
+			sql.append(rowPlaceholder);
+		}
+		sql.append(sqlSuffix);
+
+		long affected;
+		try (PreparedStatement insert = connection.prepareStatement(sql.toString())) {
+			int index = 1;
+			for (T row : unique.values()) {
+				for (int i = 0; i < columnPlan.size(); i++) {
+					Object value = columnPlan.getValue(row, i);
+					insert.setObject(index++, value instanceof Date ? new Timestamp(((Date) value).getTime()) : value);
+				}
+			}
+			affected = insert.executeUpdate();
+		}
+
+		long duplicated;
+		try (ResultSet resultSet = statement.executeQuery("select " + DUPLICATES_VARIABLE)) {
+			resultSet.next();
+			duplicated = resultSet.getLong(1) - duplicates;
+		}
+
+		long inserted = rows - duplicated;
+		long updated = (affected - inserted) / 2;
+		BatchCounts counts = new BatchCounts(batch.size(), rows, inserted, updated, duplicated - updated);
+		logger.debug("--------->>>> upsert batch: {}", counts);
+		return counts;
+
+	}
+
+}
@@ -1,5 +1,7 @@
 package cn.gzsendi.modules.framework.utils;
 
+import java.io.IOException;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
@@ -40,5 +42,26 @@ public class ContextHolderUtils {
 		return session;
 
 	}
+	
+	/**
+	 * 写入response时的异常是否是客户端断开（关闭浏览器、取消下载）
+	 * 
+	 * @return
+	 */
+	public static boolean isClientAbort(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			//tomcat为ClientAbortException，jetty为EofException
+			String className = cause.getClass().getSimpleName();
+			if ("ClientAbortException".equals(className) || "EofException".equals(className)) {
+				return true;
+			}
+			String message = cause.getMessage();
+			if (cause instanceof IOException && message != null
+					&& (message.contains("Broken pipe") || message.contains("Connection reset"))) {
+				return true;
+			}
+		}
+		return false;
+	}
 
 }
@@ -0,0 +1,477 @@
+package cn.gzsendi.modules.framework.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cn.gzsendi.modules.framework.metrics.ExportMetrics;
+import cn.gzsendi.modules.framework.utils.ExportColumnPlan.CellType;
+
+/**
+ * 流式导出csv/tsv的ResultHandler.
+ *
+ * <pre>
+ * 用法与{@link ExcelResultHandler}一致：构造时传入表头和字段，实现tryFetchDataAndWriteToExcel调用mapper的流式查询。
+ * 不经过POI和xml，每一行直接编码成UTF-8字节写入复用的ByteBuffer，写满后通过NIO channel输出，可选gzip压缩。
+ * 字段中包含分隔符、双引号、换行时按RFC4180用双引号包起来，tsv同样处理。
+ * </pre>
+ */
+public abstract class CsvResultHandler<T> implements ResultHandler<T>{
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	public static final char CSV_DELIMITER = ',';
+	public static final char TSV_DELIMITER = '\t';
+
+	//输出缓冲区大小，单个字符最多占4个字节
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_BYTES_PER_CHAR = 4;
+
+	private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+	private AtomicInteger currentRowNumber = new AtomicInteger(0);//记录当前已写入的数据行数
+	private ExportColumnPlan columnPlan = null;
+	private SlotRowMap.Index mapSlotIndex = null;//map行的列索引，同一次查询的行共享
+	private int[] mapSlots = null;
+
+	private List<String> headerArray ; //表头
+	private List<String> fieldArray ; //对应的字段
+	private int totalCellNumber;
+
+	//分隔符，默认为csv
+	private char delimiter = CSV_DELIMITER;
+
+	//是否gzip压缩输出
+	private boolean isGzip = false;
+
+	//是否写入UTF-8 BOM，excel直接打开csv时需要BOM才能正确识别中文
+	private boolean isWriteBom = false;
+
+	//定义要导出的文件名,不带后缀,默认为uuID
+	private String exportFileName = UUID.randomUUID().toString().replace("-", "");
+
+	private SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+	private ByteBuffer buffer;
+	private WritableByteChannel channel;
+
+	//写入失败（如客户端断开）时取消正在执行的查询
+	private final QueryCanceller queryCanceller = new QueryCanceller();
+	private RuntimeException writeFailure = null;
+
+	//整数转字节时复用的缓冲区
+	private final byte[] digits = new byte[20];
+
+	//本次导出的指标，与excel导出一起汇总到MetricsRegistry
+	private final ExportMetrics metrics = new ExportMetrics();
+	private long uncompressedBytes = 0;//gzip压缩前的字节数
+
+	public CsvResultHandler(List<String> headerArray,List<String> fieldArray){
+
+		this.headerArray = headerArray;
+		this.fieldArray = fieldArray;
+		this.totalCellNumber = headerArray.size();
+
+	}
+
+	public CsvResultHandler(List<String> headerArray,List<String> fieldArray,String exportFileName){
+
+		this(headerArray,fieldArray);
+		this.exportFileName = exportFileName;
+
+	}
+
+	public CsvResultHandler(List<String> headerArray,List<String> fieldArray,String exportFileName,char delimiter,boolean isGzip){
+
+		this(headerArray,fieldArray,exportFileName);
+		this.delimiter = delimiter;
+		this.isGzip = isGzip;
+
+	}
+
+	//抽象方法，提供给子类进行实现，调用mapper的流式查询，遍历写入数据；与ExcelResultHandler同名，查询代码可以直接复用
+	public abstract void tryFetchDataAndWriteToExcel();
+
+	public void handleResult(ResultContext<? extends T> resultContext) {
+
+		Object aRowData = resultContext.getResultObject();
+		try {
+			callBackWriteRowdataToCsv(aRowData);
+		} catch (RuntimeException e) {
+			//先取消sql再停止读取，不用等结果集读完连接就能归还
+			if (writeFailure == null) {
+				writeFailure = e;
+			}
+			cancel();
+			resultContext.stop();
+		}
+
+	}
+
+	/**取消正在执行的查询，可以在任何线程调用*/
+	public void cancel() {
+		queryCanceller.cancel();
+	}
+
+	/**导出到当前请求的response*/
+	public void startExportCsv() {
+
+		HttpServletResponse response = ContextHolderUtils.getResponse();
+
+		OutputStream os = null;
+
+		try {
+
+			response.setContentType(isGzip ? "application/gzip" : "text/csv;charset=UTF-8");
+			response.setHeader("Content-Disposition", "attachment;filename=" + new String(getExportFileFullName().getBytes("utf-8"),"iso8859-1"));
+			os = response.getOutputStream();
+
+			exportCsv(os);
+
+		} catch (Exception e) {
+
+			if(ContextHolderUtils.isClientAbort(e)){
+				logger.warn("--------->>>> client aborted export {} after {} rows", getExportFileFullName(), getCurrentRowNumber());
+			}else{
+				logger.error("error",e);
+			}
+
+		} finally {
+
+			try {if(os!=null) os.close();} catch (IOException e1) {logger.debug("close response failed",e1);	}
+
+		}
+
+	}
+
+	/**导出到指定的输出流，os由调用方负责关闭*/
+	public void exportCsv(OutputStream os) throws IOException {
+
+		AbortableGzipOutputStream gzos = null;
+
+		//统计最终输出的字节数
+		CountingOutputStream countingOs = new CountingOutputStream(os);
+		boolean success = false;
+		metrics.start();
+
+		try {
+
+			logger.info("--------->>>>写入csv开始.." );
+
+			//输出缓冲由ByteBuffer负责，这里不需要再套BufferedOutputStream
+			if(isGzip){
+				gzos = new AbortableGzipOutputStream(new NonClosingOutputStream(countingOs), BUFFER_SIZE);
+				channel = Channels.newChannel(gzos);
+			}else{
+				channel = Channels.newChannel(countingOs);
+			}
+			buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+			if(isWriteBom){
+				buffer.put(UTF8_BOM);
+			}
+
+			//写入表头
+			for (int cellNumber = 0; cellNumber < totalCellNumber; cellNumber++) {
+				if(cellNumber > 0){
+					putByte((byte) delimiter);
+				}
+				putString(headerArray.get(cellNumber));
+			}
+			putNewLine();
+
+			//调用具体的实现子类的代码，尝试获取数据进行遍历并写入，执行的sql登记到queryCanceller
+			metrics.fetchStarted(false);
+			QueryCanceller previous = QueryCanceller.setCurrent(queryCanceller);
+			try {
+				tryFetchDataAndWriteToExcel();
+			} finally {
+				QueryCanceller.setCurrent(previous);
+			}
+			if(writeFailure != null){
+				if(writeFailure instanceof UncheckedIOException){
+					throw ((UncheckedIOException) writeFailure).getCause();
+				}
+				throw writeFailure;
+			}
+			metrics.fetchFinished();
+
+			long finishStart = System.nanoTime();
+			flushBuffer();
+			if(gzos!=null){
+				gzos.finish();
+			}
+			metrics.addFlushNanos(System.nanoTime() - finishStart);
+			success = true;
+
+			logger.info("--------->>>>全部数据写入csv完成，共{}行..", currentRowNumber.get() );
+
+		} finally {
+
+			long bytesWritten = countingOs.getCount();
+			if(gzos!=null){
+				metrics.finish(success, getCurrentRowNumber(), bytesWritten, uncompressedBytes, bytesWritten, gzos.getDeflateNanos(), -1);
+			}else{
+				metrics.finish(success, getCurrentRowNumber(), bytesWritten, bytesWritten, -1, 0, -1);
+			}
+
+			//close会先finish写入gzip尾部，出错时只释放Deflater，截断的输出不会被当成完整的gz文件
+			if(gzos!=null){
+				if(success){
+					try {gzos.close();} catch (IOException e1) {logger.error("error",e1);	}
+				}else{
+					gzos.abort();
+				}
+			}
+
+		}
+
+	}
+
+	//写入一行数据,提供给ResultHandler中遍历时进行回调调用
+	@SuppressWarnings("rawtypes")
+	public void callBackWriteRowdataToCsv(Object aRowData) {
+
+		boolean isMapRow = aRowData instanceof Map;
+		if(!isMapRow && (columnPlan == null || !columnPlan.isFor(aRowData.getClass()))){
+			columnPlan = new ExportColumnPlan(aRowData.getClass(), fieldArray);
+		}
+		
+		//SlotRowMap按下标取值，不需要每个单元格计算hash
+		SlotRowMap slotRow = aRowData instanceof SlotRowMap ? (SlotRowMap) aRowData : null;
+		if(slotRow != null && slotRow.getIndex() != mapSlotIndex){
+			mapSlotIndex = slotRow.getIndex();
+			mapSlots = mapSlotIndex.slotsOf(fieldArray);
+		}
+
+		long rowStart = metrics.rowStarted();
+		try {
+
+			for (int cellNumber = 0; cellNumber < totalCellNumber; cellNumber++) {
+
+				if(cellNumber > 0){
+					putByte((byte) delimiter);
+				}
+
+				Object value;
+				if(slotRow != null){
+					value = slotRow.getValue(mapSlots[cellNumber]);
+				}else{
+					value = isMapRow ? ((Map)aRowData).get(fieldArray.get(cellNumber)) : columnPlan.getValue(aRowData, cellNumber);
+				}
+				if(value == null){
+					continue;
+				}
+
+				CellType cellType = isMapRow ? CellType.AUTO : columnPlan.getCellType(cellNumber);
+				if(cellType == CellType.AUTO){
+					cellType = ExportColumnPlan.cellTypeOf(value.getClass());
+				}
+
+				switch (cellType) {
+					case INTEGER:
+						putLong(((Number) value).longValue());
+						break;
+					case DECIMAL:
+						putString(value instanceof BigDecimal ? ((BigDecimal) value).toPlainString() : value.toString());
+						break;
+					case DATE:
+						putString(sdf.format((Date) value));
+						break;
+					default:
+						putString(value.toString());
+				}
+
+			}
+			putNewLine();
+			metrics.rowFinished(rowStart);
+
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		//每写入5000条就打印一下
+		if(currentRowNumber.incrementAndGet() % 5000 == 0 ){
+			logger.info("--------->>>> write to csv size now is {}", currentRowNumber.get() );
+		}
+
+	}
+
+	public String getExportFileFullName() {
+		String extension = delimiter == TSV_DELIMITER ? ".tsv" : ".csv";
+		return (exportFileName + extension + (isGzip ? ".gz" : "")).replaceAll(" ", "");
+	}
+
+	public int getCurrentRowNumber() {
+		return currentRowNumber.get();
+	}
+
+	/**本次导出的指标*/
+	public ExportMetrics getMetrics() {
+		return metrics;
+	}
+
+	public char getDelimiter() {
+		return delimiter;
+	}
+
+	public void setDelimiter(char delimiter) {
+		this.delimiter = delimiter;
+	}
+
+	public boolean isGzip() {
+		return isGzip;
+	}
+
+	public void setGzip(boolean isGzip) {
+		this.isGzip = isGzip;
+	}
+
+	public boolean isWriteBom() {
+		return isWriteBom;
+	}
+
+	public void setWriteBom(boolean isWriteBom) {
+		this.isWriteBom = isWriteBom;
+	}
+
+	private void putNewLine() throws IOException {
+		ensureRemaining(2);
+		buffer.put((byte) '\r');
+		buffer.put((byte) '\n');
+	}
+
+	private void putByte(byte b) throws IOException {
+		ensureRemaining(1);
+		buffer.put(b);
+	}
+
+	private void putLong(long value) throws IOException {
+		if (value == Long.MIN_VALUE) {
+			putString(Long.toString(value));
+			return;
+		}
+		ensureRemaining(digits.length);
+		boolean negative = value < 0;
+		long remaining = negative ? -value : value;
+		int pos = digits.length;
+		do {
+			digits[--pos] = (byte) ('0' + (remaining % 10));
+			remaining /= 10;
+		} while (remaining != 0);
+		if (negative) {
+			digits[--pos] = '-';
+		}
+		buffer.put(digits, pos, digits.length - pos);
+	}
+
+	//写入一个字段，需要时加上双引号，并直接编码成UTF-8
+	private void putString(String value) throws IOException {
+
+		boolean needQuote = false;
+		for (int i = 0, len = value.length(); i < len; i++) {
+			char c = value.charAt(i);
+			if (c == delimiter || c == '"' || c == '\n' || c == '\r') {
+				needQuote = true;
+				break;
+			}
+		}
+
+		if (needQuote) {
+			putByte((byte) '"');
+		}
+		for (int i = 0, len = value.length(); i < len; i++) {
+			char c = value.charAt(i);
+			ensureRemaining(MAX_BYTES_PER_CHAR);
+			if (c < 0x80) {
+				if (c == '"') {
+					buffer.put((byte) '"');//双引号转义成两个双引号
+				}
+				buffer.put((byte) c);
+			} else if (c < 0x800) {
+				buffer.put((byte) (0xC0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			} else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buffer.put((byte) (0xF0 | (codePoint >> 18)));
+				buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+				buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+			} else if (Character.isSurrogate(c)) {
+				buffer.put((byte) '?');//不成对的代理字符
+			} else {
+				buffer.put((byte) (0xE0 | (c >> 12)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+		if (needQuote) {
+			putByte((byte) '"');
+		}
+
+	}
+
+	private void ensureRemaining(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flushBuffer();
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		buffer.flip();
+		uncompressedBytes += buffer.remaining();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	//可以放弃输出的GZIPOutputStream，abort时不写入剩余数据和尾部；记录deflate的耗时
+	private static class AbortableGzipOutputStream extends GZIPOutputStream {
+
+		private long deflateNanos = 0;
+
+		AbortableGzipOutputStream(OutputStream out, int size) throws IOException {
+			super(out, size);
+		}
+
+		//与DeflaterOutputStream.deflate相同，只计算压缩的时间，不含写入out的时间
+		@Override
+		protected void deflate() throws IOException {
+			long start = System.nanoTime();
+			int len = def.deflate(buf, 0, buf.length);
+			deflateNanos += System.nanoTime() - start;
+			if (len > 0) {
+				out.write(buf, 0, len);
+			}
+		}
+
+		long getDeflateNanos() {
+			return deflateNanos;
+		}
+
+		void abort() {
+			def.end();
+		}
+
+	}
+
+}
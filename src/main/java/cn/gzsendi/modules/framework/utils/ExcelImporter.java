@@ -0,0 +1,213 @@
+package cn.gzsendi.modules.framework.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 流式导入xlsx，按固定大小分批写入数据库.
+ *
+ * <pre>
+ * 当前线程用{@link XlsxStreamReader}逐行解析第一个sheet，第一行为表头（见{@link ImportColumnPlan}），
+ * 每凑满batchSize行就放进环形缓冲区，由单独的写入线程取出并调用batchWriter（如mapper的batchInsert），
+ * 解析xml和写入数据库同时进行。
+ * 缓冲区最多放queueBatches批，写入慢时解析线程阻塞，内存中最多只有queueBatches+2批数据，与文件大小无关。
+ *
+ * 任何一方出错，另一方都会尽快退出，并把最先出现的异常抛给调用方。
+ * 每一批单独提交，出错时之前的批次已经写入，见{@link #getRows()}。
+ * </pre>
+ */
+public class ExcelImporter<T> {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private static final AtomicInteger WRITER_THREAD_NUMBER = new AtomicInteger(0);
+
+	private final Class<T> rowClass;
+	private final Consumer<List<T>> batchWriter;
+
+	//每批写入的行数
+	private int batchSize = 2000;
+
+	//解析和写入之间最多缓冲的批数
+	private int queueBatches = 2;
+
+	//已写入数据库的行数和批数，由写入线程更新
+	private volatile long rows = 0;
+	private volatile int batches = 0;
+
+	/**
+	 * @param rowClass 导入的model，表头对应其属性或@ExcelColumn的header
+	 * @param batchWriter 在写入线程中调用，把一批数据写入数据库
+	 */
+	public ExcelImporter(Class<T> rowClass, Consumer<List<T>> batchWriter) {
+		this.rowClass = rowClass;
+		this.batchWriter = batchWriter;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be greater than 0");
+		}
+		this.batchSize = batchSize;
+	}
+
+	public int getQueueBatches() {
+		return queueBatches;
+	}
+
+	public void setQueueBatches(int queueBatches) {
+		if (queueBatches < 1) {
+			throw new IllegalArgumentException("queueBatches must be greater than 0");
+		}
+		this.queueBatches = queueBatches;
+	}
+
+	/**已写入数据库的行数*/
+	public long getRows() {
+		return rows;
+	}
+
+	/**已写入数据库的批数*/
+	public int getBatches() {
+		return batches;
+	}
+
+	/**
+	 * 导入文件，返回写入的行数.
+	 *
+	 * @throws IllegalArgumentException 表头没有可以导入的列，或单元格的值不能转换
+	 */
+	@SuppressWarnings("unchecked")
+	public long importFile(File file) throws IOException {
+
+		logger.info("--------->>>>导入excel开始..");
+
+		final RowRingBuffer<List<T>> buffer = new RowRingBuffer<List<T>>(queueBatches);
+		Thread writerThread = new Thread(new Runnable() {
+			public void run() {
+				Object[] drained = new Object[1];
+				try {
+					while (buffer.drainTo(drained) >= 0) {
+						List<T> batch = (List<T>) drained[0];
+						drained[0] = null;
+						batchWriter.accept(batch);
+						rows += batch.size();
+						batches++;
+					}
+				} catch (Throwable e) {
+					buffer.fail(e);
+				}
+			}
+		}, "import-writer-" + WRITER_THREAD_NUMBER.incrementAndGet());
+		writerThread.start();
+
+		try (XlsxStreamReader reader = new XlsxStreamReader(file)) {
+
+			final boolean date1904 = reader.isDate1904();
+			final ImportColumnPlan[] plan = new ImportColumnPlan[1];
+			final List<List<T>> pending = new ArrayList<List<T>>(1);
+			pending.add(new ArrayList<T>(batchSize));
+
+			reader.readFirstSheet(new XlsxStreamReader.RowHandler() {
+				public void row(int rowNumber, String[] cells, int cellCount) {
+
+					//第一个非空行为表头
+					if (plan[0] == null) {
+						if (cellCount == 0) {
+							return;
+						}
+						plan[0] = new ImportColumnPlan(rowClass, cells, cellCount, date1904);
+						if (plan[0].getMappedColumns() == 0) {
+							throw new IllegalArgumentException("no importable column in header row " + rowNumber);
+						}
+						return;
+					}
+
+					T row = (T) plan[0].newRow(rowNumber, cells, cellCount);
+					if (row == null) {
+						return;
+					}
+					List<T> batch = pending.get(0);
+					batch.add(row);
+					if (batch.size() >= batchSize) {
+						put(buffer, batch);
+						pending.set(0, new ArrayList<T>(batchSize));
+					}
+
+				}
+			});
+
+			//最后不满一批的数据
+			if (!pending.get(0).isEmpty()) {
+				put(buffer, pending.get(0));
+			}
+			buffer.close();
+
+		} catch (Throwable e) {
+
+			//写入线程先出错导致的解析中断，保留写入线程的异常
+			buffer.fail(e);
+
+		} finally {
+
+			//等待写入线程写完剩余的批次，缓冲区已关闭或出错，写入线程一定会退出
+			boolean interrupted = false;
+			while (writerThread.isAlive()) {
+				try {
+					writerThread.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+					buffer.fail(e);
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+
+		}
+
+		Throwable failure = buffer.getFailure();
+		if (failure != null) {
+			logger.warn("--------->>>>导入excel失败，已写入{}行", rows);
+			if (failure instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) failure).getCause();
+			}
+			if (failure instanceof IOException) {
+				throw (IOException) failure;
+			}
+			if (failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			}
+			if (failure instanceof Error) {
+				throw (Error) failure;
+			}
+			throw new IOException("import pipeline failed", failure);
+		}
+
+		logger.info("--------->>>>导入excel完成，共{}行，{}批..", rows, batches);
+		return rows;
+
+	}
+
+	private static <E> void put(RowRingBuffer<E> buffer, E batch) {
+		try {
+			buffer.put(batch);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("import interrupted", e);
+		}
+	}
+
+}
@@ -3,48 +3,89 @@ package cn.gzsendi.modules.framework.utils;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.text.SimpleDateFormat;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.ibatis.session.ResultContext;
 import org.apache.ibatis.session.ResultHandler;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
+import cn.gzsendi.modules.framework.annotation.ExcelColumn;
+import cn.gzsendi.modules.framework.metrics.ExportMetrics;
 import cn.gzsendi.modules.framework.reflect.Reflector;
-import cn.gzsendi.modules.framework.reflect.reflectasm.MethodAccessor;
+import cn.gzsendi.modules.framework.reflect.reflectasm.ExcelRowWriter;
+import cn.gzsendi.modules.framework.utils.ExportColumnPlan.CellType;
 
 public abstract class ExcelResultHandler<T> implements ResultHandler<T>{
 	
 	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+	
+	//xlsx格式单个sheet的最大行数（含表头）
+	public static final int MAX_XLSX_ROWS = 1048576;
+	
+	//流水线模式下写入线程每次从缓冲区取出的最大行数
+	private static final int PIPELINE_DRAIN_SIZE = 256;
+	
+	private static final AtomicInteger WRITER_THREAD_NUMBER = new AtomicInteger(0);
 
-	private AtomicInteger currentRowNumber = new AtomicInteger(0);//记录当前excel行号，从0开始
-	private Sheet sheet = null;
+	private AtomicInteger currentRowNumber = new AtomicInteger(0);//记录当前已写入的数据行数（所有sheet合计），从0开始
+	private int currentSheetRowNumber = 0;//记录当前sheet中的行号，从0开始，0为表头
+	private int currentSheetNumber = 0;//记录当前是第几个sheet，从1开始
+	private ExcelSheetWriter excelWriter = null;
+	private ExportColumnPlan columnPlan = null;//fieldArray解析出来的getter索引，避免每个单元格都按字段名查找
+	private SlotRowMap.Index mapSlotIndex = null;//map行的列索引，同一次查询的行共享
+	private int[] mapSlots = null;//fieldArray在mapSlotIndex中的下标
 
 	private List<String> headerArray ; //excel表头
 	private List<String> fieldArray ; //对应的字段
+	private List<String> columnFormats ; //各列数值、日期单元格的excel格式，null为默认格式
+	private List<Integer> columnWidths ; //各列的列宽（字符数），null为默认列宽
+	
+	//按@ExcelColumn注解生成的行写入器，行数据是对应的Class时整行一次写完，不再逐列取值
+	private ExcelRowWriter rowWriter = null;
 	
 	//定义totalCellNumber变量，
 	private int totalCellNumber;
 	
 	//定义导出成zip格式的还是原始的xlsx格式
 	private boolean isExportZip = true;
-
-	private SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+	
+	//每个sheet最多写入的数据行数（不含表头），超过后自动新建sheet并重复写入表头，默认为xlsx单个sheet的最大行数
+	private int maxRowsPerSheet = MAX_XLSX_ROWS - 1;
+	
+	//定义使用哪种excel写入引擎，true为直接输出xlsx（不落临时文件），false为原来的SXSSFWorkbook
+	private boolean isStreamingXlsx = true;
+	
+	//压缩级别（STORE/FAST/DEFAULT/BEST），同时用于xlsx本身和外层的zip，用cpu换带宽
+	private ExportCompression compression = ExportCompression.DEFAULT;
+	
+	//每写入多少行就把已生成的数据输出给客户端（分块传输），0为不主动输出，只在缓冲区满时输出
+	private int flushEveryRows = 0;
+	
+	//查询和写入流水线的缓冲行数，大于0时查询线程只负责取数，由单独的写入线程生成excel，0为不启用
+	private int pipelineBufferSize = 0;
+	private volatile RowRingBuffer<Object> rowBuffer = null;
+	
+	//写入失败（如客户端断开）时取消正在执行的查询，连接不用等结果集读完就能归还
+	private final QueryCanceller queryCanceller = new QueryCanceller();
+	//handleResult中写入失败的异常，停止读取结果集后，取数结束时再抛出
+	private volatile RuntimeException writeFailure = null;
+	
+	//本次导出的耗时、字节数等指标，导出结束时汇总到MetricsRegistry
+	private final ExportMetrics metrics = new ExportMetrics();
 
 	//定义要导出的excel文件名,不带xlsx后缀,默认为uuID,也可以通过构造函数传进来进行改变。
 	private String exportFileName = UUID.randomUUID().toString().replace("-", "");
@@ -77,6 +118,125 @@ public abstract class ExcelResultHandler<T> implements ResultHandler<T>{
 
 	}
 	
+	/**表头、字段、格式和列宽都取自rowClass上的{@link ExcelColumn}注解*/
+	public ExcelResultHandler(Class<T> rowClass,String exportFileName){
+		
+		this(Reflector.getExcelRowWriter(rowClass),null,exportFileName);
+		
+	}
+	
+	public ExcelResultHandler(Class<T> rowClass,String exportFileName,boolean isExportZip){
+		
+		this(rowClass,exportFileName);
+		this.isExportZip = isExportZip;
+		
+	}
+	
+	/**只导出fields中的列（按fields的顺序），fields必须是rowClass上带{@link ExcelColumn}注解的字段，为null时导出全部*/
+	public ExcelResultHandler(Class<T> rowClass,List<String> fields,String exportFileName){
+		
+		this(Reflector.getExcelRowWriter(rowClass),fields,exportFileName);
+		
+	}
+	
+	private ExcelResultHandler(ExcelRowWriter rowWriter,List<String> fields,String exportFileName){
+		
+		List<String> allFields = Arrays.asList(rowWriter.getFieldNames());
+		List<String> selectedFields = fields == null ? allFields : fields;
+		String[] headers = rowWriter.getHeaders();
+		String[] formats = rowWriter.getFormats();
+		int[] widths = rowWriter.getWidths();
+		
+		this.headerArray = new ArrayList<String>(selectedFields.size());
+		this.fieldArray = new ArrayList<String>(selectedFields.size());
+		this.columnFormats = new ArrayList<String>(selectedFields.size());
+		this.columnWidths = new ArrayList<Integer>(selectedFields.size());
+		for (String field : selectedFields) {
+			int column = allFields.indexOf(field);
+			if(column < 0){
+				throw new IllegalArgumentException("unknown export field: " + field);
+			}
+			headerArray.add(headers[column]);
+			fieldArray.add(field);
+			columnFormats.add(formats[column]);
+			columnWidths.add(widths[column]);
+		}
+		this.totalCellNumber = headerArray.size();
+		this.exportFileName = exportFileName;
+		
+		//生成的写入器固定写全部列，只导出部分列或调整了顺序时按字段逐列取值
+		this.rowWriter = fieldArray.equals(allFields) ? rowWriter : null;
+		
+	}
+	
+	public boolean isStreamingXlsx() {
+		return isStreamingXlsx;
+	}
+
+	public void setStreamingXlsx(boolean isStreamingXlsx) {
+		this.isStreamingXlsx = isStreamingXlsx;
+	}
+	
+	public ExportCompression getCompression() {
+		return compression;
+	}
+
+	public void setCompression(ExportCompression compression) {
+		this.compression = compression;
+	}
+	
+	public int getFlushEveryRows() {
+		return flushEveryRows;
+	}
+
+	public void setFlushEveryRows(int flushEveryRows) {
+		if (flushEveryRows < 0) {
+			throw new IllegalArgumentException("flushEveryRows must not be negative");
+		}
+		this.flushEveryRows = flushEveryRows;
+	}
+	
+	public int getPipelineBufferSize() {
+		return pipelineBufferSize;
+	}
+
+	public void setPipelineBufferSize(int pipelineBufferSize) {
+		if (pipelineBufferSize < 0) {
+			throw new IllegalArgumentException("pipelineBufferSize must not be negative");
+		}
+		this.pipelineBufferSize = pipelineBufferSize;
+	}
+	
+	public List<String> getColumnFormats() {
+		return columnFormats;
+	}
+
+	//设置各列数值、日期单元格的excel格式，如0.00、yyyy-mm-dd，与headerArray一一对应
+	public void setColumnFormats(List<String> columnFormats) {
+		this.columnFormats = columnFormats;
+	}
+	
+	public List<Integer> getColumnWidths() {
+		return columnWidths;
+	}
+
+	//设置各列的列宽，单位为字符数，与headerArray一一对应
+	public void setColumnWidths(List<Integer> columnWidths) {
+		this.columnWidths = columnWidths;
+	}
+	
+	public int getMaxRowsPerSheet() {
+		return maxRowsPerSheet;
+	}
+
+	//设置每个sheet最多写入的数据行数，不能超过xlsx的行数限制
+	public void setMaxRowsPerSheet(int maxRowsPerSheet) {
+		if (maxRowsPerSheet < 1 || maxRowsPerSheet > MAX_XLSX_ROWS - 1) {
+			throw new IllegalArgumentException("maxRowsPerSheet must be between 1 and " + (MAX_XLSX_ROWS - 1));
+		}
+		this.maxRowsPerSheet = maxRowsPerSheet;
+	}
+	
 	//出象方法，提供给子类进行实现，遍历写入数据到excel
 	public abstract void tryFetchDataAndWriteToExcel();
 
@@ -84,121 +244,472 @@ public abstract class ExcelResultHandler<T> implements ResultHandler<T>{
 		
 		//获取数据，并回调ExportExcelUtils中的方法进行数据写入到excel，固定写法即可，不需要修改
 		Object aRowData = resultContext.getResultObject();
-		callBackWriteRowdataToExcel(aRowData);
+		try {
+			callBackWriteRowdataToExcel(aRowData);
+		} catch (RuntimeException e) {
+			//写入失败后先取消sql，再停止读取，mybatis关闭结果集时不用再把剩余的行读完
+			if (writeFailure == null) {
+				writeFailure = e;
+			}
+			cancel();
+			resultContext.stop();
+		}
 		
 	}
 	
-	/**导出*/
+	/**取消正在执行的查询，写入失败或调用方放弃导出时调用，可以在任何线程调用*/
+	public void cancel() {
+		queryCanceller.cancel();
+	}
+	
+	/**导出到当前请求的response*/
 	public void startExportExcel() {
 		
 		HttpServletResponse response = ((ServletRequestAttributes) RequestContextHolder.getRequestAttributes()).getResponse();
 		
-		ZipOutputStream zos = null;
 		OutputStream os = null;
 		
 		try {
 			
-			logger.info("--------->>>>写入Excel开始.." );
-			
 			//写入文件
 			response.setContentType("application/octet-stream");
-			response.setHeader("Content-Disposition", "attachment;filename=" + new String((exportFileName+".zip").replaceAll(" ", "").getBytes("utf-8"),"iso8859-1"));
+			response.setHeader("Content-Disposition", "attachment;filename=" + new String(getExportFileFullName().getBytes("utf-8"),"iso8859-1"));
+			if(flushEveryRows > 0){
+				//不设置Content-Length，容器会使用分块传输；告诉nginx等反向代理不要缓存整个响应
+				response.setHeader("X-Accel-Buffering", "no");
+			}
 			os = new BufferedOutputStream(response.getOutputStream());
 			
-			//如果设置成了导出成Zip，格式加上三行以下代码进行Zip的处理
-			if(isExportZip){
-				zos = new ZipOutputStream(os);
-				ZipEntry zipEntry = new ZipEntry(new String((exportFileName+".xlsx").replaceAll(" ", "")));
-				zos.putNextEntry(zipEntry);
+			exportExcel(os);
+			
+		} catch (Exception e) {
+			
+			if(ContextHolderUtils.isClientAbort(e)){
+				logger.warn("--------->>>> client aborted export {} after {} rows", getExportFileFullName(), getCurrentRowNumber());
+			}else{
+				logger.error("error",e);
 			}
 			
+		} finally {
+			
+			//关闭资源，客户端已断开时关闭会再次失败，忽略
+			try {if(os!=null) os.close();} catch (IOException e1) {logger.debug("close response failed",e1);	}
+	    	  
+		}
+
+	}
+	
+	/**
+	 * 导出到指定的输出流.
+	 * 
+	 * <pre>
+	 * 不依赖当前请求，异步导出任务等可以直接写入本地文件，
+	 * os由调用方负责关闭，导出过程中的异常直接抛给调用方
+	 * </pre>
+	 */
+	public void exportExcel(OutputStream os) throws IOException {
+		
+		ParallelZipOutputStream zos = null;
+		
+		//统计最终输出的字节数
+		CountingOutputStream countingOs = new CountingOutputStream(os);
+		boolean success = false;
+		metrics.start();
+		
+		try {
+			
+			logger.info("--------->>>>写入Excel开始.." );
 			
-			SXSSFWorkbook wb = new SXSSFWorkbook();//默认100行，超100行将写入临时文件
-			wb.setCompressTempFiles(false); //是否压缩临时文件，否则写入速度更快，但更占磁盘，但程序最后是会将临时文件删掉的
-            sheet = wb.createSheet("Sheet 1");
+			//如果设置成了导出成Zip，格式加上三行以下代码进行Zip的处理
+			if(isExportZip){
+				zos = new ParallelZipOutputStream(new NonClosingOutputStream(countingOs), compression, flushEveryRows > 0);
+				zos.putNextEntry((exportFileName+".xlsx").replaceAll(" ", ""));
+			}
 			
-	        //写入表头，Rows从0开始.
-	        Row row = sheet.createRow(0);
-	        for (int cellNumber = 0; cellNumber < totalCellNumber; cellNumber++) {
-	        	
-	        	Cell cell = row.createCell(cellNumber);
-                cell.setCellValue(headerArray.get(cellNumber)); //写入表头数据
-	        	
-	        }
+			//默认直接把sheet的xml写进输出流，不生成临时文件
+			excelWriter = isStreamingXlsx ? new XlsxStreamWriter(compression, flushEveryRows > 0) : new SxssfSheetWriter();
+			excelWriter.open(isExportZip ? zos : countingOs);
+			applyColumnStyles(excelWriter);
 	        
 	        //写入数据
 		    /****************************/
-	        //调用具体的实现子类的代码，尝试获取数据进行遍历并写入excel
-	        tryFetchDataAndWriteToExcel();
-
-	        //最后打印一下最终写入的行数
-			logger.info("--------->>>> write to excel size now is {}", currentRowNumber.get() );
+			writeSheets();
 	        
-	        //Write excel to a file
-			if(isExportZip){
-				wb.write(zos);
-			}else{
-				wb.write(os);
+	        //输出剩余的内容，SXSSF会在这里把临时文件写入输出流
+			long finishStart = System.nanoTime();
+			excelWriter.finish();
+			if(zos!=null){
+				zos.finish();
 			}
-	        
-	        
-	        if (wb != null) {
-            	wb.dispose();// 删除临时文件，很重要，否则磁盘可能会被写满
-            }
-	        
-	        wb.close();
+			metrics.addFlushNanos(System.nanoTime() - finishStart);
+			success = true;
 	        
 		    /****************************/
 	  		
 	  		logger.info("--------->>>>全部数据写入Excel完成.." );
 			
-		} catch (Exception e) {
+		} finally {
 			
-			logger.error("error",e);
+			//SXSSF的临时文件在close时删除，需要在close之前统计
+			recordMetrics(success, countingOs.getCount(), zos);
 			
-		} finally {
+			//释放写入引擎的资源（SXSSF的临时文件）
+			try {if(excelWriter!=null) excelWriter.close();} catch (IOException e1) {logger.error("error",e1);	}
 			
-			//关闭资源
-			if(isExportZip){
-				try {if(zos!=null) zos.close();} catch (IOException e1) {logger.error("error",e1);	}
-			}else{
-				try {if(os!=null) os.close();} catch (IOException e1) {logger.error("error",e1);	}
+			//zos包装的是NonClosingOutputStream，不会关闭os；出错时只取消未完成的压缩任务，不再写入中央目录
+			if(zos!=null){
+				if(success){
+					try {zos.close();} catch (IOException e1) {logger.error("error",e1);	}
+				}else{
+					zos.abort();
+				}
 			}
 	    	  
 		}
 
 	}
 	
+	/**
+	 * 把数据写入指定的写入引擎，不负责writer的open、finish和close.
+	 * 
+	 * <pre>
+	 * 用于分片导出时每个分片把数据写入自己的临时sheet，见{@link ShardedExcelResultHandler}
+	 * </pre>
+	 */
+	public void writeSheetsTo(ExcelSheetWriter writer) throws IOException {
+		this.excelWriter = writer;
+		applyColumnStyles(writer);
+		writeSheets();
+	}
+	
+	//把列的格式和列宽交给写入引擎，需要在创建sheet之前
+	private void applyColumnStyles(ExcelSheetWriter writer) throws IOException {
+		
+		if(columnFormats == null && columnWidths == null){
+			return;
+		}
+		String[] formats = columnFormats == null ? null : columnFormats.toArray(new String[0]);
+		int[] widths = null;
+		if(columnWidths != null){
+			widths = new int[columnWidths.size()];
+			for (int i = 0; i < widths.length; i++) {
+				widths[i] = columnWidths.get(i) == null ? 0 : columnWidths.get(i);
+			}
+		}
+		writer.setColumnStyles(formats, widths);
+		
+	}
+	
+	//分片导出时，每个分片的handler使用相同的列设置
+	void copyColumnSettings(ExcelResultHandler<?> source) {
+		this.columnFormats = source.columnFormats;
+		this.columnWidths = source.columnWidths;
+		this.rowWriter = source.rowWriter;
+	}
+	
+	//写入表头及全部数据，子类可以重写改变取数方式（如分片并行导出）
+	protected void writeSheets() throws IOException {
+		
+		//创建第一个sheet并写入表头
+		createSheetWithHeader();
+		
+		//调用具体的实现子类的代码，尝试获取数据进行遍历并写入excel
+		//取数线程上执行的sql登记到queryCanceller，写入失败时可以取消
+		metrics.fetchStarted(pipelineBufferSize > 0);
+		QueryCanceller previous = QueryCanceller.setCurrent(queryCanceller);
+		try {
+			if(pipelineBufferSize > 0){
+				fetchAndWriteInPipeline();
+			}else{
+				tryFetchDataAndWriteToExcel();
+			}
+		} finally {
+			QueryCanceller.setCurrent(previous);
+		}
+		if(writeFailure != null){
+			throwFailure(writeFailure);
+		}
+		metrics.fetchFinished();
+		
+		//最后打印一下最终写入的行数
+		logger.info("--------->>>> write to excel size now is {}", currentRowNumber.get() );
+		
+	}
+	
+	/**
+	 * 查询和写入分成两个线程执行.
+	 * 
+	 * <pre>
+	 * 当前线程执行tryFetchDataAndWriteToExcel，回调时只把行数据放进环形缓冲区，
+	 * 写入线程从缓冲区取出数据生成excel，读取数据库和生成xml可以同时进行。
+	 * 缓冲区满时查询线程阻塞；任何一方出错，另一方都会尽快退出，并把最先出现的异常抛给调用方。
+	 * </pre>
+	 */
+	private void fetchAndWriteInPipeline() throws IOException {
+		
+		final RowRingBuffer<Object> buffer = new RowRingBuffer<Object>(pipelineBufferSize);
+		Thread writerThread = new Thread(new Runnable() {
+			public void run() {
+				Object[] batch = new Object[Math.min(pipelineBufferSize, PIPELINE_DRAIN_SIZE)];
+				try {
+					int size;
+					while ((size = buffer.drainTo(batch)) >= 0) {
+						for (int i = 0; i < size; i++) {
+							writeRow(batch[i]);
+							batch[i] = null;
+						}
+					}
+				} catch (Throwable e) {
+					//查询线程可能正阻塞在读取数据库上，直接取消sql
+					buffer.fail(e);
+					cancel();
+				}
+			}
+		}, "export-writer-" + WRITER_THREAD_NUMBER.incrementAndGet());
+		
+		rowBuffer = buffer;
+		writerThread.start();
+		
+		try {
+			
+			tryFetchDataAndWriteToExcel();
+			buffer.close();
+			
+		} catch (Throwable e) {
+			
+			//写入线程先出错导致的查询中断，保留写入线程的异常
+			buffer.fail(e);
+			
+		} finally {
+			
+			rowBuffer = null;
+			
+			//等待写入线程写完剩余的行，之后才能finish，缓冲区已关闭或出错，写入线程一定会退出
+			boolean interrupted = false;
+			while (writerThread.isAlive()) {
+				try {
+					writerThread.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+					buffer.fail(e);
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			
+		}
+		
+		Throwable failure = buffer.getFailure();
+		if (failure != null) {
+			throwFailure(failure);
+		}
+		
+	}
+	
+	//抛出取数或写入过程中的异常，写入的IOException还原成原来的异常
+	private static void throwFailure(Throwable failure) throws IOException {
+		if (failure instanceof UncheckedIOException) {
+			throw ((UncheckedIOException) failure).getCause();
+		}
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+		if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+		throw new IOException("export pipeline failed", failure);
+	}
+	
+	protected ExcelSheetWriter getExcelWriter() {
+		return excelWriter;
+	}
+	
+	public List<String> getHeaderArray() {
+		return headerArray;
+	}
+	
+	public List<String> getFieldArray() {
+		return fieldArray;
+	}
+	
+	/**导出的文件名，带后缀*/
+	public String getExportFileFullName() {
+		return (exportFileName + (isExportZip ? ".zip" : ".xlsx")).replaceAll(" ", "");
+	}
+	
+	/**本次导出的指标*/
+	public ExportMetrics getMetrics() {
+		return metrics;
+	}
+	
+	//汇总本次导出的指标，失败时只记录失败次数
+	private void recordMetrics(boolean success, long bytesWritten, ParallelZipOutputStream zos) {
+		
+		long uncompressedBytes = -1;
+		long compressedBytes = -1;
+		long tempFileBytes = -1;
+		long zipNanos = zos == null ? 0 : zos.getDeflateNanos();
+		if(excelWriter instanceof XlsxStreamWriter){
+			XlsxStreamWriter xlsxWriter = (XlsxStreamWriter) excelWriter;
+			uncompressedBytes = xlsxWriter.getUncompressedBytes();
+			compressedBytes = xlsxWriter.getCompressedBytes();
+			zipNanos += xlsxWriter.getDeflateNanos();
+		}else if(excelWriter instanceof SxssfSheetWriter){
+			tempFileBytes = ((SxssfSheetWriter) excelWriter).getTempFileBytes();
+		}
+		metrics.finish(success, getCurrentRowNumber(), bytesWritten, uncompressedBytes, compressedBytes, zipNanos, tempFileBytes);
+		
+	}
+	
+	/**影响导出文件内容的设置，用于导出结果缓存的key*/
+	public String getOutputSignature() {
+		return getExportFileFullName() + "|" + headerArray + "|" + fieldArray + "|" + columnFormats + "|" + columnWidths
+				+ "|" + isStreamingXlsx + "|" + maxRowsPerSheet + "|" + compression;
+	}
+	
+	/**当前已写入的数据行数*/
+	public int getCurrentRowNumber() {
+		return currentRowNumber.get();
+	}
+	
+	//按单元格类型写入一个单元格
+	private void writeCell(int cellNumber, CellType cellType, Object value) throws IOException {
+		
+		if(value == null){
+			excelWriter.writeString(cellNumber, "");
+			return;
+		}
+		if(cellType == CellType.AUTO){
+			cellType = ExportColumnPlan.cellTypeOf(value.getClass());
+		}
+		
+		switch (cellType) {
+			case INTEGER:
+				excelWriter.writeNumber(cellNumber, ((Number) value).longValue());
+				break;
+			case DOUBLE:
+				excelWriter.writeNumber(cellNumber, ((Number) value).doubleValue());
+				break;
+			case DECIMAL:
+				excelWriter.writeNumber(cellNumber, value instanceof BigInteger ? new BigDecimal((BigInteger) value) : (BigDecimal) value);
+				break;
+			case DATE:
+				excelWriter.writeDate(cellNumber, (Date) value);
+				break;
+			case BOOLEAN:
+				excelWriter.writeBoolean(cellNumber, (Boolean) value);
+				break;
+			default:
+				excelWriter.writeString(cellNumber, value.toString());
+		}
+		
+	}
+	
+	//新建一个sheet，并写入表头
+	protected void createSheetWithHeader() throws IOException {
+		
+		currentSheetNumber++;
+		currentSheetRowNumber = 0;
+		excelWriter.createSheet("Sheet " + currentSheetNumber);
+		
+		//写入表头，Rows从0开始.
+		excelWriter.startRow(0);
+		for (int cellNumber = 0; cellNumber < totalCellNumber; cellNumber++) {
+			
+			excelWriter.writeString(cellNumber, headerArray.get(cellNumber)); //写入表头数据
+			
+		}
+		excelWriter.endRow();
+		
+		if(currentSheetNumber > 1){
+			logger.info("--------->>>> sheet {} is full, continue writing to sheet {}", currentSheetNumber - 1, currentSheetNumber);
+		}
+	}
+	
 	//写入一行数据到excel中,提供给ResultHandler中遍历时进行回调调用
-	@SuppressWarnings("rawtypes")
 	public void callBackWriteRowdataToExcel(Object aRowData) {
+		
+		//流水线模式下只放进缓冲区，由写入线程写入
+		RowRingBuffer<Object> buffer = rowBuffer;
+		if(buffer == null){
+			writeRow(aRowData);
+			return;
+		}
+		try {
+			buffer.put(aRowData);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("export interrupted", e);
+		}
+		
+	}
+	
+	@SuppressWarnings("rawtypes")
+	private void writeRow(Object aRowData) {
 
-		//反射获取值并设置到excel的中cell列中
-		MethodAccessor methodAccessor = Reflector.getMethodAccessor(aRowData.getClass());
-
-		//先将行号增加
-		currentRowNumber.incrementAndGet();
-		//创建excel中新的一行
-		Row row = sheet.createRow(currentRowNumber.get());
-		for (int cellNumber = 0; cellNumber < totalCellNumber; cellNumber++) {
+		//带@ExcelColumn注解的行数据使用生成的行写入器，整行是一段直接调用getter的字节码
+		boolean useRowWriter = rowWriter != null && rowWriter.isFor(aRowData.getClass());
+		
+		//反射获取值并设置到excel的中cell列中，getter索引按行数据的Class只解析一次
+		boolean isMapRow = aRowData instanceof Map;
+		if(!isMapRow && !useRowWriter && (columnPlan == null || !columnPlan.isFor(aRowData.getClass()))){
+			columnPlan = new ExportColumnPlan(aRowData.getClass(), fieldArray);
+		}
+		
+		//resultType为map的查询，行是按共享列索引存放的SlotRowMap，fieldArray的下标每次查询只解析一次
+		SlotRowMap slotRow = aRowData instanceof SlotRowMap ? (SlotRowMap) aRowData : null;
+		if(slotRow != null && slotRow.getIndex() != mapSlotIndex){
+			mapSlotIndex = slotRow.getIndex();
+			mapSlots = mapSlotIndex.slotsOf(fieldArray);
+		}
 
-			//aRowData为map时，要特殊处理进行获取。不能通过methodAccessor反射调用.
-			Object value = null;
-			if(aRowData instanceof Map){
-				value = ((Map)aRowData).get(fieldArray.get(cellNumber));
-			}else {
-				value = methodAccessor.getFieldValue(aRowData, fieldArray.get(cellNumber));
+		long rowStart = metrics.rowStarted();
+		try {
+			
+			//当前sheet写满后，新建一个sheet继续写入，一次查询可以导出超过单个sheet行数限制的数据
+			if(currentSheetRowNumber >= maxRowsPerSheet){
+				createSheetWithHeader();
 			}
 			
-			Cell cell = row.createCell(cellNumber);
+			//先将行号增加
+			currentRowNumber.incrementAndGet();
+			currentSheetRowNumber++;
+			//创建excel中新的一行
+			excelWriter.startRow(currentSheetRowNumber);
+			if(useRowWriter){
+				rowWriter.writeRow(aRowData, excelWriter);
+			}else{
+				for (int cellNumber = 0; cellNumber < totalCellNumber; cellNumber++) {
+
+					//aRowData为map时，要特殊处理进行获取。不能通过methodAccessor反射调用.
+					Object value = null;
+					if(slotRow != null){
+						value = slotRow.getValue(mapSlots[cellNumber]);
+					}else if(isMapRow){
+						value = ((Map)aRowData).get(fieldArray.get(cellNumber));
+					}else {
+						value = columnPlan.getValue(aRowData, cellNumber);
+					}
 
-			//date类型默认转换string格式化日期
-            if (value!=null && value instanceof Date){
-            	cell.setCellValue(sdf.format(value));//
-            }else {
-            	cell.setCellValue(value==null?"":value.toString());//写入数据
-            }
+					//按列的类型写入数值、日期、布尔等单元格，map行按值的实际类型判断
+					writeCell(cellNumber, isMapRow ? CellType.AUTO : columnPlan.getCellType(cellNumber), value);
 
+				}
+			}
+			excelWriter.endRow();
+			metrics.rowFinished(rowStart);
+			
+			//定期把已生成的数据输出给客户端，下载可以立即开始，服务端也不会积压大量未发送的数据
+			if(flushEveryRows > 0 && currentRowNumber.get() % flushEveryRows == 0){
+				long flushStart = System.nanoTime();
+				excelWriter.flush();
+				metrics.addFlushNanos(System.nanoTime() - flushStart);
+			}
+			
+		} catch (IOException e) {
+			//ResultHandler的回调不能抛出受检异常，包装后由startExportExcel统一处理
+			throw new UncheckedIOException(e);
 		}
 
 		//每写入5000条就打印一下
@@ -0,0 +1,68 @@
+package cn.gzsendi.modules.framework.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * excel写入引擎.
+ *
+ * <pre>
+ * ExcelResultHandler只负责遍历结果集并按行回调，具体怎么把行写成xlsx交给实现类：
+ * {@link XlsxStreamWriter} 直接把sheet的xml边遍历边写进输出流，不落临时文件（默认）
+ * {@link SxssfSheetWriter} 原来的SXSSFWorkbook写法，先写临时文件，最后再拷贝到输出流
+ *
+ * 调用顺序固定为：open -> [setColumnStyles] -> createSheet -> (startRow -> writeXxx... -> endRow)... -> finish -> close
+ * 写入过程中可以随时调用flush，把已生成的数据尽快输出
+ * close需要放在finally中调用，用于出错时释放临时文件等资源
+ * </pre>
+ */
+public interface ExcelSheetWriter extends Closeable {
+
+	/**打开写入器，out为最终的xlsx输出流，写入器不负责关闭out*/
+	void open(OutputStream out) throws IOException;
+
+	/**
+	 * 设置各列的格式和列宽，对之后新建的所有sheet生效.
+	 * 
+	 * @param formats 数值、日期单元格的excel格式（如0.00、yyyy-mm-dd），null或空字符串为默认格式
+	 * @param widths 列宽，单位为字符数，小于等于0为默认列宽
+	 */
+	void setColumnStyles(String[] formats, int[] widths) throws IOException;
+
+	/**新建一个sheet，之后写入的行都写到这个sheet中*/
+	void createSheet(String sheetName) throws IOException;
+
+	/**开始写入一行，rowNumber从0开始*/
+	void startRow(int rowNumber) throws IOException;
+
+	/**写入一个字符串单元格，cellNumber从0开始*/
+	void writeString(int cellNumber, String value) throws IOException;
+
+	/**写入一个整数数值单元格*/
+	void writeNumber(int cellNumber, long value) throws IOException;
+
+	/**写入一个浮点数值单元格*/
+	void writeNumber(int cellNumber, double value) throws IOException;
+
+	/**写入一个高精度数值单元格，文件中保存精确值（不转换成double）*/
+	void writeNumber(int cellNumber, BigDecimal value) throws IOException;
+
+	/**写入一个日期单元格，列通过setColumnStyles设置了格式时使用列的格式，否则为yyyy-mm-dd hh:mm:ss*/
+	void writeDate(int cellNumber, Date value) throws IOException;
+
+	/**写入一个布尔单元格*/
+	void writeBoolean(int cellNumber, boolean value) throws IOException;
+
+	/**结束当前行*/
+	void endRow() throws IOException;
+
+	/**把已写入的行尽快输出到out，不支持边写边输出的实现可以什么都不做*/
+	void flush() throws IOException;
+
+	/**全部数据写入完成，输出剩余的内容*/
+	void finish() throws IOException;
+
+}
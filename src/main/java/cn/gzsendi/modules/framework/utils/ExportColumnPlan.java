@@ -0,0 +1,114 @@
+package cn.gzsendi.modules.framework.utils;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.List;
+
+import cn.gzsendi.modules.framework.reflect.Reflector;
+import cn.gzsendi.modules.framework.reflect.reflectasm.MethodAccessor;
+
+/**
+ * 导出列的取值计划.
+ *
+ * <pre>
+ * 每个单元格都通过fieldName调用{@link MethodAccessor#getFieldValue(Object, String)}取值时，
+ * 需要拼接"className.getXxx"字符串再查一次HashMap，百万行导出会产生大量的临时字符串。
+ * 这里在导出开始时（每种行数据的Class一次）把fieldArray解析成getter方法的索引数组，
+ * 之后每个单元格直接调用{@link MethodAccessor#invoke(Object, int, Object...)}。
+ *
+ * 同时根据getter的返回值类型确定每一列的单元格类型，数值、日期、布尔写成对应类型的单元格，
+ * 不再统一toString()成字符串。
+ * </pre>
+ */
+public class ExportColumnPlan {
+
+	//fieldName没有对应的getter方法
+	public static final int NO_GETTER = -1;
+
+	/**单元格类型*/
+	public enum CellType {
+		STRING, INTEGER, DOUBLE, DECIMAL, DATE, BOOLEAN,
+		/**声明类型不确定（如Object、Number、Map的值），写入时按值的实际类型判断*/
+		AUTO
+	}
+
+	private final Class<?> rowClass;
+	private final MethodAccessor methodAccessor;
+	private final int[] getterIndexes;
+	private final CellType[] cellTypes;
+
+	public ExportColumnPlan(Class<?> rowClass, List<String> fieldArray) {
+
+		this.rowClass = rowClass;
+		this.methodAccessor = Reflector.getMethodAccessor(rowClass);
+		this.getterIndexes = new int[fieldArray.size()];
+		this.cellTypes = new CellType[fieldArray.size()];
+		for (int i = 0; i < getterIndexes.length; i++) {
+			Integer getterIndex = methodAccessor.getterIndex(fieldArray.get(i));
+			getterIndexes[i] = getterIndex == null ? NO_GETTER : getterIndex;
+			cellTypes[i] = getterIndex == null ? CellType.STRING : cellTypeOf(methodAccessor.getReturnTypes(getterIndex));
+		}
+
+	}
+
+	/**当前计划是否适用于这个行数据*/
+	public boolean isFor(Class<?> clazz) {
+		return rowClass == clazz;
+	}
+
+	/**获取行数据第cellNumber列的值*/
+	public Object getValue(Object aRowData, int cellNumber) {
+		int getterIndex = getterIndexes[cellNumber];
+		if (getterIndex == NO_GETTER) {
+			return null;
+		}
+		return methodAccessor.invoke(aRowData, getterIndex);
+	}
+
+	/**获取第cellNumber列的单元格类型*/
+	public CellType getCellType(int cellNumber) {
+		return cellTypes[cellNumber];
+	}
+
+	/**根据Java类型确定单元格类型*/
+	public static CellType cellTypeOf(Class<?> type) {
+		if (type == int.class || type == long.class || type == short.class || type == byte.class
+				|| type == Integer.class || type == Long.class || type == Short.class || type == Byte.class) {
+			return CellType.INTEGER;
+		}
+		if (type == double.class || type == float.class || type == Double.class || type == Float.class) {
+			return CellType.DOUBLE;
+		}
+		if (type == BigDecimal.class || type == BigInteger.class) {
+			return CellType.DECIMAL;
+		}
+		if (type == boolean.class || type == Boolean.class) {
+			return CellType.BOOLEAN;
+		}
+		if (Date.class.isAssignableFrom(type)) {
+			return CellType.DATE;
+		}
+		if (type == Object.class || type == Number.class || type == Comparable.class || type == java.io.Serializable.class) {
+			return CellType.AUTO;
+		}
+		return CellType.STRING;
+	}
+
+	public Class<?> getRowClass() {
+		return rowClass;
+	}
+
+	public MethodAccessor getMethodAccessor() {
+		return methodAccessor;
+	}
+
+	public int getGetterIndex(int cellNumber) {
+		return getterIndexes[cellNumber];
+	}
+
+	public int size() {
+		return getterIndexes.length;
+	}
+
+}
@@ -0,0 +1,32 @@
+package cn.gzsendi.modules.framework.utils;
+
+import java.util.zip.Deflater;
+
+/**
+ * 导出文件的压缩级别，用cpu换带宽.
+ */
+public enum ExportCompression {
+
+	/**不压缩，只打包，cpu占用最低*/
+	STORE(Deflater.NO_COMPRESSION),
+
+	/**最快压缩*/
+	FAST(Deflater.BEST_SPEED),
+
+	/**zlib默认级别*/
+	DEFAULT(Deflater.DEFAULT_COMPRESSION),
+
+	/**最高压缩率，文件最小*/
+	BEST(Deflater.BEST_COMPRESSION);
+
+	private final int level;
+
+	ExportCompression(int level) {
+		this.level = level;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+}
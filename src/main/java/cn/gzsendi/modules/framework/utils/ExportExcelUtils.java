@@ -68,6 +68,7 @@ public abstract class ExportExcelUtils {
 		HttpServletResponse response = ContextHolderUtils.getResponse();
 		
 		ZipOutputStream zos = null;
+		SXSSFWorkbook wb = null;
 		
 		try {
 			
@@ -83,7 +84,7 @@ public abstract class ExportExcelUtils {
 			ZipEntry zipEntry = new ZipEntry(new String((exportFileName+".xlsx").replaceAll(" ", "")));
 			zos.putNextEntry(zipEntry);
 			
-			SXSSFWorkbook wb = new SXSSFWorkbook();//默认100行，超100行将写入临时文件
+			wb = new SXSSFWorkbook();//默认100行，超100行将写入临时文件
 			wb.setCompressTempFiles(false); //是否压缩临时文件，否则写入速度更快，但更占磁盘，但程序最后是会将临时文件删掉的
             sheet = wb.createSheet("Sheet 1");
 			
@@ -107,12 +108,6 @@ public abstract class ExportExcelUtils {
 	        //Write excel to a file
 	        wb.write(zos);
 	        
-	        if (wb != null) {
-            	wb.dispose();// 删除临时文件，很重要，否则磁盘可能会被写满
-            }
-	        
-	        wb.close();
-	        
 		    /****************************/
 	  		
 	  		logger.info("--------->>>>全部数据写入Excel完成.." );
@@ -123,6 +118,15 @@ public abstract class ExportExcelUtils {
 			
 		} finally {
 			
+			//出错（如客户端断开）时也要删除临时文件，很重要，否则磁盘可能会被写满
+			if (wb != null) {
+				try {
+					wb.dispose();
+				} finally {
+					try {wb.close();} catch (IOException e1) {logger.error("error",e1);	}
+				}
+			}
+			
 			//关闭资源
 	    	try {if(zos!=null) zos.close();} catch (IOException e1) {logger.error("error",e1);	}
 	    	  
@@ -0,0 +1,17 @@
+package cn.gzsendi.modules.framework.utils;
+
+/**
+ * 导出时从数据库读取数据的方式.
+ */
+public enum ExportFetchStrategy {
+
+	/**MySQL流式查询（fetchSize为Integer.MIN_VALUE），一条sql读完全部数据，导出期间一直占用连接*/
+	STREAM,
+
+	/**MySQL服务端游标（查询期间连接开启useCursorFetch，fetchSize大于0），驱动每次读取fetchSize行，见{@link cn.gzsendi.config.mybatis.CursorFetchInterceptor}*/
+	CURSOR,
+
+	/**按主键分页（where id > ? order by id limit n），每页一条sql，页之间归还连接，见{@link KeysetPager}*/
+	KEYSET;
+
+}
@@ -0,0 +1,66 @@
+package cn.gzsendi.modules.framework.utils;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import cn.gzsendi.modules.framework.reflect.Reflector;
+import cn.gzsendi.modules.framework.reflect.reflectasm.MethodAccessor;
+
+/**
+ * 按导出的字段生成select的列.
+ *
+ * <pre>
+ * 导出的sql不再固定查询所有列，只查询需要导出的字段，宽表可以大幅减少网络传输和结果映射的开销。
+ * 字段必须是model的属性（在{@link MethodAccessor#getFieldNames()}中，并且有setter供mybatis映射），
+ * 列名按驼峰转下划线得到，与mapUnderscoreToCamelCase的映射规则对应。
+ * 只有校验通过的列名才会拼进sql（mapper中使用${columns}），不存在sql注入的问题。
+ * </pre>
+ */
+public final class ExportProjection {
+
+	//java属性名，校验通过的才能作为列名
+	private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+	private ExportProjection() {
+	}
+
+	/**
+	 * 生成select的列，如`username`,`age`.
+	 *
+	 * @param modelClass 查询结果映射的model
+	 * @param fields 导出的字段
+	 * @throws IllegalArgumentException 字段为空或不是model的属性
+	 */
+	public static String selectColumns(Class<?> modelClass, List<String> fields) {
+
+		if (fields == null || fields.isEmpty()) {
+			throw new IllegalArgumentException("export fields must not be empty");
+		}
+
+		MethodAccessor methodAccessor = Reflector.getMethodAccessor(modelClass);
+		Set<String> properties = new HashSet<String>(Arrays.asList(methodAccessor.getFieldNames()));
+
+		StringBuilder columns = new StringBuilder();
+		Set<String> selected = new HashSet<String>();
+		for (String field : fields) {
+			if (field == null || !IDENTIFIER.matcher(field).matches() || !properties.contains(field)
+					|| methodAccessor.setterIndex(field) == null) {
+				throw new IllegalArgumentException("unknown export field: " + field);
+			}
+			//同一个字段导出多列时只查询一次
+			if (!selected.add(field)) {
+				continue;
+			}
+			if (columns.length() > 0) {
+				columns.append(',');
+			}
+			columns.append('`').append(ParameterUtils.camelCaseToSnakeCase(field)).append('`');
+		}
+		return columns.toString();
+
+	}
+
+}
@@ -0,0 +1,268 @@
+package cn.gzsendi.modules.framework.utils;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import cn.gzsendi.modules.framework.annotation.ExcelColumn;
+import cn.gzsendi.modules.framework.reflect.Reflector;
+import cn.gzsendi.modules.framework.reflect.reflectasm.ExcelRowWriter;
+import cn.gzsendi.modules.framework.reflect.reflectasm.MethodAccessor;
+
+/**
+ * 导入列的赋值计划，与{@link ExportColumnPlan}对应.
+ *
+ * <pre>
+ * 按表头行把每一列解析成model的setter方法索引和目标类型，之后每个单元格直接调用{@link MethodAccessor#invoke(Object, int, Object...)}，
+ * 不再按字段名查找setter。
+ * 表头可以是{@link ExcelColumn}注解的header（导出的文件可以直接导入），也可以是字段名，不认识的列忽略。
+ * 单元格的值为{@link XlsxStreamReader}读出的原始文本，按setter的参数类型转换。
+ * </pre>
+ */
+public class ImportColumnPlan {
+
+	//列没有对应的setter方法
+	public static final int NO_SETTER = -1;
+
+	//excel日期序列号的起点，1900日期系统从1899-12-30算起（excel把1900年当成闰年，1900-03-01之前的日期不考虑）
+	private static final LocalDateTime EPOCH_1900 = LocalDateTime.of(1899, 12, 30, 0, 0);
+	private static final LocalDateTime EPOCH_1904 = LocalDateTime.of(1904, 1, 1, 0, 0);
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	//数值转换成普通写法或整数时小数点前后最多的位数，double最大约1.8E308、最小约4.9E-324，
+	//异常文件中的1E999999999直接toPlainString或toBigInteger会生成上亿位数字
+	static final int MAX_NUMBER_SCALE = 400;
+
+	/**setter的参数类型*/
+	private enum ValueType {
+		STRING, INT, LONG, SHORT, BYTE, DOUBLE, FLOAT, DECIMAL, BIG_INTEGER, BOOLEAN, DATE
+	}
+
+	private final Class<?> rowClass;
+	private final MethodAccessor methodAccessor;
+	private final String[] headers;
+	private final int[] setterIndexes;
+	private final ValueType[] valueTypes;
+	private final LocalDateTime dateEpoch;
+	private final int mappedColumns;
+
+	//文本日期的格式，与导出csv的格式一致
+	private final SimpleDateFormat dateTimeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+
+	/**
+	 * @param rowClass 导入的model，需要有public的无参构造函数
+	 * @param headerCells 表头行
+	 * @param headerCount 表头的列数
+	 * @param date1904 日期序列号是否以1904-01-01为起点
+	 */
+	public ImportColumnPlan(Class<?> rowClass, String[] headerCells, int headerCount, boolean date1904) {
+
+		this.rowClass = rowClass;
+		this.methodAccessor = Reflector.getMethodAccessor(rowClass);
+		this.dateEpoch = date1904 ? EPOCH_1904 : EPOCH_1900;
+
+		Map<String, String> headerToField = headerToField(rowClass, methodAccessor);
+		this.headers = new String[headerCount];
+		this.setterIndexes = new int[headerCount];
+		this.valueTypes = new ValueType[headerCount];
+		int mapped = 0;
+		for (int i = 0; i < headerCount; i++) {
+			String header = headerCells[i] == null ? null : headerCells[i].trim();
+			headers[i] = header;
+			String field = header == null ? null : headerToField.get(header);
+			Integer setterIndex = field == null ? null : methodAccessor.setterIndex(field);
+			ValueType valueType = setterIndex == null ? null : valueTypeOf(methodAccessor.getParameterTypes(setterIndex)[0]);
+			if (valueType == null) {
+				setterIndexes[i] = NO_SETTER;
+				continue;
+			}
+			setterIndexes[i] = setterIndex;
+			valueTypes[i] = valueType;
+			mapped++;
+		}
+		this.mappedColumns = mapped;
+
+	}
+
+	//@ExcelColumn的header和字段名都可以作为表头
+	private static Map<String, String> headerToField(Class<?> rowClass, MethodAccessor methodAccessor) {
+
+		Map<String, String> headerToField = new HashMap<String, String>();
+		for (String fieldName : methodAccessor.getFieldNames()) {
+			headerToField.put(fieldName, fieldName);
+		}
+		if (hasExcelColumn(rowClass)) {
+			ExcelRowWriter rowWriter = Reflector.getExcelRowWriter(rowClass);
+			String[] headers = rowWriter.getHeaders();
+			String[] fieldNames = rowWriter.getFieldNames();
+			for (int i = 0; i < headers.length; i++) {
+				headerToField.put(headers[i], fieldNames[i]);
+			}
+		}
+		return headerToField;
+
+	}
+
+	private static boolean hasExcelColumn(Class<?> rowClass) {
+		for (Class<?> clazz = rowClass; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+			for (Field field : clazz.getDeclaredFields()) {
+				if (field.isAnnotationPresent(ExcelColumn.class)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static ValueType valueTypeOf(Class<?> type) {
+		if (type == String.class) {
+			return ValueType.STRING;
+		}
+		if (type == int.class || type == Integer.class) {
+			return ValueType.INT;
+		}
+		if (type == long.class || type == Long.class) {
+			return ValueType.LONG;
+		}
+		if (type == short.class || type == Short.class) {
+			return ValueType.SHORT;
+		}
+		if (type == byte.class || type == Byte.class) {
+			return ValueType.BYTE;
+		}
+		if (type == double.class || type == Double.class) {
+			return ValueType.DOUBLE;
+		}
+		if (type == float.class || type == Float.class) {
+			return ValueType.FLOAT;
+		}
+		if (type == BigDecimal.class) {
+			return ValueType.DECIMAL;
+		}
+		if (type == BigInteger.class) {
+			return ValueType.BIG_INTEGER;
+		}
+		if (type == boolean.class || type == Boolean.class) {
+			return ValueType.BOOLEAN;
+		}
+		if (type == Date.class) {
+			return ValueType.DATE;
+		}
+		//不支持的类型不导入
+		return null;
+	}
+
+	/**对应到model属性的列数*/
+	public int getMappedColumns() {
+		return mappedColumns;
+	}
+
+	/**
+	 * 把一行数据转换成model，整行都是空单元格时返回null.
+	 *
+	 * @throws IllegalArgumentException 单元格的值不能转换成属性的类型
+	 */
+	public Object newRow(int rowNumber, String[] cells, int cellCount) {
+
+		Object row = null;
+		int count = Math.min(cellCount, setterIndexes.length);
+		for (int i = 0; i < count; i++) {
+			String text = cells[i];
+			if (setterIndexes[i] == NO_SETTER || text == null || text.isEmpty()) {
+				continue;
+			}
+			Object value;
+			try {
+				value = convert(valueTypes[i], text);
+			} catch (RuntimeException | ParseException e) {
+				throw new IllegalArgumentException("invalid value '" + text + "' at row " + rowNumber + ", column " + headers[i], e);
+			}
+			if (row == null) {
+				row = Reflector.newTarget(rowClass);
+			}
+			methodAccessor.invoke(row, setterIndexes[i], value);
+		}
+		return row;
+
+	}
+
+	private Object convert(ValueType valueType, String text) throws ParseException {
+
+		switch (valueType) {
+			case INT:
+				return Math.toIntExact(parseLong(text.trim()));
+			case LONG:
+				return parseLong(text.trim());
+			case SHORT:
+				return parseDecimal(text.trim()).shortValueExact();
+			case BYTE:
+				return parseDecimal(text.trim()).byteValueExact();
+			case DOUBLE:
+				return Double.parseDouble(text.trim());
+			case FLOAT:
+				return Float.parseFloat(text.trim());
+			case DECIMAL:
+				return parseDecimal(text.trim());
+			case BIG_INTEGER:
+				return parseDecimal(text.trim()).toBigIntegerExact();
+			case BOOLEAN:
+				return parseBoolean(text.trim());
+			case DATE:
+				return parseDate(text.trim());
+			default:
+				return text;
+		}
+
+	}
+
+	//整数单元格多数是不带小数点的数字，直接解析，不创建BigDecimal
+	private static long parseLong(String text) {
+		try {
+			return Long.parseLong(text);
+		} catch (NumberFormatException e) {
+			//25.0、2.5E1等写法
+			return parseDecimal(text).longValueExact();
+		}
+	}
+
+	//写入数据库时驱动按普通写法输出BigDecimal，指数超出范围的直接报错
+	private static BigDecimal parseDecimal(String text) {
+		BigDecimal number = new BigDecimal(text);
+		if (Math.abs(number.scale()) > MAX_NUMBER_SCALE) {
+			throw new ArithmeticException("number out of range");
+		}
+		return number;
+	}
+
+	private static Boolean parseBoolean(String text) {
+		if ("TRUE".equalsIgnoreCase(text) || "1".equals(text) || "是".equals(text)) {
+			return Boolean.TRUE;
+		}
+		if ("FALSE".equalsIgnoreCase(text) || "0".equals(text) || "否".equals(text)) {
+			return Boolean.FALSE;
+		}
+		throw new IllegalArgumentException("not a boolean");
+	}
+
+	//日期单元格为序列号（整数部分为天数，小数部分为一天中的时间），文本的日期按yyyy-MM-dd HH:mm:ss或yyyy-MM-dd解析
+	private Date parseDate(String text) throws ParseException {
+
+		if (!text.isEmpty() && (Character.isDigit(text.charAt(0)) && text.indexOf('-') < 0 && text.indexOf('/') < 0)) {
+			double serial = Double.parseDouble(text);
+			long millis = Math.round(serial * MILLIS_PER_DAY);
+			LocalDateTime dateTime = dateEpoch.plusNanos(millis * 1000000L);
+			return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+		}
+		return text.length() > 10 ? dateTimeFormat.parse(text) : dateFormat.parse(text);
+
+	}
+
+}
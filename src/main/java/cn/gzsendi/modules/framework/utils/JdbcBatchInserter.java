@@ -0,0 +1,175 @@
+package cn.gzsendi.modules.framework.utils;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 使用MyBatis的BATCH执行器批量写入，批大小由{@link AdaptiveBatchSizer}按实测耗时调整.
+ *
+ * <pre>
+ * foreach拼接的batchInsert每一批都是一条新的sql（参数个数不同），每次都要重新生成和解析。
+ * 这里每行调用同一条单行insert语句，BATCH执行器对连续相同的语句只prepare一次，行参数通过addBatch累积，
+ * flushStatements时executeBatch一次发送。jdbc url开启rewriteBatchedStatements=true后，
+ * 驱动把一批单行insert改写成多values的insert，并按max_allowed_packet自动拆分。
+ *
+ * 开始前查询一次max_allowed_packet并用select 1测量往返时间，每批写入后按耗时调整下一批的大小，
+ * 一批的估算字节数达到max_allowed_packet的3/4时也会提前写入。
+ * 每一批单独提交，出错时回滚当前批次并抛出异常，之前的批次已经写入，见{@link #getRows()}。
+ * </pre>
+ */
+public class JdbcBatchInserter<T> {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	//测量往返时间时select 1的次数，取最小值
+	private static final int PING_TIMES = 3;
+
+	//估算行字节数时每个值的固定开销（引号、逗号）和数字的长度
+	private static final int VALUE_OVERHEAD_BYTES = 3;
+	private static final int NUMBER_BYTES = 20;
+
+	private final SqlSessionFactory sqlSessionFactory;
+	private final String statement;
+	private final ExportColumnPlan columnPlan;
+	private final AdaptiveBatchSizer batchSizer;
+
+	private long rows = 0;
+	private int batches = 0;
+
+	/**
+	 * @param sqlSessionFactory 写入使用的SqlSessionFactory
+	 * @param statement 单行insert语句的id，如UserMapper.class.getName() + ".insert"
+	 * @param rowClass 行数据的Class
+	 * @param fieldArray 写入的字段，只用于估算每行的字节数
+	 * @param batchSizer 批大小
+	 */
+	public JdbcBatchInserter(SqlSessionFactory sqlSessionFactory, String statement, Class<T> rowClass, List<String> fieldArray,
+			AdaptiveBatchSizer batchSizer) {
+		this.sqlSessionFactory = sqlSessionFactory;
+		this.statement = statement;
+		this.columnPlan = new ExportColumnPlan(rowClass, fieldArray);
+		this.batchSizer = batchSizer;
+	}
+
+	/**已写入的行数*/
+	public long getRows() {
+		return rows;
+	}
+
+	/**已写入的批数*/
+	public int getBatches() {
+		return batches;
+	}
+
+	/**写入list中的数据，返回写入的行数*/
+	public long insert(List<? extends T> list) {
+		return insert(list.iterator());
+	}
+
+	/**写入rows中的数据，逐行读取，返回写入的行数*/
+	public long insert(Iterator<? extends T> source) {
+
+		long inserted = 0;
+		SqlSession session = sqlSessionFactory.openSession(ExecutorType.BATCH, false);
+		try {
+
+			probe(session.getConnection());
+
+			int pending = 0;
+			long pendingBytes = 0;
+			while (source.hasNext()) {
+				T row = source.next();
+				session.insert(statement, row);
+				pending++;
+				pendingBytes += estimateBytes(row);
+				if (pending >= batchSizer.getBatchSize() || batchSizer.isPacketFull(pendingBytes)) {
+					flush(session, pending, pendingBytes);
+					inserted += pending;
+					pending = 0;
+					pendingBytes = 0;
+				}
+			}
+			//最后不满一批的数据
+			if (pending > 0) {
+				flush(session, pending, pendingBytes);
+				inserted += pending;
+			}
+
+		} catch (RuntimeException e) {
+			session.rollback(true);
+			logger.warn("--------->>>> batch insert failed, inserted {} rows", rows);
+			throw e;
+		} finally {
+			session.close();
+		}
+		logger.info("--------->>>> batch insert {} rows, {} batches, last batch size {}", inserted, batches, batchSizer.getBatchSize());
+		return inserted;
+
+	}
+
+	private void flush(SqlSession session, int pending, long pendingBytes) {
+
+		long start = System.nanoTime();
+		//commit会先flushStatements，executeBatch发送这一批
+		session.commit(true);
+		batchSizer.record(pending, pendingBytes, System.nanoTime() - start);
+		rows += pending;
+		batches++;
+
+	}
+
+	//查询max_allowed_packet，并用select 1测量往返时间
+	private void probe(Connection connection) {
+
+		try (Statement probe = connection.createStatement()) {
+			try (ResultSet resultSet = probe.executeQuery("select @@max_allowed_packet")) {
+				if (resultSet.next()) {
+					batchSizer.setMaxPacketBytes(resultSet.getLong(1));
+				}
+			}
+			long roundTrip = Long.MAX_VALUE;
+			for (int i = 0; i < PING_TIMES; i++) {
+				long start = System.nanoTime();
+				try (ResultSet resultSet = probe.executeQuery("select 1")) {
+					resultSet.next();
+				}
+				roundTrip = Math.min(roundTrip, System.nanoTime() - start);
+			}
+			batchSizer.setRoundTripNanos(roundTrip);
+		} catch (SQLException e) {
+			//探测失败不影响写入，按初始批大小写入
+			logger.warn("probe max_allowed_packet and round trip failed: {}", e.getMessage());
+		}
+
+	}
+
+	//按改写后的values估算一行的字节数
+	private long estimateBytes(T row) {
+
+		long bytes = VALUE_OVERHEAD_BYTES;
+		for (int i = 0; i < columnPlan.size(); i++) {
+			Object value = columnPlan.getValue(row, i);
+			if (value == null || value instanceof Number && !(value instanceof BigDecimal) || value instanceof Boolean || value instanceof Date) {
+				bytes += NUMBER_BYTES + VALUE_OVERHEAD_BYTES;
+			} else {
+				//按每个字符3个字节（utf8的中文）估算
+				bytes += value.toString().length() * 3L + VALUE_OVERHEAD_BYTES;
+			}
+		}
+		return bytes;
+
+	}
+
+}
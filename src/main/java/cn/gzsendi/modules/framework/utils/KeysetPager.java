@@ -0,0 +1,99 @@
+package cn.gzsendi.modules.framework.utils;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 按主键分页读取全部数据（keyset分页）.
+ *
+ * <pre>
+ * 流式查询在整个导出期间占用一个连接，MySQL服务端也要一直保持这个结果集，导出慢（客户端网速慢、写excel慢）时连接被长时间占住。
+ * 这里每一页执行一次where id > lastId order by id limit pageSize，按主键索引定位，每一页的开销与翻到第几页无关（不像offset越往后越慢）。
+ * 每一页的查询在事务外执行时各自从连接池借用和归还连接，页与页之间不占用连接，其它请求可以使用。
+ *
+ * 每页读完后记录最后一行的主键作为检查点（{@link #getLastKey()}），出错后可以从检查点继续（{@link #setStartAfter(Long)}）。
+ * 注意各页不是同一个快照，导出期间新插入的主键更大的数据也会被导出。
+ * </pre>
+ */
+public class KeysetPager<T> {
+
+	private static final Logger logger = LoggerFactory.getLogger(KeysetPager.class);
+
+	/**查询主键大于lastKey的前limit行，按主键升序，lastKey为null时从头开始*/
+	public interface PageQuery<T> {
+		List<T> fetchAfter(Long lastKey, int limit);
+	}
+
+	private final PageQuery<T> pageQuery;
+	private final ToLongFunction<? super T> keyExtractor;
+	private final int pageSize;
+
+	//检查点，已读取的最后一行的主键
+	private volatile Long lastKey = null;
+	private long rows = 0;
+	private int pages = 0;
+
+	public KeysetPager(PageQuery<T> pageQuery, ToLongFunction<? super T> keyExtractor, int pageSize) {
+		if (pageSize < 1) {
+			throw new IllegalArgumentException("pageSize must be greater than 0");
+		}
+		this.pageQuery = pageQuery;
+		this.keyExtractor = keyExtractor;
+		this.pageSize = pageSize;
+	}
+
+	/**从主键大于startAfter的数据开始读取，用于从检查点继续*/
+	public void setStartAfter(Long startAfter) {
+		this.lastKey = startAfter;
+	}
+
+	public Long getLastKey() {
+		return lastKey;
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	public int getPages() {
+		return pages;
+	}
+
+	/**逐页读取，每一行交给rowConsumer，一页不满pageSize时结束*/
+	public void fetch(Consumer<? super T> rowConsumer) {
+
+		while (true) {
+
+			List<T> page = pageQuery.fetchAfter(lastKey, pageSize);
+			for (T row : page) {
+				rowConsumer.accept(row);
+			}
+			if (page.isEmpty()) {
+				break;
+			}
+
+			long key = keyExtractor.applyAsLong(page.get(page.size() - 1));
+			if (lastKey != null && key <= lastKey) {
+				//主键没有递增时继续查询会死循环
+				throw new IllegalStateException("keyset page is not ordered by key, last key " + lastKey + ", page last key " + key);
+			}
+			lastKey = key;
+			rows += page.size();
+			pages++;
+			if (logger.isDebugEnabled()) {
+				logger.debug("keyset page {} fetched, rows: {}, checkpoint: {}", pages, rows, lastKey);
+			}
+
+			if (page.size() < pageSize) {
+				break;
+			}
+
+		}
+
+	}
+
+}
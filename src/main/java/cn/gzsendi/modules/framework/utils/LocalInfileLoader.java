@@ -0,0 +1,257 @@
+package cn.gzsendi.modules.framework.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mysql.cj.jdbc.JdbcStatement;
+
+/**
+ * 通过MySQL的LOAD DATA LOCAL INFILE批量写入数据.
+ *
+ * <pre>
+ * batchInsert的foreach每一批都要拼接、解析一条几千个参数的insert语句。
+ * 这里把行数据编码成tab分隔的文本流，通过Connector/J的{@link JdbcStatement#setLocalInfileInputStream(InputStream)}
+ * 作为LOAD DATA LOCAL INFILE的文件内容发给服务端，服务端直接按行解析，没有sql生成和参数绑定的开销。
+ * 文本在服务端读取时才逐行生成，数据源可以是List，也可以是按需生成数据的Iterator，内存占用与行数无关。
+ *
+ * 每rowsPerStatement行执行一条LOAD DATA（单独提交），避免一个事务过大。
+ * 需要使用开启了allowLoadLocalInfile的连接（见DefaultDbConfig的bulkDataSource），MySQL服务端开启local_infile。
+ * 注意LOCAL方式下唯一键冲突和数据转换错误只产生警告并跳过该行，不会报错，跳过的行数见{@link #getSkippedRows()}。
+ * </pre>
+ */
+public class LocalInfileLoader<T> {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	//LOAD DATA的文件名，使用setLocalInfileInputStream时驱动不会读取这个文件
+	private static final String STREAM_FILE_NAME = "stream";
+
+	private final List<String> fieldArray;
+	private final ExportColumnPlan columnPlan;
+	private final String loadSql;
+
+	//每条LOAD DATA语句最多写入的行数
+	private int rowsPerStatement = 100000;
+
+	private long loadedRows = 0;
+	private long skippedRows = 0;
+
+	/**
+	 * @param rowClass 行数据的Class
+	 * @param table 表名
+	 * @param fieldArray 写入的字段，列名按驼峰转下划线得到
+	 */
+	public LocalInfileLoader(Class<T> rowClass, String table, List<String> fieldArray) {
+
+		this.fieldArray = fieldArray;
+		this.columnPlan = new ExportColumnPlan(rowClass, fieldArray);
+		for (int i = 0; i < columnPlan.size(); i++) {
+			if (columnPlan.getGetterIndex(i) == ExportColumnPlan.NO_GETTER) {
+				throw new IllegalArgumentException("no getter for field: " + fieldArray.get(i));
+			}
+		}
+
+		StringBuilder columns = new StringBuilder();
+		for (String field : fieldArray) {
+			if (columns.length() > 0) {
+				columns.append(',');
+			}
+			columns.append('`').append(ParameterUtils.camelCaseToSnakeCase(field)).append('`');
+		}
+		this.loadSql = "LOAD DATA LOCAL INFILE '" + STREAM_FILE_NAME + "' INTO TABLE `" + table + "` CHARACTER SET utf8mb4"
+				+ " FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n' (" + columns + ")";
+
+	}
+
+	public int getRowsPerStatement() {
+		return rowsPerStatement;
+	}
+
+	public void setRowsPerStatement(int rowsPerStatement) {
+		if (rowsPerStatement < 1) {
+			throw new IllegalArgumentException("rowsPerStatement must be greater than 0");
+		}
+		this.rowsPerStatement = rowsPerStatement;
+	}
+
+	/**已写入的行数*/
+	public long getLoadedRows() {
+		return loadedRows;
+	}
+
+	/**因唯一键冲突或数据错误被服务端跳过的行数*/
+	public long getSkippedRows() {
+		return skippedRows;
+	}
+
+	/**写入list中的数据，返回写入的行数*/
+	public long load(Connection connection, List<? extends T> rows) throws SQLException {
+		return load(connection, rows.iterator());
+	}
+
+	/**写入rows中的数据，Iterator在发送时才逐行读取，返回写入的行数*/
+	public long load(Connection connection, Iterator<? extends T> rows) throws SQLException {
+
+		long loaded = 0;
+		while (rows.hasNext()) {
+
+			RowInputStream in = new RowInputStream(rows);
+			try (Statement statement = connection.createStatement()) {
+				statement.unwrap(JdbcStatement.class).setLocalInfileInputStream(in);
+				int count;
+				try {
+					count = statement.executeUpdate(loadSql);
+				} catch (SQLException e) {
+					//编码出错时驱动报的是读取流失败，抛出原始异常，驱动的异常作为suppressed
+					if (in.failure != null) {
+						SQLException failure = new SQLException("failed to encode rows for LOAD DATA", in.failure);
+						failure.addSuppressed(e);
+						throw failure;
+					}
+					throw e;
+				}
+				loaded += count;
+				loadedRows += count;
+				skippedRows += in.rowsRead - count;
+			}
+			if (in.failure != null) {
+				//驱动读取流出错时已经发送的行会被写入，这里把原始异常抛出
+				throw new SQLException("failed to encode rows for LOAD DATA", in.failure);
+			}
+			logger.info("--------->>>> load data {} rows, total {}", in.rowsRead, loadedRows);
+
+		}
+		return loaded;
+
+	}
+
+	/**
+	 * 按需把行数据编码成LOAD DATA的文本，每行以\n结尾，字段以\t分隔，null为\N.
+	 * 读到rowsPerStatement行或rows结束时返回-1.
+	 */
+	private class RowInputStream extends InputStream {
+
+		private final Iterator<? extends T> source;
+		private final StringBuilder line = new StringBuilder();
+		private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+		private byte[] bytes = new byte[0];
+		private int position = 0;
+		private long rowsRead = 0;
+		private RuntimeException failure = null;
+
+		private RowInputStream(Iterator<? extends T> source) {
+			this.source = source;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+
+			if (len == 0) {
+				return 0;
+			}
+			int total = 0;
+			while (total < len) {
+				if (position == bytes.length && !nextRow()) {
+					break;
+				}
+				int n = Math.min(len - total, bytes.length - position);
+				System.arraycopy(bytes, position, b, off + total, n);
+				position += n;
+				total += n;
+			}
+			return total == 0 ? -1 : total;
+
+		}
+
+		private boolean nextRow() throws IOException {
+
+			if (rowsRead >= rowsPerStatement || !source.hasNext()) {
+				return false;
+			}
+			try {
+				encode(source.next());
+			} catch (RuntimeException e) {
+				failure = e;
+				throw new IOException("failed to encode row", e);
+			}
+			rowsRead++;
+			return true;
+
+		}
+
+		private void encode(T row) {
+
+			line.setLength(0);
+			for (int i = 0; i < fieldArray.size(); i++) {
+				if (i > 0) {
+					line.append('\t');
+				}
+				Object value = columnPlan.getValue(row, i);
+				if (value == null) {
+					line.append("\\N");
+				} else if (value instanceof Date) {
+					line.append(dateFormat.format((Date) value));
+				} else if (value instanceof Boolean) {
+					line.append(((Boolean) value) ? '1' : '0');
+				} else if (value instanceof BigDecimal) {
+					line.append(((BigDecimal) value).toPlainString());
+				} else if (value instanceof Number) {
+					line.append(value.toString());
+				} else {
+					escape(value.toString());
+				}
+			}
+			line.append('\n');
+			bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+			position = 0;
+
+		}
+
+		//ESCAPED BY '\\'：反斜杠、分隔符、换行和NUL需要转义
+		private void escape(String text) {
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				switch (c) {
+					case '\\':
+						line.append("\\\\");
+						break;
+					case '\t':
+						line.append("\\t");
+						break;
+					case '\n':
+						line.append("\\n");
+						break;
+					case '\r':
+						line.append("\\r");
+						break;
+					case '\0':
+						line.append("\\0");
+						break;
+					default:
+						line.append(c);
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,32 @@
+package cn.gzsendi.modules.framework.utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * close时只flush不关闭被包装流的输出流.
+ *
+ * <pre>
+ * 用于在外层输出流上套一层zip等包装流，包装流关闭（释放Deflater等资源）时，
+ * 外层输出流还需要继续写入或者由调用方负责关闭的场景。
+ * </pre>
+ */
+public class NonClosingOutputStream extends FilterOutputStream {
+
+	public NonClosingOutputStream(OutputStream out) {
+		super(out);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		//FilterOutputStream默认逐个字节写入，这里直接批量写入
+		out.write(b, off, len);
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+	}
+
+}
@@ -0,0 +1,285 @@
+package cn.gzsendi.modules.framework.utils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 多连接并行批量写入.
+ *
+ * <pre>
+ * 调用线程作为生产者逐行读取数据，每凑满batchSize行放进有界队列，writers个写入线程从队列取出并调用batchWriter
+ * （如mapper的batchInsert，每次调用从连接池取一个连接），多个批次在不同连接上同时写入。
+ * 队列最多放queueBatches批，写入跟不上时生产者阻塞，内存中最多只有queueBatches+writers+1批数据。
+ * 数据读完后最后不满一批的数据一定会作为最后一批写入。
+ *
+ * 批次按读取顺序编号，写入线程完成的顺序不固定，{@link #getOrderedRows()}只统计编号连续完成的批次，
+ * 即前多少行已经全部写入，出错后可以从这里重新开始。进度日志也按这个顺序输出。
+ * 任何一批出错后不再写入新的批次，已经在写的批次写完后把最先出现的异常抛给调用方。
+ * </pre>
+ */
+public class ParallelBatchWriter<T> {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private static final AtomicInteger WRITER_THREAD_NUMBER = new AtomicInteger(0);
+
+	//写入线程等待队列的间隔，期间检查是否结束或出错
+	private static final long POLL_MILLIS = 100;
+
+	//每完成多少批按顺序输出一次进度
+	private static final int LOG_EVERY_BATCHES = 50;
+
+	private final Consumer<List<T>> batchWriter;
+
+	//写入线程数，每个线程同时占用一个数据库连接
+	private int writers = 4;
+
+	//每批写入的行数
+	private int batchSize = 2000;
+
+	//读取和写入之间最多缓冲的批数
+	private int queueBatches = 8;
+
+	private volatile boolean producing;
+	private volatile Throwable failure;
+
+	private long rows = 0;
+	private int batches = 0;
+	private long spendMs = 0;
+
+	//nextBatch之前的批次都已写入，completed为已完成、但前面还有批次未完成的批次编号和行数
+	private final TreeMap<Integer, Integer> completed = new TreeMap<Integer, Integer>();
+	private int nextBatch = 0;
+	private long orderedRows = 0;
+
+	private AtomicLongArray writerRows;
+
+	/**
+	 * @param batchWriter 在写入线程中调用，把一批数据写入数据库，需要是线程安全的
+	 */
+	public ParallelBatchWriter(Consumer<List<T>> batchWriter) {
+		this.batchWriter = batchWriter;
+	}
+
+	public int getWriters() {
+		return writers;
+	}
+
+	public void setWriters(int writers) {
+		if (writers < 1) {
+			throw new IllegalArgumentException("writers must be greater than 0");
+		}
+		this.writers = writers;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be greater than 0");
+		}
+		this.batchSize = batchSize;
+	}
+
+	public int getQueueBatches() {
+		return queueBatches;
+	}
+
+	public void setQueueBatches(int queueBatches) {
+		if (queueBatches < 1) {
+			throw new IllegalArgumentException("queueBatches must be greater than 0");
+		}
+		this.queueBatches = queueBatches;
+	}
+
+	/**已写入的行数（包括前面还有未完成批次的）*/
+	public synchronized long getRows() {
+		return rows;
+	}
+
+	/**按读取顺序连续写入的行数，即前多少行已经全部写入*/
+	public synchronized long getOrderedRows() {
+		return orderedRows;
+	}
+
+	/**
+	 * 写入rows中的数据，返回统计信息：rows、batches、writers、spendMs、rowsPerSecond、writerRows（每个写入线程的行数）.
+	 */
+	public Map<String, Object> write(Iterator<? extends T> source) {
+
+		logger.info("--------->>>>并行写入开始，{}个写入线程..", writers);
+		long start = System.currentTimeMillis();
+
+		final BlockingQueue<Batch<T>> queue = new ArrayBlockingQueue<Batch<T>>(queueBatches);
+		writerRows = new AtomicLongArray(writers);
+		producing = true;
+
+		List<Thread> writerThreads = new ArrayList<Thread>(writers);
+		for (int i = 0; i < writers; i++) {
+			final int writerIndex = i;
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					writeBatches(queue, writerIndex);
+				}
+			}, "insert-writer-" + WRITER_THREAD_NUMBER.incrementAndGet());
+			thread.start();
+			writerThreads.add(thread);
+		}
+
+		try {
+
+			int sequence = 0;
+			List<T> batch = new ArrayList<T>(batchSize);
+			while (failure == null && source.hasNext()) {
+				batch.add(source.next());
+				if (batch.size() >= batchSize) {
+					put(queue, new Batch<T>(sequence++, batch));
+					batch = new ArrayList<T>(batchSize);
+				}
+			}
+			//最后不满一批的数据
+			if (!batch.isEmpty()) {
+				put(queue, new Batch<T>(sequence, batch));
+			}
+
+		} catch (Throwable e) {
+			fail(e);
+		} finally {
+
+			//写入线程写完队列中剩余的批次后退出，出错时直接退出
+			producing = false;
+			boolean interrupted = false;
+			for (Thread thread : writerThreads) {
+				while (thread.isAlive()) {
+					try {
+						thread.join();
+					} catch (InterruptedException e) {
+						interrupted = true;
+						fail(e);
+					}
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+
+		}
+
+		synchronized (this) {
+			spendMs = System.currentTimeMillis() - start;
+		}
+		if (failure != null) {
+			logger.warn("--------->>>>并行写入失败，已写入{}行，前{}行已全部写入", getRows(), getOrderedRows());
+			if (failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			}
+			if (failure instanceof Error) {
+				throw (Error) failure;
+			}
+			throw new IllegalStateException("parallel batch write failed", failure);
+		}
+
+		Map<String, Object> result = metrics();
+		logger.info("--------->>>>并行写入完成: {}", result);
+		return result;
+
+	}
+
+	private synchronized Map<String, Object> metrics() {
+
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("rows", rows);
+		result.put("batches", batches);
+		result.put("writers", writers);
+		result.put("spendMs", spendMs);
+		result.put("rowsPerSecond", spendMs == 0 ? rows : rows * 1000 / spendMs);
+		List<Long> perWriter = new ArrayList<Long>(writers);
+		for (int i = 0; i < writerRows.length(); i++) {
+			perWriter.add(writerRows.get(i));
+		}
+		result.put("writerRows", perWriter);
+		return result;
+
+	}
+
+	private void writeBatches(BlockingQueue<Batch<T>> queue, int writerIndex) {
+
+		try {
+			while (failure == null) {
+				Batch<T> batch = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (batch == null) {
+					//生产者已结束，并且队列已取完
+					if (!producing && queue.isEmpty()) {
+						return;
+					}
+					continue;
+				}
+				batchWriter.accept(batch.rows);
+				writerRows.addAndGet(writerIndex, batch.rows.size());
+				complete(batch);
+			}
+		} catch (Throwable e) {
+			fail(e);
+		}
+
+	}
+
+	//记录完成的批次，推进按顺序完成的位置
+	private synchronized void complete(Batch<T> batch) {
+
+		rows += batch.rows.size();
+		batches++;
+		completed.put(batch.sequence, batch.rows.size());
+		while (!completed.isEmpty() && completed.firstKey() == nextBatch) {
+			orderedRows += completed.pollFirstEntry().getValue();
+			nextBatch++;
+			if (nextBatch % LOG_EVERY_BATCHES == 0) {
+				logger.info("--------->>>>并行写入进度，前{}批共{}行已写入", nextBatch, orderedRows);
+			}
+		}
+
+	}
+
+	private synchronized void fail(Throwable e) {
+		if (failure == null) {
+			failure = e;
+		}
+	}
+
+	//队列满时等待，写入线程出错后不再等待
+	private void put(BlockingQueue<Batch<T>> queue, Batch<T> batch) throws InterruptedException {
+		while (failure == null) {
+			if (queue.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				return;
+			}
+		}
+	}
+
+	private static class Batch<T> {
+
+		private final int sequence;
+		private final List<T> rows;
+
+		private Batch(int sequence, List<T> rows) {
+			this.sequence = sequence;
+			this.rows = rows;
+		}
+
+	}
+
+}
@@ -0,0 +1,460 @@
+package cn.gzsendi.modules.framework.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * 多线程压缩的zip输出流，用法与{@link java.util.zip.ZipOutputStream}相同.
+ *
+ * <pre>
+ * ZipOutputStream只用一个线程做deflate，大文件导出时一个cpu跑满，其它cpu空闲。
+ * 这里参考pigz的做法：把每个entry的数据切成固定大小的块，由公共的压缩线程池并行压缩，
+ * 每块用前一块的最后32K作为字典（压缩率与单线程基本一致），用SYNC_FLUSH结束以便按字节拼接，
+ * 最后一块用finish结束，再按原来的顺序写入输出流。CRC在写入线程上顺序计算。
+ *
+ * syncFlush为true时（与DeflaterOutputStream相同的含义），flush会把未满的块也压缩并写出，
+ * 用于边导出边输出给客户端，代价是压缩率略有下降。
+ *
+ * entry使用data descriptor（通用标志第3位）在数据之后写入crc和大小，不需要事先知道大小。
+ * 不支持zip64：单个entry或整个文件超过4G、entry超过65535个时直接抛出ZipException。
+ * 非线程安全，一个输出流只能由一个线程写入。
+ * </pre>
+ */
+public class ParallelZipOutputStream extends OutputStream {
+
+	//每块压缩前的大小
+	private static final int BLOCK_SIZE = 128 * 1024;
+
+	//deflate字典的最大长度
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+
+	private static final long ZIP32_LIMIT = 0xFFFFFFFFL;
+	private static final int ZIP32_MAX_ENTRIES = 0xFFFF;
+
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
+	private static final int VERSION_NEEDED = 20;
+	//第3位：crc和大小写在data descriptor中；第11位：文件名为UTF-8
+	private static final int GENERAL_PURPOSE_FLAG = 0x0808;
+	private static final int METHOD_DEFLATED = 8;
+
+	//所有导出共用的压缩线程池，线程数为cpu数，同时导出时总的压缩cpu占用不会超过机器的cpu数
+	private static final ExecutorService DEFLATE_POOL = Executors.newFixedThreadPool(
+			Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				private final AtomicInteger threadNumber = new AtomicInteger(0);
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "zip-deflate-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	//每个输出流最多同时压缩的块数，限制未写出数据占用的内存
+	private static final int MAX_PENDING_BLOCKS = Runtime.getRuntime().availableProcessors() * 2;
+
+	private final OutputStream out;
+	private final int level;
+	private final boolean syncFlush;
+
+	private final List<EntryInfo> entries = new ArrayList<EntryInfo>();
+	private final ArrayDeque<Future<byte[]>> pendingBlocks = new ArrayDeque<Future<byte[]>>();
+	private final CRC32 crc = new CRC32();
+
+	private EntryInfo currentEntry = null;
+	private byte[] block = null;
+	private int blockLength = 0;
+
+	//已提交数据的最后32K，作为下一块的字典
+	private final byte[] dictionary = new byte[DICTIONARY_SIZE];
+	private int dictionaryLength = 0;
+
+	private long written = 0;//已写入out的字节数
+	private long uncompressedBytes = 0;//压缩前的字节数
+	private final AtomicLong deflateNanos = new AtomicLong();//各压缩线程的耗时之和
+	private boolean finished = false;
+
+	public ParallelZipOutputStream(OutputStream out) {
+		this(out, ExportCompression.DEFAULT);
+	}
+
+	public ParallelZipOutputStream(OutputStream out, ExportCompression compression) {
+		this(out, compression, false);
+	}
+
+	public ParallelZipOutputStream(OutputStream out, ExportCompression compression, boolean syncFlush) {
+		this.out = out;
+		this.level = compression.getLevel();
+		this.syncFlush = syncFlush;
+	}
+
+	/**开始一个新的entry，上一个entry没有关闭时会先关闭*/
+	public void putNextEntry(String name) throws IOException {
+
+		ensureOpen();
+		if (currentEntry != null) {
+			closeEntry();
+		}
+		if (entries.size() >= ZIP32_MAX_ENTRIES) {
+			throw new ZipException("too many entries, zip64 is not supported");
+		}
+		checkZip32Offset(written);
+
+		EntryInfo entry = new EntryInfo(name.getBytes(StandardCharsets.UTF_8), written, dosTime(System.currentTimeMillis()));
+
+		//本地文件头，crc和大小在data descriptor中
+		ByteArrayOutputStream header = new ByteArrayOutputStream(30 + entry.name.length);
+		writeInt(header, LOCAL_HEADER_SIGNATURE);
+		writeShort(header, VERSION_NEEDED);
+		writeShort(header, GENERAL_PURPOSE_FLAG);
+		writeShort(header, METHOD_DEFLATED);
+		writeInt(header, entry.dosTime);
+		writeInt(header, 0);
+		writeInt(header, 0);
+		writeInt(header, 0);
+		writeShort(header, entry.name.length);
+		writeShort(header, 0);
+		header.write(entry.name);
+		writeBytes(header.toByteArray());
+
+		currentEntry = entry;
+		crc.reset();
+		block = new byte[BLOCK_SIZE];
+		blockLength = 0;
+		dictionaryLength = 0;
+
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (currentEntry != null && blockLength < BLOCK_SIZE) {
+			block[blockLength++] = (byte) b;
+			return;
+		}
+		write(new byte[] {(byte) b}, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+
+		ensureOpen();
+		if (currentEntry == null) {
+			throw new ZipException("no current zip entry");
+		}
+		while (len > 0) {
+			if (blockLength == BLOCK_SIZE) {
+				submitBlock(false);
+			}
+			int n = Math.min(len, BLOCK_SIZE - blockLength);
+			System.arraycopy(b, off, block, blockLength, n);
+			blockLength += n;
+			off += n;
+			len -= n;
+		}
+
+	}
+
+	/**结束当前entry：压缩最后一块，等待全部块写出后写入data descriptor*/
+	public void closeEntry() throws IOException {
+
+		ensureOpen();
+		if (currentEntry == null) {
+			return;
+		}
+
+		submitBlock(true);
+		while (!pendingBlocks.isEmpty()) {
+			writeCompressedBlock(pendingBlocks.poll());
+		}
+
+		EntryInfo entry = currentEntry;
+		entry.crc = crc.getValue();
+		entry.compressedSize = written - entry.dataOffset;
+		if (entry.size > ZIP32_LIMIT || entry.compressedSize > ZIP32_LIMIT) {
+			throw new ZipException("entry " + new String(entry.name, StandardCharsets.UTF_8) + " is larger than 4GB, zip64 is not supported");
+		}
+
+		ByteArrayOutputStream descriptor = new ByteArrayOutputStream(16);
+		writeInt(descriptor, DATA_DESCRIPTOR_SIGNATURE);
+		writeInt(descriptor, entry.crc);
+		writeInt(descriptor, entry.compressedSize);
+		writeInt(descriptor, entry.size);
+		writeBytes(descriptor.toByteArray());
+
+		entries.add(entry);
+		currentEntry = null;
+		block = null;
+		dictionaryLength = 0;
+
+	}
+
+	/**写入中央目录，不关闭out*/
+	public void finish() throws IOException {
+
+		ensureOpen();
+		if (currentEntry != null) {
+			closeEntry();
+		}
+
+		long centralDirectoryOffset = written;
+		checkZip32Offset(centralDirectoryOffset);
+
+		ByteArrayOutputStream directory = new ByteArrayOutputStream();
+		for (EntryInfo entry : entries) {
+			writeInt(directory, CENTRAL_HEADER_SIGNATURE);
+			writeShort(directory, VERSION_NEEDED);
+			writeShort(directory, VERSION_NEEDED);
+			writeShort(directory, GENERAL_PURPOSE_FLAG);
+			writeShort(directory, METHOD_DEFLATED);
+			writeInt(directory, entry.dosTime);
+			writeInt(directory, entry.crc);
+			writeInt(directory, entry.compressedSize);
+			writeInt(directory, entry.size);
+			writeShort(directory, entry.name.length);
+			writeShort(directory, 0);//extra
+			writeShort(directory, 0);//comment
+			writeShort(directory, 0);//disk number
+			writeShort(directory, 0);//internal attributes
+			writeInt(directory, 0);//external attributes
+			writeInt(directory, entry.headerOffset);
+			directory.write(entry.name);
+		}
+		long centralDirectorySize = directory.size();
+		checkZip32Offset(centralDirectoryOffset + centralDirectorySize);
+
+		writeInt(directory, END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+		writeShort(directory, 0);
+		writeShort(directory, 0);
+		writeShort(directory, entries.size());
+		writeShort(directory, entries.size());
+		writeInt(directory, centralDirectorySize);
+		writeInt(directory, centralDirectoryOffset);
+		writeShort(directory, 0);
+		writeBytes(directory.toByteArray());
+
+		out.flush();
+		finished = true;
+
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (syncFlush && !finished && currentEntry != null) {
+			if (blockLength > 0) {
+				submitBlock(false);
+			}
+			while (!pendingBlocks.isEmpty()) {
+				writeCompressedBlock(pendingBlocks.poll());
+			}
+		}
+		out.flush();
+	}
+
+	/**与ZipOutputStream一样，没有finish时先finish再关闭out，出错时取消未完成的压缩任务*/
+	@Override
+	public void close() throws IOException {
+		try {
+			if (!finished) {
+				finish();
+			}
+		} finally {
+			abort();
+			out.close();
+		}
+	}
+
+	/**放弃输出：取消未完成的压缩任务，不再写入剩余的数据和中央目录，不关闭out*/
+	public void abort() {
+		for (Future<byte[]> pendingBlock : pendingBlocks) {
+			pendingBlock.cancel(true);
+		}
+		pendingBlocks.clear();
+		finished = true;
+	}
+
+	/**压缩后已写出的字节数*/
+	public long getBytesWritten() {
+		return written;
+	}
+
+	/**已提交压缩的原始字节数*/
+	public long getUncompressedBytes() {
+		return uncompressedBytes;
+	}
+
+	/**压缩耗时，各线程之和*/
+	public long getDeflateNanos() {
+		return deflateNanos.get();
+	}
+
+	//把当前块交给线程池压缩，待压缩的块过多时先写出最早的一块
+	private void submitBlock(final boolean last) throws IOException {
+
+		crc.update(block, 0, blockLength);
+		currentEntry.size += blockLength;
+		uncompressedBytes += blockLength;
+
+		final byte[] input = block;
+		final int inputLength = blockLength;
+		final byte[] blockDictionary = dictionaryLength == 0 ? null : Arrays.copyOf(dictionary, dictionaryLength);
+		final int compressLevel = level;
+		pendingBlocks.add(DEFLATE_POOL.submit(new Callable<byte[]>() {
+			public byte[] call() {
+				long start = System.nanoTime();
+				try {
+					return deflateBlock(input, inputLength, blockDictionary, compressLevel, last);
+				} finally {
+					deflateNanos.addAndGet(System.nanoTime() - start);
+				}
+			}
+		}));
+
+		if (!last) {
+			updateDictionary(input, inputLength);
+			block = new byte[BLOCK_SIZE];
+			blockLength = 0;
+			while (pendingBlocks.size() >= MAX_PENDING_BLOCKS) {
+				writeCompressedBlock(pendingBlocks.poll());
+			}
+		}
+
+	}
+
+	//保留最后32K数据，syncFlush时的块可能不满32K，需要和之前的数据拼起来
+	private void updateDictionary(byte[] input, int inputLength) {
+		if (inputLength >= DICTIONARY_SIZE) {
+			System.arraycopy(input, inputLength - DICTIONARY_SIZE, dictionary, 0, DICTIONARY_SIZE);
+			dictionaryLength = DICTIONARY_SIZE;
+			return;
+		}
+		int keep = Math.min(dictionaryLength, DICTIONARY_SIZE - inputLength);
+		System.arraycopy(dictionary, dictionaryLength - keep, dictionary, 0, keep);
+		System.arraycopy(input, 0, dictionary, keep, inputLength);
+		dictionaryLength = keep + inputLength;
+	}
+
+	private static byte[] deflateBlock(byte[] input, int inputLength, byte[] dictionary, int level, boolean last) {
+
+		Deflater deflater = new Deflater(level, true);
+		try {
+			if (dictionary != null) {
+				deflater.setDictionary(dictionary);
+			}
+			deflater.setInput(input, 0, inputLength);
+
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(inputLength / 2 + 64);
+			byte[] buffer = new byte[BLOCK_SIZE / 4];
+			if (last) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					int n = deflater.deflate(buffer, 0, buffer.length);
+					compressed.write(buffer, 0, n);
+				}
+			} else {
+				//SYNC_FLUSH以空的stored块结束并按字节对齐，可以直接拼接下一块的压缩数据
+				int n;
+				do {
+					n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+					compressed.write(buffer, 0, n);
+				} while (n == buffer.length || !deflater.needsInput());
+			}
+			return compressed.toByteArray();
+		} finally {
+			deflater.end();
+		}
+
+	}
+
+	private void writeCompressedBlock(Future<byte[]> pendingBlock) throws IOException {
+		try {
+			writeBytes(pendingBlock.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for compressed block");
+		} catch (ExecutionException e) {
+			throw new IOException("failed to compress block", e.getCause());
+		}
+	}
+
+	private void writeBytes(byte[] bytes) throws IOException {
+		out.write(bytes);
+		written += bytes.length;
+	}
+
+	private void ensureOpen() throws IOException {
+		if (finished) {
+			throw new IOException("zip stream already finished");
+		}
+	}
+
+	private static void checkZip32Offset(long offset) throws ZipException {
+		if (offset > ZIP32_LIMIT) {
+			throw new ZipException("zip file is larger than 4GB, zip64 is not supported");
+		}
+	}
+
+	private static long dosTime(long time) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(time);
+		int year = calendar.get(Calendar.YEAR);
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return ((long) (year - 1980) << 25) | ((calendar.get(Calendar.MONTH) + 1) << 21)
+				| (calendar.get(Calendar.DAY_OF_MONTH) << 16) | (calendar.get(Calendar.HOUR_OF_DAY) << 11)
+				| (calendar.get(Calendar.MINUTE) << 5) | (calendar.get(Calendar.SECOND) >> 1);
+	}
+
+	private static void writeShort(ByteArrayOutputStream os, int v) {
+		os.write(v & 0xff);
+		os.write((v >>> 8) & 0xff);
+	}
+
+	private static void writeInt(ByteArrayOutputStream os, long v) {
+		os.write((int) (v & 0xff));
+		os.write((int) ((v >>> 8) & 0xff));
+		os.write((int) ((v >>> 16) & 0xff));
+		os.write((int) ((v >>> 24) & 0xff));
+	}
+
+	private static class EntryInfo {
+
+		private final byte[] name;
+		private final long headerOffset;
+		private final long dataOffset;
+		private final long dosTime;
+		private long crc;
+		private long size;
+		private long compressedSize;
+
+		private EntryInfo(byte[] name, long headerOffset, long dosTime) {
+			this.name = name;
+			this.headerOffset = headerOffset;
+			this.dataOffset = headerOffset + 30 + name.length;
+			this.dosTime = dosTime;
+		}
+
+	}
+
+}
@@ -0,0 +1,89 @@
+package cn.gzsendi.modules.framework.utils;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 取消导出中正在执行的查询.
+ *
+ * <pre>
+ * 流式查询的结果集在关闭时，驱动要把剩余的行全部读完，连接才能归还连接池。
+ * 客户端中途断开时，即使不再写入，数据库仍然要把整张表发送完，白白占用数据库的cpu、io和连接。
+ *
+ * 导出取数时通过{@link #setCurrent(QueryCanceller)}绑定到取数线程，
+ * {@link cn.gzsendi.config.mybatis.QueryCancelInterceptor}在执行sql时登记当前的Statement，
+ * 写入失败时任何线程都可以调用{@link #cancel()}，通过Statement.cancel（MySQL为KILL QUERY）让服务端停止发送。
+ * 取消之后同一个取数线程上新的查询直接失败，按主键分页等多次查询的取数方式不会继续下一页。
+ * </pre>
+ */
+public class QueryCanceller {
+
+	private static final Logger logger = LoggerFactory.getLogger(QueryCanceller.class);
+
+	private static final ThreadLocal<QueryCanceller> CURRENT = new ThreadLocal<QueryCanceller>();
+
+	private volatile boolean cancelled = false;
+	private Statement statement = null;//正在执行的查询，由this保护
+
+	/**绑定到当前线程，返回之前绑定的，结束时需要恢复*/
+	public static QueryCanceller setCurrent(QueryCanceller canceller) {
+		QueryCanceller previous = CURRENT.get();
+		if (canceller == null) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(canceller);
+		}
+		return previous;
+	}
+
+	public static QueryCanceller current() {
+		return CURRENT.get();
+	}
+
+	/**登记开始执行的查询，已取消时直接失败*/
+	public synchronized void attach(Statement statement) throws SQLException {
+		if (cancelled) {
+			throw new SQLException("export query cancelled");
+		}
+		this.statement = statement;
+	}
+
+	/**查询结束（结果集已关闭）*/
+	public synchronized void detach(Statement statement) {
+		if (this.statement == statement) {
+			this.statement = null;
+		}
+	}
+
+	/**取消正在执行的查询，可以重复调用*/
+	public void cancel() {
+
+		Statement running;
+		synchronized (this) {
+			if (cancelled) {
+				return;
+			}
+			cancelled = true;
+			running = statement;
+		}
+		if (running == null) {
+			return;
+		}
+		try {
+			running.cancel();
+			logger.info("--------->>>> export query cancelled");
+		} catch (SQLException e) {
+			//查询刚好结束或连接已关闭，结果集关闭后连接照常归还
+			logger.warn("cancel export query failed: {}", e.getMessage());
+		}
+
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+}
@@ -0,0 +1,147 @@
+package cn.gzsendi.modules.framework.utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 导出流水线中查询线程和写入线程之间的有界环形缓冲区.
+ *
+ * <pre>
+ * 槽位在创建时一次分配好，查询线程{@link #put(Object)}写入，缓冲区满时阻塞（背压，避免查询远快于写入时占满内存），
+ * 写入线程{@link #drainTo(Object[])}一次取出多行，减少两个线程之间的加锁和唤醒次数。
+ *
+ * 查询结束时调用{@link #close()}，写入线程取完剩余的行后得到-1；
+ * 任何一方出错时调用{@link #fail(Throwable)}，另一方的下一次put或drainTo会抛出这个异常，双方都能尽快退出。
+ * </pre>
+ */
+public class RowRingBuffer<E> {
+
+	private final Object[] slots;
+
+	private int head = 0;//下一个读取的位置
+	private int tail = 0;//下一个写入的位置
+	private int count = 0;
+
+	private boolean closed = false;
+	private Throwable failure = null;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	public RowRingBuffer(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be greater than 0");
+		}
+		this.slots = new Object[capacity];
+	}
+
+	/**写入一行，缓冲区满时阻塞，对方已出错时抛出对方的异常*/
+	public void put(E row) throws InterruptedException {
+
+		lock.lockInterruptibly();
+		try {
+			while (count == slots.length && failure == null) {
+				notFull.await();
+			}
+			throwIfFailed();
+			if (closed) {
+				throw new IllegalStateException("ring buffer is closed");
+			}
+			slots[tail] = row;
+			tail = (tail + 1) % slots.length;
+			if (count++ == 0) {
+				notEmpty.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+
+	}
+
+	/**
+	 * 取出当前所有可读的行（最多batch.length行），没有数据时阻塞.
+	 *
+	 * @return 取出的行数，已关闭且全部取完时返回-1
+	 */
+	public int drainTo(Object[] batch) throws InterruptedException {
+
+		lock.lockInterruptibly();
+		try {
+			while (count == 0 && !closed && failure == null) {
+				notEmpty.await();
+			}
+			throwIfFailed();
+			if (count == 0) {
+				return -1;
+			}
+			int n = Math.min(count, batch.length);
+			for (int i = 0; i < n; i++) {
+				batch[i] = slots[head];
+				slots[head] = null;
+				head = (head + 1) % slots.length;
+			}
+			if (count == slots.length) {
+				notFull.signal();
+			}
+			count -= n;
+			return n;
+		} finally {
+			lock.unlock();
+		}
+
+	}
+
+	/**写入方已写完全部数据*/
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**任何一方出错，唤醒并通知另一方，只保留第一个异常*/
+	public void fail(Throwable cause) {
+		lock.lock();
+		try {
+			if (failure == null) {
+				failure = cause;
+			}
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public Throwable getFailure() {
+		lock.lock();
+		try {
+			return failure;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void throwIfFailed() {
+		if (failure == null) {
+			return;
+		}
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+		if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+		if (failure instanceof IOException) {
+			throw new UncheckedIOException((IOException) failure);
+		}
+		throw new IllegalStateException(failure);
+	}
+
+}
@@ -0,0 +1,272 @@
+package cn.gzsendi.modules.framework.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.session.ResultHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cn.gzsendi.modules.framework.metrics.ExportMetrics;
+
+/**
+ * 按主键范围分片并行导出的ExcelResultHandler.
+ *
+ * <pre>
+ * 普通导出是一条FORWARD_ONLY的全表流式查询，只能用到一个数据库线程和一个cpu。
+ * 这里先查出主键的最小值和最大值，按范围切分成shards个分片，
+ * 每个分片在自己的线程中（各自占用一个数据库连接）流式查询并写成sheet临时文件，
+ * 全部完成后按分片顺序把sheet组装进xlsx，每个分片对应一个或多个sheet（超过maxRowsPerSheet时）。
+ *
+ * 只有直接输出xlsx的写入引擎（{@link XlsxStreamWriter}）才能组装分片，其它写入引擎按整个主键范围顺序查询，
+ * 与普通导出相同，见{@link #tryFetchDataAndWriteToExcel()}。
+ * 子类实现{@link #queryIdRange()}和{@link #fetchIdRange(long, long, ResultHandler)}，
+ * 分片数不要超过数据库连接池的大小。
+ * </pre>
+ */
+public abstract class ShardedExcelResultHandler<T> extends ExcelResultHandler<T> {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	//分片数，即并行查询的连接数
+	private int shards = 4;
+
+	//各个分片的handler，用于汇总已写入的行数
+	private volatile List<ExcelResultHandler<T>> shardHandlers = new ArrayList<ExcelResultHandler<T>>();
+
+	public ShardedExcelResultHandler(List<String> headerArray, List<String> fieldArray, String exportFileName) {
+		super(headerArray, fieldArray, exportFileName);
+	}
+
+	public ShardedExcelResultHandler(List<String> headerArray, List<String> fieldArray, String exportFileName, boolean isExportZip) {
+		super(headerArray, fieldArray, exportFileName, isExportZip);
+	}
+
+	/**表头、字段、格式和列宽都取自rowClass上的@ExcelColumn注解*/
+	public ShardedExcelResultHandler(Class<T> rowClass, String exportFileName) {
+		super(rowClass, exportFileName);
+	}
+
+	/**只导出fields中的列，为null时导出全部*/
+	public ShardedExcelResultHandler(Class<T> rowClass, List<String> fields, String exportFileName) {
+		super(rowClass, fields, exportFileName);
+	}
+
+	/**查询主键的范围，返回{最小值,最大值}，没有数据时返回null*/
+	public abstract long[] queryIdRange();
+
+	/**流式查询主键在[minId,maxId]范围内的数据，每一行回调handler*/
+	public abstract void fetchIdRange(long minId, long maxId, ResultHandler<T> handler);
+
+	public int getShards() {
+		return shards;
+	}
+
+	public void setShards(int shards) {
+		if (shards < 1) {
+			throw new IllegalArgumentException("shards must be greater than 0");
+		}
+		this.shards = shards;
+	}
+
+	//不能分片时（非xlsx流式写入引擎）在当前线程按整个主键范围顺序查询
+	@Override
+	public void tryFetchDataAndWriteToExcel() {
+		long[] idRange = queryIdRange();
+		if (idRange != null) {
+			fetchIdRange(idRange[0], idRange[1], this);
+		}
+	}
+
+	@Override
+	public int getCurrentRowNumber() {
+		int total = super.getCurrentRowNumber();
+		for (ExcelResultHandler<T> shardHandler : shardHandlers) {
+			total += shardHandler.getCurrentRowNumber();
+		}
+		return total;
+	}
+
+	@Override
+	protected void writeSheets() throws IOException {
+
+		if (!(getExcelWriter() instanceof XlsxStreamWriter)) {
+			super.writeSheets();
+			return;
+		}
+		XlsxStreamWriter xlsxWriter = (XlsxStreamWriter) getExcelWriter();
+
+		//各分片在自己的线程中读取和写入，按流水线计算取数时间
+		ExportMetrics metrics = getMetrics();
+		metrics.fetchStarted(true);
+
+		long[] idRange = queryIdRange();
+		if (idRange == null) {
+			//没有数据，只输出表头
+			createSheetWithHeader();
+			metrics.fetchFinished();
+			return;
+		}
+
+		//按主键范围切分，每个分片为[minId,maxId]的闭区间
+		long min = idRange[0];
+		long max = idRange[1];
+		long step = Math.max(1, (max - min) / shards + 1);
+
+		final ShardParts parts = new ShardParts();
+		List<ExcelResultHandler<T>> handlers = new ArrayList<ExcelResultHandler<T>>();
+		List<Callable<XlsxSheetPartWriter>> tasks = new ArrayList<Callable<XlsxSheetPartWriter>>();
+		for (long from = min; from <= max; from += step) {
+			final long minId = from;
+			final long maxId = Math.min(max, from + step - 1);
+			final ExcelResultHandler<T> shardHandler = new ExcelResultHandler<T>(getHeaderArray(), getFieldArray()) {
+				public void tryFetchDataAndWriteToExcel() {
+					fetchIdRange(minId, maxId, this);
+				}
+			};
+			shardHandler.setMaxRowsPerSheet(getMaxRowsPerSheet());
+			shardHandler.setPipelineBufferSize(getPipelineBufferSize());
+			shardHandler.copyColumnSettings(this);
+			handlers.add(shardHandler);
+			tasks.add(new Callable<XlsxSheetPartWriter>() {
+				public XlsxSheetPartWriter call() throws Exception {
+					XlsxSheetPartWriter partWriter = new XlsxSheetPartWriter();
+					try {
+						partWriter.open(null);
+						shardHandler.writeSheetsTo(partWriter);
+						partWriter.finish();
+					} catch (Exception e) {
+						partWriter.close();
+						partWriter.deleteSheetFiles();
+						throw e;
+					}
+					//导出已经放弃（future已取消）时自己删除临时文件
+					if (!parts.add(partWriter)) {
+						partWriter.deleteSheetFiles();
+					}
+					return partWriter;
+				}
+			});
+			if (maxId == max) {
+				break;//避免maxId为Long.MAX_VALUE时from溢出
+			}
+		}
+		shardHandlers = handlers;
+
+		logger.info("--------->>>> sharded export id range [{}, {}] into {} shards", min, max, tasks.size());
+
+		final AtomicInteger threadNumber = new AtomicInteger(0);
+		ExecutorService executor = Executors.newFixedThreadPool(tasks.size(), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				return new Thread(r, "export-shard-" + threadNumber.incrementAndGet());
+			}
+		});
+
+		List<Future<XlsxSheetPartWriter>> futures = new ArrayList<Future<XlsxSheetPartWriter>>();
+		boolean completed = false;
+		try {
+
+			for (Callable<XlsxSheetPartWriter> task : tasks) {
+				futures.add(executor.submit(task));
+			}
+
+			//按分片顺序组装sheet，前面的分片完成后即可写入输出流，不需要等待全部分片完成
+			for (int i = 0; i < futures.size(); i++) {
+				XlsxSheetPartWriter partWriter = getShardResult(futures.get(i));
+				//分片已完成，future.get保证分片线程上的计时可见
+				metrics.merge(handlers.get(i).getMetrics());
+				try {
+					//空的分片不输出sheet
+					if (handlers.get(i).getCurrentRowNumber() > 0) {
+						for (File sheetFile : partWriter.getSheetFiles()) {
+							xlsxWriter.appendSheet("Sheet " + (xlsxWriter.getSheetCount() + 1), sheetFile);
+						}
+						//每个分片组装完成后就输出给客户端
+						if (getFlushEveryRows() > 0) {
+							xlsxWriter.flush();
+						}
+					}
+				} finally {
+					partWriter.deleteSheetFiles();
+				}
+			}
+
+			//全部分片都没有数据，只输出表头
+			if (xlsxWriter.getSheetCount() == 0) {
+				createSheetWithHeader();
+			}
+			metrics.fetchFinished();
+
+			logger.info("--------->>>> sharded export write to excel size now is {}", getCurrentRowNumber());
+			completed = true;
+
+		} finally {
+
+			//出错（如客户端断开）时取消各分片正在执行的sql，中断线程不能停止阻塞在读取数据库上的查询
+			if (!completed) {
+				for (ExcelResultHandler<T> shardHandler : handlers) {
+					shardHandler.cancel();
+				}
+			}
+
+			//出错时取消其它分片，已完成分片的临时文件也要删除；
+			//取消后仍在执行的分片写完后发现已放弃，自己删除临时文件，失败的分片已经自己删除了临时文件
+			for (Future<XlsxSheetPartWriter> future : futures) {
+				future.cancel(true);
+			}
+			parts.abandon();
+			executor.shutdownNow();
+
+		}
+
+	}
+
+	/**
+	 * 已完成的分片，导出结束（成功或放弃）后统一删除临时文件.
+	 * 分片写完时如果导出已经放弃就不再登记，由分片自己删除，避免future取消后临时文件无人删除。
+	 */
+	private static class ShardParts {
+
+		private final List<XlsxSheetPartWriter> finished = new ArrayList<XlsxSheetPartWriter>();
+		private boolean abandoned = false;
+
+		//登记已完成的分片，已放弃时返回false
+		synchronized boolean add(XlsxSheetPartWriter partWriter) {
+			if (abandoned) {
+				return false;
+			}
+			finished.add(partWriter);
+			return true;
+		}
+
+		synchronized void abandon() {
+			abandoned = true;
+			for (XlsxSheetPartWriter partWriter : finished) {
+				partWriter.deleteSheetFiles();
+			}
+			finished.clear();
+		}
+
+	}
+
+	private XlsxSheetPartWriter getShardResult(Future<XlsxSheetPartWriter> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("sharded export interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IOException("sharded export failed", e.getCause());
+		}
+	}
+
+}
@@ -0,0 +1,269 @@
+package cn.gzsendi.modules.framework.utils;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * 按下标存放值的Map，用作查询结果的行.
+ *
+ * <pre>
+ * resultType为map的查询，每一行都是一个HashMap，每个单元格都要计算key的hash再查找，每行还要分配一组Entry。
+ * 同一次查询的所有行的列都相同，这里在查询开始时按ResultSet的列建立一个共享的{@link Index}（列名->下标），
+ * 每一行只是一个Object数组，导出时按下标直接读取，见{@link #getValue(int)}。
+ *
+ * 仍然是一个完整的Map，不在索引中的key放到另外的overflow中，普通的业务代码按Map使用即可。
+ * 不允许null的key，允许null的value。
+ * </pre>
+ */
+public class SlotRowMap extends AbstractMap<String, Object> {
+
+	//值数组中表示没有这个key（区别于key存在但值为null）
+	private static final Object ABSENT = new Object();
+
+	private final Index index;
+	private final Object[] values;
+	private int size = 0;
+	private Map<String, Object> overflow = null;//不在索引中的key，很少用到，用到时才创建
+
+	public SlotRowMap(Index index) {
+		this.index = index;
+		this.values = index.newValues();
+	}
+
+	public Index getIndex() {
+		return index;
+	}
+
+	/**按下标取值，slot为-1或者没有值时返回null*/
+	public Object getValue(int slot) {
+		if (slot < 0) {
+			return null;
+		}
+		Object value = values[slot];
+		return value == ABSENT ? null : value;
+	}
+
+	@Override
+	public Object get(Object key) {
+		int slot = index.slotOf(key);
+		if (slot >= 0) {
+			return getValue(slot);
+		}
+		return overflow == null ? null : overflow.get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		int slot = index.slotOf(key);
+		if (slot >= 0) {
+			return values[slot] != ABSENT;
+		}
+		return overflow != null && overflow.containsKey(key);
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		if (key == null) {
+			throw new NullPointerException("key must not be null");
+		}
+		int slot = index.slotOf(key);
+		if (slot >= 0) {
+			Object old = values[slot];
+			values[slot] = value;
+			if (old == ABSENT) {
+				size++;
+				return null;
+			}
+			return old;
+		}
+		if (overflow == null) {
+			overflow = new LinkedHashMap<String, Object>();
+		}
+		boolean existed = overflow.containsKey(key);
+		Object old = overflow.put(key, value);
+		if (!existed) {
+			size++;
+		}
+		return old;
+	}
+
+	@Override
+	public Object remove(Object key) {
+		int slot = index.slotOf(key);
+		if (slot >= 0) {
+			Object old = values[slot];
+			if (old == ABSENT) {
+				return null;
+			}
+			values[slot] = ABSENT;
+			size--;
+			return old;
+		}
+		if (overflow == null || !overflow.containsKey(key)) {
+			return null;
+		}
+		size--;
+		return overflow.remove(key);
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(values, ABSENT);
+		overflow = null;
+		size = 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Object>>() {
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	//先按下标顺序遍历索引中的key，再遍历overflow
+	private class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+
+		private int nextSlot = -1;
+		private int lastSlot = -1;
+		private Iterator<Map.Entry<String, Object>> overflowIterator = null;
+		private boolean lastFromOverflow = false;
+
+		private EntryIterator() {
+			advance();
+		}
+
+		private void advance() {
+			do {
+				nextSlot++;
+			} while (nextSlot < values.length && values[nextSlot] == ABSENT);
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (nextSlot < values.length) {
+				return true;
+			}
+			if (overflowIterator == null && overflow != null) {
+				overflowIterator = overflow.entrySet().iterator();
+			}
+			return overflowIterator != null && overflowIterator.hasNext();
+		}
+
+		@Override
+		public Map.Entry<String, Object> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			if (nextSlot < values.length) {
+				final int slot = nextSlot;
+				lastSlot = slot;
+				lastFromOverflow = false;
+				advance();
+				return new SimpleEntry<String, Object>(index.getKey(slot), values[slot]) {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					public Object setValue(Object value) {
+						values[slot] = value;
+						return super.setValue(value);
+					}
+				};
+			}
+			lastFromOverflow = true;
+			return overflowIterator.next();
+		}
+
+		@Override
+		public void remove() {
+			if (lastFromOverflow) {
+				overflowIterator.remove();
+				size--;
+				lastFromOverflow = false;
+				return;
+			}
+			if (lastSlot < 0 || values[lastSlot] == ABSENT) {
+				throw new IllegalStateException();
+			}
+			values[lastSlot] = ABSENT;
+			size--;
+		}
+
+	}
+
+	/**
+	 * 一次查询所有行共享的列名->下标索引，创建后不可修改.
+	 */
+	public static final class Index {
+
+		private final String[] keys;
+		private final Map<String, Integer> slots;
+		private final Object[] emptyValues;
+
+		/**keys为各列对应的Map的key，重复的key只保留第一个*/
+		public Index(List<String> keys) {
+			List<String> distinctKeys = new ArrayList<String>(keys.size());
+			Map<String, Integer> slotMap = new HashMap<String, Integer>(ParameterUtils.calcMapCapacity(keys.size()));
+			for (String key : keys) {
+				if (key != null && !slotMap.containsKey(key)) {
+					slotMap.put(key, distinctKeys.size());
+					distinctKeys.add(key);
+				}
+			}
+			this.keys = distinctKeys.toArray(new String[0]);
+			this.slots = slotMap;
+			this.emptyValues = new Object[this.keys.length];
+			Arrays.fill(emptyValues, ABSENT);
+		}
+
+		/**key对应的下标，不在索引中时返回-1*/
+		public int slotOf(Object key) {
+			Integer slot = slots.get(key);
+			return slot == null ? -1 : slot;
+		}
+
+		/**一组key对应的下标，用于导出时按fieldArray一次解析*/
+		public int[] slotsOf(List<String> fieldNames) {
+			int[] result = new int[fieldNames.size()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = slotOf(fieldNames.get(i));
+			}
+			return result;
+		}
+
+		public String getKey(int slot) {
+			return keys[slot];
+		}
+
+		public int size() {
+			return keys.length;
+		}
+
+		private Object[] newValues() {
+			return emptyValues.clone();
+		}
+
+	}
+
+}
@@ -0,0 +1,228 @@
+package cn.gzsendi.modules.framework.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DataFormat;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.streaming.SheetDataWriter;
+
+/**
+ * 基于SXSSFWorkbook的excel写入引擎.
+ *
+ * <pre>
+ * 超过100行后数据写入临时文件，finish时才把临时文件拷贝到输出流，
+ * 适合需要使用POI样式等功能的场景，大数据量导出建议使用{@link XlsxStreamWriter}
+ *
+ * POI的数值单元格只能保存double，BigDecimal单元格先登记精确值，写入临时文件时按toPlainString输出，与XlsxStreamWriter一致
+ * </pre>
+ */
+public class SxssfSheetWriter implements ExcelSheetWriter {
+
+	private SXSSFWorkbook wb;
+	private Sheet sheet;
+	private Row row;
+	private CellStyle dateCellStyle;//所有日期单元格共用一个样式，不能每个单元格创建一个
+	private OutputStream out;
+
+	//设置了格式的列的样式，相同格式的列共用一个样式，null为默认
+	private CellStyle[] columnStyles = new CellStyle[0];
+	private int[] columnWidths = new int[0];
+
+	//各sheet的临时文件，用于统计临时文件占用的磁盘
+	private final List<File> tempFiles = new CopyOnWriteArrayList<File>();
+
+	//还没有写入临时文件的BigDecimal单元格及其精确值，最多为SXSSF窗口内的行数
+	private final Map<Cell, String> decimalCells = new IdentityHashMap<Cell, String>();
+
+	@Override
+	public void open(OutputStream out) throws IOException {
+		this.out = out;
+		//默认100行，超100行将写入临时文件，这里记录下每个sheet的临时文件
+		wb = new SXSSFWorkbook() {
+			@Override
+			protected SheetDataWriter createSheetDataWriter() throws IOException {
+				if (isCompressTempFiles()) {
+					return super.createSheetDataWriter();
+				}
+				return new SheetDataWriter() {
+
+					//在父类构造函数中赋值，不能有初始值
+					private Writer sheetOut;
+
+					@Override
+					public File createTempFile() throws IOException {
+						File tempFile = super.createTempFile();
+						tempFiles.add(tempFile);
+						return tempFile;
+					}
+
+					@Override
+					public Writer createWriter(File fd) throws IOException {
+						sheetOut = super.createWriter(fd);
+						return sheetOut;
+					}
+
+					//BigDecimal单元格按登记的精确值输出，格式与父类的数值单元格相同
+					@Override
+					public void writeCell(int columnIndex, Cell cell) throws IOException {
+						String plain = cell == null ? null : decimalCells.remove(cell);
+						if (plain == null) {
+							super.writeCell(columnIndex, cell);
+							return;
+						}
+						sheetOut.write("<c r=\"");
+						sheetOut.write(new CellReference(cell.getRowIndex(), columnIndex).formatAsString());
+						int styleIndex = cell.getCellStyle().getIndex() & 0xffff;
+						if (styleIndex != 0) {
+							sheetOut.write("\" s=\"");
+							sheetOut.write(Integer.toString(styleIndex));
+						}
+						sheetOut.write("\" t=\"n\"><v>");
+						sheetOut.write(plain);
+						sheetOut.write("</v></c>");
+					}
+
+				};
+			}
+		};
+		wb.setCompressTempFiles(false); //是否压缩临时文件，否则写入速度更快，但更占磁盘，但程序最后是会将临时文件删掉的
+		dateCellStyle = wb.createCellStyle();
+		dateCellStyle.setDataFormat(wb.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd hh:mm:ss"));
+	}
+
+	@Override
+	public void setColumnStyles(String[] formats, int[] widths) throws IOException {
+		DataFormat dataFormat = wb.getCreationHelper().createDataFormat();
+		Map<String, CellStyle> stylesByFormat = new HashMap<String, CellStyle>();
+		columnStyles = new CellStyle[formats == null ? 0 : formats.length];
+		for (int i = 0; i < columnStyles.length; i++) {
+			String format = formats[i];
+			if (format == null || format.isEmpty()) {
+				continue;
+			}
+			CellStyle style = stylesByFormat.get(format);
+			if (style == null) {
+				style = wb.createCellStyle();
+				style.setDataFormat(dataFormat.getFormat(format));
+				stylesByFormat.put(format, style);
+			}
+			columnStyles[i] = style;
+		}
+		columnWidths = widths == null ? new int[0] : widths.clone();
+	}
+
+	@Override
+	public void createSheet(String sheetName) throws IOException {
+		sheet = wb.createSheet(sheetName);
+		for (int i = 0; i < columnWidths.length; i++) {
+			if (columnWidths[i] > 0) {
+				//POI的列宽单位为1/256个字符，最大255个字符
+				sheet.setColumnWidth(i, Math.min(columnWidths[i], 255) * 256);
+			}
+		}
+	}
+
+	@Override
+	public void startRow(int rowNumber) throws IOException {
+		row = sheet.createRow(rowNumber);
+	}
+
+	@Override
+	public void writeString(int cellNumber, String value) throws IOException {
+		row.createCell(cellNumber).setCellValue(value);
+	}
+
+	@Override
+	public void writeNumber(int cellNumber, long value) throws IOException {
+		createStyledCell(cellNumber, null).setCellValue(value);
+	}
+
+	@Override
+	public void writeNumber(int cellNumber, double value) throws IOException {
+		createStyledCell(cellNumber, null).setCellValue(value);
+	}
+
+	@Override
+	public void writeNumber(int cellNumber, BigDecimal value) throws IOException {
+		Cell cell = createStyledCell(cellNumber, null);
+		cell.setCellValue(value.doubleValue());
+		//压缩临时文件时使用的是POI自己的SheetDataWriter，只能按double输出
+		if (!wb.isCompressTempFiles()) {
+			//toString对scale为负的值会输出1E+3这样的科学计数法
+			decimalCells.put(cell, value.toPlainString());
+		}
+	}
+
+	@Override
+	public void writeDate(int cellNumber, Date value) throws IOException {
+		createStyledCell(cellNumber, dateCellStyle).setCellValue(value);
+	}
+
+	@Override
+	public void writeBoolean(int cellNumber, boolean value) throws IOException {
+		row.createCell(cellNumber).setCellValue(value);
+	}
+
+	//列设置了格式时使用列的样式，否则使用默认的
+	private Cell createStyledCell(int cellNumber, CellStyle defaultStyle) {
+		Cell cell = row.createCell(cellNumber);
+		CellStyle style = cellNumber < columnStyles.length && columnStyles[cellNumber] != null ? columnStyles[cellNumber] : defaultStyle;
+		if (style != null) {
+			cell.setCellStyle(style);
+		}
+		return cell;
+	}
+
+	@Override
+	public void endRow() throws IOException {
+		row = null;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		//SXSSF只能在finish时一次性输出整个workbook，中途没有可以输出的内容
+	}
+
+	@Override
+	public void finish() throws IOException {
+		wb.write(out);
+	}
+
+	/**临时文件当前占用的字节数，close之后临时文件已删除*/
+	public long getTempFileBytes() {
+		long bytes = 0;
+		for (File tempFile : tempFiles) {
+			bytes += tempFile.length();
+		}
+		return bytes;
+	}
+
+	@Override
+	public void close() throws IOException {
+		decimalCells.clear();
+		if (wb != null) {
+			try {
+				wb.dispose();// 删除临时文件，很重要，否则磁盘可能会被写满
+			} finally {
+				wb.close();
+				wb = null;
+			}
+		}
+	}
+
+}
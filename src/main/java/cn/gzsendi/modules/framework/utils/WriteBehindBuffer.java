@@ -0,0 +1,265 @@
+package cn.gzsendi.modules.framework.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 延迟合并写入的缓冲区.
+ *
+ * <pre>
+ * 调用方每次只写几行时，每次调用都要一次数据库往返。这里调用方把数据放进缓冲区后立即返回一个CompletableFuture，
+ * 由后台的写入线程把多次调用的数据合并成一批调用batchWriter（如mapper的batchInsert），写入后完成各自的future。
+ * 一批凑满maxBatchSize行，或最早的一行已经等待maxDelayMillis时写入，调用方最多多等待maxDelayMillis。
+ *
+ * 缓冲区最多保留capacity行（包括正在写入的），满时调用方最多等待offerTimeoutMillis，仍然放不下时抛出
+ * {@link RejectedExecutionException}，数据库变慢时不会无限占用内存。
+ * 一批写入失败时逐次重新写入这一批中的每次调用，只有出错的调用的future异常完成，不影响同一批的其他调用。
+ * {@link #close()}后不再接收数据，写入线程把已接收的数据全部写完后退出。
+ * 写入线程是守护线程，不会阻止jvm退出，已接收的数据只在close时保证写入，使用方需要在关闭时（如@PreDestroy）调用close。
+ * </pre>
+ */
+public class WriteBehindBuffer<T> {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	//写入线程等待数据的间隔，期间检查是否已关闭
+	private static final long POLL_MILLIS = 100;
+
+	private final Consumer<List<T>> batchWriter;
+	private final int maxBatchSize;
+	private final long maxDelayNanos;
+	private final int capacity;
+	private final long offerTimeoutMillis;
+
+	private final LinkedBlockingQueue<Entry<T>> queue = new LinkedBlockingQueue<Entry<T>>();
+	private final Semaphore freeRows;
+	private final Thread flusher;
+
+	private volatile boolean closed = false;
+
+	//累计写入的行数和批数，只在写入线程中更新
+	private volatile long rows = 0;
+	private volatile long batches = 0;
+
+	/**
+	 * @param batchWriter 在写入线程中调用，把一批数据写入数据库
+	 * @param maxBatchSize 每批最多写入的行数
+	 * @param maxDelayMillis 一行数据最多等待多久写入
+	 * @param capacity 缓冲区最多保留的行数
+	 * @param offerTimeoutMillis 缓冲区满时调用方最多等待的时间
+	 * @param threadName 写入线程的名称
+	 */
+	public WriteBehindBuffer(Consumer<List<T>> batchWriter, int maxBatchSize, long maxDelayMillis, int capacity,
+			long offerTimeoutMillis, String threadName) {
+
+		if (maxBatchSize < 1 || capacity < maxBatchSize) {
+			throw new IllegalArgumentException("buffer size must satisfy 1 <= maxBatchSize <= capacity");
+		}
+		this.batchWriter = batchWriter;
+		this.maxBatchSize = maxBatchSize;
+		this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+		this.capacity = capacity;
+		this.offerTimeoutMillis = offerTimeoutMillis;
+		this.freeRows = new Semaphore(capacity);
+
+		this.flusher = new Thread(new Runnable() {
+			public void run() {
+				flushLoop();
+			}
+		}, threadName);
+		//忘记close时不阻止jvm退出，正常关闭由close等待数据写完
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+
+	}
+
+	/**累计写入的行数*/
+	public long getRows() {
+		return rows;
+	}
+
+	/**累计写入的批数*/
+	public long getBatches() {
+		return batches;
+	}
+
+	/**缓冲区中等待写入和正在写入的行数*/
+	public int getPendingRows() {
+		return capacity - freeRows.availablePermits();
+	}
+
+	/**
+	 * 放入一行数据，写入后future完成.
+	 *
+	 * @throws RejectedExecutionException 缓冲区已关闭，或等待offerTimeoutMillis后仍然已满
+	 */
+	public CompletableFuture<Integer> add(T row) {
+		return addAll(Collections.singletonList(row));
+	}
+
+	/**
+	 * 放入多行数据，这些行总在同一批中写入，写入后future完成，值为行数.
+	 *
+	 * @throws RejectedExecutionException 缓冲区已关闭，或等待offerTimeoutMillis后仍然已满
+	 */
+	public CompletableFuture<Integer> addAll(List<T> list) {
+
+		if (list.size() > maxBatchSize) {
+			throw new IllegalArgumentException("list size " + list.size() + " exceeds maxBatchSize " + maxBatchSize);
+		}
+		if (list.isEmpty()) {
+			return CompletableFuture.completedFuture(0);
+		}
+		boolean acquired;
+		try {
+			acquired = freeRows.tryAcquire(list.size(), offerTimeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException("interrupted while waiting for write-behind buffer", e);
+		}
+		if (!acquired) {
+			throw new RejectedExecutionException("write-behind buffer is full, pending rows: " + getPendingRows());
+		}
+
+		//与close互斥，关闭后放入的数据不会被写入线程遗漏
+		Entry<T> entry = new Entry<T>(new ArrayList<T>(list));
+		synchronized (this) {
+			if (closed) {
+				freeRows.release(list.size());
+				throw new RejectedExecutionException("write-behind buffer is closed");
+			}
+			queue.add(entry);
+		}
+		return entry.future;
+
+	}
+
+	/**不再接收数据，等待已接收的数据全部写入*/
+	public void close() {
+
+		synchronized (this) {
+			closed = true;
+		}
+		boolean interrupted = false;
+		while (flusher.isAlive()) {
+			try {
+				flusher.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		logger.info("--------->>>> write-behind buffer closed, {} rows in {} batches", rows, batches);
+
+	}
+
+	private void flushLoop() {
+
+		List<Entry<T>> batch = new ArrayList<Entry<T>>();
+		Entry<T> carry = null;//放不进上一批的数据，作为下一批的第一次调用
+		while (true) {
+
+			Entry<T> first = carry;
+			carry = null;
+			if (first == null) {
+				first = poll(POLL_MILLIS);
+				if (first == null) {
+					if (closed && queue.isEmpty()) {
+						return;
+					}
+					continue;
+				}
+			}
+
+			//从第一行放入时开始计时，凑满一批或等待超时后写入，关闭时不再等待
+			batch.add(first);
+			int batchRows = first.rows.size();
+			long deadline = first.enqueueNanos + maxDelayNanos;
+			while (batchRows < maxBatchSize) {
+				long waitNanos = closed ? 0 : deadline - System.nanoTime();
+				Entry<T> next = waitNanos > 0 ? poll(TimeUnit.NANOSECONDS.toMillis(waitNanos) + 1) : queue.poll();
+				if (next == null) {
+					break;
+				}
+				if (batchRows + next.rows.size() > maxBatchSize) {
+					carry = next;
+					break;
+				}
+				batch.add(next);
+				batchRows += next.rows.size();
+			}
+
+			write(batch);
+			batch.clear();
+
+		}
+
+	}
+
+	//只能通过close结束写入线程，保证已接收的数据都会写入，中断时不等待
+	private Entry<T> poll(long timeoutMillis) {
+		try {
+			return queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			return queue.poll();
+		}
+	}
+
+	//写入一批，失败时逐次重新写入，只让出错的调用失败
+	private void write(List<Entry<T>> batch) {
+
+		List<T> list = new ArrayList<T>();
+		for (Entry<T> entry : batch) {
+			list.addAll(entry.rows);
+		}
+
+		try {
+			batchWriter.accept(list);
+		} catch (Throwable e) {
+			if (batch.size() > 1) {
+				logger.warn("--------->>>> write-behind batch of {} rows failed, retry each of {} calls: {}", list.size(), batch.size(), e.getMessage());
+				for (Entry<T> entry : batch) {
+					write(Collections.singletonList(entry));
+				}
+				return;
+			}
+			logger.warn("--------->>>> write-behind write of {} rows failed: {}", list.size(), e.getMessage());
+			freeRows.release(list.size());
+			batch.get(0).future.completeExceptionally(e);
+			return;
+		}
+
+		rows += list.size();
+		batches++;
+		freeRows.release(list.size());
+		for (Entry<T> entry : batch) {
+			entry.future.complete(entry.rows.size());
+		}
+
+	}
+
+	private static class Entry<T> {
+
+		private final List<T> rows;
+		private final long enqueueNanos = System.nanoTime();
+		private final CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+
+		private Entry(List<T> rows) {
+			this.rows = rows;
+		}
+
+	}
+
+}
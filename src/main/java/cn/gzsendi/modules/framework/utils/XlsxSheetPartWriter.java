@@ -0,0 +1,70 @@
+package cn.gzsendi.modules.framework.utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把每个sheet的xml写入单独临时文件的写入引擎.
+ *
+ * <pre>
+ * 用于分片并行导出：每个分片在自己的线程中把数据写成完整的sheet xml临时文件，
+ * 全部分片完成后按顺序通过{@link XlsxStreamWriter#appendSheet(String, File)}组装进最终的xlsx。
+ * open时传入的输出流不会被使用，临时文件由调用方在组装完成后调用{@link #deleteSheetFiles()}删除。
+ * </pre>
+ */
+public class XlsxSheetPartWriter extends XlsxStreamWriter {
+
+	private final List<File> sheetFiles = new ArrayList<File>();
+
+	@Override
+	public void open(OutputStream out) throws IOException {
+		//sheet写入临时文件，不需要zip输出流
+	}
+
+	@Override
+	protected void openSheetPart(int sheetNumber) throws IOException {
+		File sheetFile = File.createTempFile("xlsx-sheet-", ".xml");
+		sheetFiles.add(sheetFile);
+		writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(sheetFile), StandardCharsets.UTF_8), BUFFER_SIZE);
+	}
+
+	@Override
+	protected void closeSheetPart() throws IOException {
+		writer.close();
+		writer = null;
+	}
+
+	@Override
+	public void finish() throws IOException {
+		//只需要结束最后一个sheet，workbook等描述文件由组装的XlsxStreamWriter输出
+		closeSheet();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (writer != null) {
+			writer.close();
+			writer = null;
+		}
+	}
+
+	/**按顺序生成的sheet临时文件*/
+	public List<File> getSheetFiles() {
+		return sheetFiles;
+	}
+
+	public void deleteSheetFiles() {
+		for (File sheetFile : sheetFiles) {
+			sheetFile.delete();
+		}
+		sheetFiles.clear();
+	}
+
+}
@@ -0,0 +1,375 @@
+package cn.gzsendi.modules.framework.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * 流式读取xlsx，与{@link XlsxStreamWriter}对应.
+ *
+ * <pre>
+ * XSSFWorkbook会把整个工作簿解析成DOM，百万行的文件需要几个G的内存。
+ * 这里用ZipFile按需读取压缩包中的条目（只有目录在内存中），SAX逐行解析sheet的xml，
+ * 每一行解析完成后回调{@link RowHandler}，单元格数组在行之间复用，内存占用与行数无关。
+ *
+ * 共享字符串表（sharedStrings.xml）需要按下标随机访问，会整体读入内存，大小取决于不重复的字符串个数。
+ * 单元格的值为原始文本：共享字符串和内联字符串取字符串本身，布尔值为TRUE/FALSE，数值为xml中的原始数字
+ * （科学计数法、多余的小数位会转换成普通写法），日期为excel的序列号，由调用方按目标类型转换，见{@link #isDate1904()}。
+ * </pre>
+ */
+public class XlsxStreamReader implements Closeable {
+
+	private static final String RELATIONSHIPS_NAMESPACE = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+	private static final String SHARED_STRINGS_TYPE_SUFFIX = "/sharedStrings";
+
+	//单元格数组的初始大小，列更多时自动扩容
+	private static final int INITIAL_COLUMNS = 16;
+	//xlsx的最大列数（XFD）
+	private static final int MAX_COLUMNS = 16384;
+	//按uniqueCount预分配共享字符串表的上限，避免异常文件申请过大的数组
+	private static final int MAX_PRESIZED_STRINGS = 1 << 16;
+
+	/**每一行解析完成后回调*/
+	public interface RowHandler {
+
+		/**
+		 * @param rowNumber 行号，从1开始，与excel中显示的一致
+		 * @param cells 各列的值，下标为列号（A为0），空单元格为null，数组在行之间复用，不能保存
+		 * @param cellCount 本行最后一个有值的列号+1
+		 */
+		void row(int rowNumber, String[] cells, int cellCount);
+
+	}
+
+	private final ZipFile zipFile;
+	private final SAXParserFactory parserFactory;
+
+	//workbook中第一个sheet的条目名，以及共享字符串表的条目名（没有时为null）
+	private String firstSheetEntry;
+	private String sharedStringsEntry;
+	private boolean date1904 = false;
+	private List<String> sharedStrings = null;
+
+	public XlsxStreamReader(File file) throws IOException {
+		this.zipFile = new ZipFile(file);
+		this.parserFactory = newParserFactory();
+		try {
+			readWorkbook();
+		} catch (IOException | RuntimeException e) {
+			zipFile.close();
+			throw e;
+		}
+	}
+
+	/**日期序列号是否以1904-01-01为起点（mac版excel的选项），默认以1899-12-30为起点*/
+	public boolean isDate1904() {
+		return date1904;
+	}
+
+	/**逐行读取第一个sheet*/
+	public void readFirstSheet(RowHandler rowHandler) throws IOException {
+
+		if (sharedStrings == null) {
+			sharedStrings = sharedStringsEntry == null ? new ArrayList<String>() : readSharedStrings(sharedStringsEntry);
+		}
+		parse(firstSheetEntry, new SheetHandler(rowHandler, sharedStrings));
+
+	}
+
+	@Override
+	public void close() throws IOException {
+		zipFile.close();
+	}
+
+	//从workbook.xml及其关系文件中找到第一个sheet和共享字符串表
+	private void readWorkbook() throws IOException {
+
+		final String[] firstSheetRelationId = new String[1];
+		parse("xl/workbook.xml", new DefaultHandler() {
+			@Override
+			public void startElement(String uri, String localName, String qName, Attributes attributes) {
+				if ("workbookPr".equals(localName)) {
+					String value = attributes.getValue("date1904");
+					date1904 = "1".equals(value) || "true".equalsIgnoreCase(value);
+				} else if ("sheet".equals(localName) && firstSheetRelationId[0] == null) {
+					firstSheetRelationId[0] = attributes.getValue(RELATIONSHIPS_NAMESPACE, "id");
+				}
+			}
+		});
+		if (firstSheetRelationId[0] == null) {
+			throw new IOException("invalid xlsx: no sheet in workbook");
+		}
+
+		final Map<String, String> targets = new HashMap<String, String>();
+		parse("xl/_rels/workbook.xml.rels", new DefaultHandler() {
+			@Override
+			public void startElement(String uri, String localName, String qName, Attributes attributes) {
+				if ("Relationship".equals(localName)) {
+					String target = resolveTarget(attributes.getValue("Target"));
+					targets.put(attributes.getValue("Id"), target);
+					String type = attributes.getValue("Type");
+					if (type != null && type.endsWith(SHARED_STRINGS_TYPE_SUFFIX)) {
+						sharedStringsEntry = target;
+					}
+				}
+			}
+		});
+		firstSheetEntry = targets.get(firstSheetRelationId[0]);
+		if (firstSheetEntry == null) {
+			throw new IOException("invalid xlsx: sheet relationship not found");
+		}
+
+	}
+
+	//关系中的Target相对于xl/目录，也可能是以/开头的绝对路径
+	private static String resolveTarget(String target) {
+		if (target == null) {
+			return null;
+		}
+		return target.startsWith("/") ? target.substring(1) : "xl/" + target;
+	}
+
+	private List<String> readSharedStrings(String entryName) throws IOException {
+		SharedStringsHandler handler = new SharedStringsHandler();
+		parse(entryName, handler);
+		return handler.strings;
+	}
+
+	private void parse(String entryName, DefaultHandler handler) throws IOException {
+
+		ZipEntry entry = zipFile.getEntry(entryName);
+		if (entry == null) {
+			throw new IOException("invalid xlsx: missing " + entryName);
+		}
+		try (InputStream in = zipFile.getInputStream(entry)) {
+			SAXParser parser = parserFactory.newSAXParser();
+			parser.parse(in, handler);
+		} catch (ParserConfigurationException | SAXException e) {
+			throw new IOException("invalid xlsx: failed to parse " + entryName, e);
+		}
+
+	}
+
+	//上传的文件不可信，禁止DTD和外部实体
+	private static SAXParserFactory newParserFactory() throws IOException {
+		try {
+			SAXParserFactory factory = SAXParserFactory.newInstance();
+			factory.setNamespaceAware(true);
+			factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+			factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+			factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+			factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+			return factory;
+		} catch (ParserConfigurationException | SAXException e) {
+			throw new IOException("failed to create xml parser", e);
+		}
+	}
+
+	/**列引用（如AB12）中字母部分对应的列号，A为0，没有字母时返回-1*/
+	static int columnIndex(String cellReference) {
+		int column = 0;
+		int i = 0;
+		for (; i < cellReference.length(); i++) {
+			char c = cellReference.charAt(i);
+			if (c >= 'A' && c <= 'Z') {
+				column = column * 26 + (c - 'A' + 1);
+			} else if (c >= 'a' && c <= 'z') {
+				column = column * 26 + (c - 'a' + 1);
+			} else {
+				break;
+			}
+		}
+		return i == 0 ? -1 : column - 1;
+	}
+
+	//sharedStrings.xml：每个<si>是一个字符串，富文本时由多个<r><t>拼接，<rPh>中的注音不算
+	private static class SharedStringsHandler extends DefaultHandler {
+
+		private List<String> strings = new ArrayList<String>();
+		private final StringBuilder text = new StringBuilder();
+		private boolean inText = false;
+		private boolean inPhonetic = false;
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) {
+			if ("sst".equals(localName)) {
+				String uniqueCount = attributes.getValue("uniqueCount");
+				if (uniqueCount != null) {
+					try {
+						strings = new ArrayList<String>(Math.max(0, Math.min(Integer.parseInt(uniqueCount), MAX_PRESIZED_STRINGS)));
+					} catch (NumberFormatException ignored) {
+						//只用于预分配，忽略
+					}
+				}
+			} else if ("si".equals(localName)) {
+				text.setLength(0);
+			} else if ("rPh".equals(localName)) {
+				inPhonetic = true;
+			} else if ("t".equals(localName) && !inPhonetic) {
+				inText = true;
+			}
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			if (inText) {
+				text.append(ch, start, length);
+			}
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) {
+			if ("t".equals(localName)) {
+				inText = false;
+			} else if ("rPh".equals(localName)) {
+				inPhonetic = false;
+			} else if ("si".equals(localName)) {
+				strings.add(text.toString());
+			}
+		}
+
+	}
+
+	//sheet的xml：<row r="2"><c r="A2" t="s"><v>0</v></c><c r="B2"><v>25</v></c></row>
+	private static class SheetHandler extends DefaultHandler {
+
+		private final RowHandler rowHandler;
+		private final List<String> sharedStrings;
+		private final StringBuilder value = new StringBuilder();
+
+		private String[] cells = new String[INITIAL_COLUMNS];
+		private int cellCount = 0;
+		private int rowNumber = 0;
+		private int column = -1;
+		private String cellType = null;
+		private boolean inValue = false;
+		private boolean hasValue = false;
+
+		private SheetHandler(RowHandler rowHandler, List<String> sharedStrings) {
+			this.rowHandler = rowHandler;
+			this.sharedStrings = sharedStrings;
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) {
+
+			if ("row".equals(localName)) {
+				String r = attributes.getValue("r");
+				rowNumber = r == null ? rowNumber + 1 : Integer.parseInt(r);
+				Arrays.fill(cells, 0, cellCount, null);
+				cellCount = 0;
+				column = -1;
+			} else if ("c".equals(localName)) {
+				String r = attributes.getValue("r");
+				int index = r == null ? -1 : columnIndex(r);
+				column = index < 0 ? column + 1 : index;
+				cellType = attributes.getValue("t");
+				value.setLength(0);
+				hasValue = false;
+			} else if ("v".equals(localName) || ("t".equals(localName) && "inlineStr".equals(cellType))) {
+				//内联字符串为<is><t>，富文本时有多个<t>
+				inValue = true;
+				hasValue = true;
+			}
+
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			if (inValue) {
+				value.append(ch, start, length);
+			}
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) {
+
+			if ("v".equals(localName) || "t".equals(localName)) {
+				inValue = false;
+			} else if ("c".equals(localName)) {
+				if (hasValue) {
+					setCell(column, cellValue());
+				}
+			} else if ("row".equals(localName)) {
+				rowHandler.row(rowNumber, cells, cellCount);
+			}
+
+		}
+
+		private String cellValue() {
+
+			String text = value.toString();
+			if (cellType == null || "n".equals(cellType)) {
+				return normalizeNumber(text, rowNumber);
+			}
+			switch (cellType) {
+				case "s":
+					int index = Integer.parseInt(text.trim());
+					if (index < 0 || index >= sharedStrings.size()) {
+						throw new IllegalArgumentException("invalid shared string index " + index + " at row " + rowNumber);
+					}
+					return sharedStrings.get(index);
+				case "b":
+					return "1".equals(text) || "true".equalsIgnoreCase(text) ? "TRUE" : "FALSE";
+				default:
+					//inlineStr、str（公式的字符串结果）、e（错误值，如#N/A）
+					return text;
+			}
+
+		}
+
+		//25、25.5保持不变；1.5E6、25.0转换成普通写法1500000、25，超出double范围的指数直接报错
+		private static String normalizeNumber(String text, int rowNumber) {
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (c == '.' || c == 'E' || c == 'e') {
+					BigDecimal number;
+					try {
+						number = new BigDecimal(text).stripTrailingZeros();
+					} catch (NumberFormatException e) {
+						return text;
+					}
+					//scale为负时toPlainString补-scale个0，为正时小数位数为scale
+					if (Math.abs(number.scale()) > ImportColumnPlan.MAX_NUMBER_SCALE) {
+						throw new IllegalArgumentException("number out of range at row " + rowNumber);
+					}
+					return number.toPlainString();
+				}
+			}
+			return text;
+		}
+
+		private void setCell(int index, String cellValue) {
+			if (index >= MAX_COLUMNS) {
+				throw new IllegalArgumentException("invalid column index " + index + " at row " + rowNumber);
+			}
+			if (index >= cells.length) {
+				cells = Arrays.copyOf(cells, Math.max(index + 1, cells.length * 2));
+			}
+			cells[index] = cellValue;
+			if (index >= cellCount) {
+				cellCount = index + 1;
+			}
+		}
+
+	}
+
+}
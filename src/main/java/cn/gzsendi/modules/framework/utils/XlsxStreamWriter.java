@@ -0,0 +1,444 @@
+package cn.gzsendi.modules.framework.utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * 直接输出xlsx的excel写入引擎.
+ *
+ * <pre>
+ * xlsx本身就是一个zip包，这里不经过POI的对象模型，也不写临时文件，
+ * 每写入一行就把sheet的xml直接编码进zip输出流，客户端可以边查询边下载。
+ *
+ * zip包中各个entry的顺序没有要求，所以先输出sheet数据，
+ * 最后（知道一共有几个sheet后）再输出workbook.xml、styles.xml、[Content_Types].xml等描述文件。
+ * 字符串统一使用inlineStr写入，不需要在内存中维护共享字符串表。
+ * 数值、日期、布尔直接写成对应类型的单元格，日期使用styles.xml中固定的第1号样式（yyyy-mm-dd hh:mm:ss）。
+ * 通过setColumnStyles设置了格式的列，从第2号样式开始按格式出现的顺序编号。
+ * </pre>
+ */
+public class XlsxStreamWriter implements ExcelSheetWriter {
+
+	private static final String SHEET_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+			+ "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">";
+	private static final String SHEET_DATA_START = "<sheetData>";
+	private static final String SHEET_FOOTER = "</sheetData></worksheet>";
+
+	//excel日期序列号的起点1899-12-30到1970-01-01的天数
+	private static final long EXCEL_EPOCH_OFFSET_DAYS = 25569L;
+	private static final double MILLIS_PER_DAY = 24D * 60 * 60 * 1000;
+
+	//styles.xml中cellXfs的日期样式索引
+	private static final String DATE_STYLE_INDEX = "1";
+	//自定义格式的样式索引和numFmtId的起始值，164已被日期格式使用
+	private static final int CUSTOM_STYLE_START = 2;
+	private static final int CUSTOM_NUM_FMT_START = 165;
+	//excel的最大列宽
+	private static final int MAX_COLUMN_WIDTH = 255;
+
+	//数值和日期单元格类型属性之后的部分
+	private static final String NUMBER_CELL_START = "\"><v>";
+	private static final String DATE_CELL_START = "\" s=\"" + DATE_STYLE_INDEX + "\"><v>";
+
+	//写入缓冲区大小，sheet的xml先在这里攒一批再交给zip压缩
+	protected static final int BUFFER_SIZE = 64 * 1024;
+
+	private ParallelZipOutputStream zos;
+	protected Writer writer;
+
+	//xlsx各个部件的压缩级别
+	private final ExportCompression compression;
+
+	//flush时是否把未满一块的数据也压缩输出，用于边导出边下载
+	private final boolean syncFlush;
+
+	//已创建的sheet名，sheet序号从1开始
+	private final List<String> sheetNames = new ArrayList<String>();
+	private boolean inSheet = false;
+
+	//当前行在excel中的行号，从1开始
+	private int currentRowNumber;
+
+	//日期转excel序列号时使用的时区，与SXSSF（POI的DateUtil）一致使用默认时区
+	private final TimeZone timeZone = TimeZone.getDefault();
+
+	//整数转字符时复用的缓冲区，避免每个数值单元格都生成一个String
+	private final char[] digits = new char[20];
+
+	//缓存列号对应的列名，如0->A，26->AA，避免每个单元格重复计算
+	private String[] columnNames = new String[0];
+
+	//设置了格式的列，数值和日期单元格的样式属性部分，null为默认样式
+	private String[] columnCellStarts = new String[0];
+	//自定义的格式，按出现的顺序对应样式索引
+	private final List<String> customFormats = new ArrayList<String>();
+	//每个sheet的列宽定义<cols>
+	private String colsXml = "";
+
+	public XlsxStreamWriter() {
+		this(ExportCompression.DEFAULT);
+	}
+
+	public XlsxStreamWriter(ExportCompression compression) {
+		this(compression, false);
+	}
+
+	public XlsxStreamWriter(ExportCompression compression, boolean syncFlush) {
+		this.compression = compression;
+		this.syncFlush = syncFlush;
+	}
+
+	@Override
+	public void open(OutputStream out) throws IOException {
+		//zip结束时不能把外层的输出流一起关掉（外层可能还要套一层zip），sheet的xml由多个线程并行压缩
+		zos = new ParallelZipOutputStream(new NonClosingOutputStream(out), compression, syncFlush);
+		writer = new BufferedWriter(new OutputStreamWriter(zos, StandardCharsets.UTF_8), BUFFER_SIZE);
+	}
+
+	@Override
+	public void setColumnStyles(String[] formats, int[] widths) throws IOException {
+
+		customFormats.clear();
+		columnCellStarts = new String[formats == null ? 0 : formats.length];
+		for (int i = 0; i < columnCellStarts.length; i++) {
+			String format = formats[i];
+			if (format == null || format.isEmpty()) {
+				continue;
+			}
+			int formatIndex = customFormats.indexOf(format);
+			if (formatIndex < 0) {
+				customFormats.add(format);
+				formatIndex = customFormats.size() - 1;
+			}
+			columnCellStarts[i] = "\" s=\"" + (CUSTOM_STYLE_START + formatIndex) + "\"><v>";
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; widths != null && i < widths.length; i++) {
+			if (widths[i] > 0) {
+				sb.append("<col min=\"").append(i + 1).append("\" max=\"").append(i + 1)
+						.append("\" width=\"").append(Math.min(widths[i], MAX_COLUMN_WIDTH)).append("\" customWidth=\"1\"/>");
+			}
+		}
+		colsXml = sb.length() == 0 ? "" : "<cols>" + sb + "</cols>";
+
+	}
+
+	@Override
+	public void createSheet(String sheetName) throws IOException {
+		closeSheet();
+		sheetNames.add(sheetName);
+		openSheetPart(sheetNames.size());
+		writer.write(SHEET_HEADER);
+		writer.write(colsXml);
+		writer.write(SHEET_DATA_START);
+		inSheet = true;
+	}
+
+	/**把已经生成好的完整sheet xml文件（如分片导出的临时文件）作为一个新的sheet加入xlsx*/
+	public void appendSheet(String sheetName, File sheetFile) throws IOException {
+		closeSheet();
+		sheetNames.add(sheetName);
+		openSheetPart(sheetNames.size());
+		writer.flush();
+		Files.copy(sheetFile.toPath(), zos);
+		closeSheetPart();
+	}
+
+	/**xlsx各部件压缩前的字节数*/
+	public long getUncompressedBytes() {
+		return zos == null ? 0 : zos.getUncompressedBytes();
+	}
+
+	/**xlsx压缩后的字节数*/
+	public long getCompressedBytes() {
+		return zos == null ? 0 : zos.getBytesWritten();
+	}
+
+	/**压缩耗时*/
+	public long getDeflateNanos() {
+		return zos == null ? 0 : zos.getDeflateNanos();
+	}
+
+	/**已创建的sheet数*/
+	public int getSheetCount() {
+		return sheetNames.size();
+	}
+
+	@Override
+	public void startRow(int rowNumber) throws IOException {
+		currentRowNumber = rowNumber + 1;
+		writer.write("<row r=\"");
+		writer.write(Integer.toString(currentRowNumber));
+		writer.write("\">");
+	}
+
+	@Override
+	public void writeString(int cellNumber, String value) throws IOException {
+		//空值不输出单元格，excel中即为空白
+		if (value == null || value.isEmpty()) {
+			return;
+		}
+		startCell(cellNumber);
+		writer.write("\" t=\"inlineStr\"><is>");
+		if (Character.isWhitespace(value.charAt(0)) || Character.isWhitespace(value.charAt(value.length() - 1))) {
+			writer.write("<t xml:space=\"preserve\">");
+		} else {
+			writer.write("<t>");
+		}
+		writeEscaped(value);
+		writer.write("</t></is></c>");
+	}
+
+	@Override
+	public void writeNumber(int cellNumber, long value) throws IOException {
+		startCell(cellNumber);
+		writer.write(cellStart(cellNumber, NUMBER_CELL_START));
+		writeLong(value);
+		writer.write("</v></c>");
+	}
+
+	@Override
+	public void writeNumber(int cellNumber, double value) throws IOException {
+		//NaN和Infinity在xlsx中不是合法的数值，按字符串写入
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			writeString(cellNumber, Double.toString(value));
+			return;
+		}
+		startCell(cellNumber);
+		writer.write(cellStart(cellNumber, NUMBER_CELL_START));
+		writer.write(Double.toString(value));
+		writer.write("</v></c>");
+	}
+
+	@Override
+	public void writeNumber(int cellNumber, BigDecimal value) throws IOException {
+		startCell(cellNumber);
+		writer.write(cellStart(cellNumber, NUMBER_CELL_START));
+		//toString对scale为负的值会输出1E+3这样的科学计数法
+		writer.write(value.toPlainString());
+		writer.write("</v></c>");
+	}
+
+	@Override
+	public void writeDate(int cellNumber, Date value) throws IOException {
+		long millis = value.getTime();
+		double excelDate = (millis + timeZone.getOffset(millis)) / MILLIS_PER_DAY + EXCEL_EPOCH_OFFSET_DAYS;
+		startCell(cellNumber);
+		writer.write(cellStart(cellNumber, DATE_CELL_START));
+		writer.write(Double.toString(excelDate));
+		writer.write("</v></c>");
+	}
+
+	@Override
+	public void writeBoolean(int cellNumber, boolean value) throws IOException {
+		startCell(cellNumber);
+		writer.write(value ? "\" t=\"b\"><v>1</v></c>" : "\" t=\"b\"><v>0</v></c>");
+	}
+
+	@Override
+	public void endRow() throws IOException {
+		writer.write("</row>");
+	}
+
+	@Override
+	public void flush() throws IOException {
+		//flush会一直传递到zip和最外层的输出流
+		if (writer != null) {
+			writer.flush();
+		}
+	}
+
+	@Override
+	public void finish() throws IOException {
+		closeSheet();
+		writeEntry("xl/workbook.xml", workbookXml());
+		writeEntry("xl/_rels/workbook.xml.rels", workbookRelsXml());
+		writeEntry("xl/styles.xml", stylesXml());
+		writeEntry("_rels/.rels", "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+				+ "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+				+ "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"xl/workbook.xml\"/>"
+				+ "</Relationships>");
+		writeEntry("[Content_Types].xml", contentTypesXml());
+		writer.flush();
+		zos.finish();
+	}
+
+	@Override
+	public void close() throws IOException {
+		//没有临时文件需要清理，正常结束时finish已经输出完毕，这里只取消未完成的压缩任务；
+		//不能调用zos.close()，没有finish时它会先写入中央目录，出错时输出一个截断但格式完整的zip
+		if (zos != null) {
+			zos.abort();
+			zos = null;
+		}
+	}
+
+	//写入单元格开始部分<c r="A1"，调用方接着写类型属性
+	private void startCell(int cellNumber) throws IOException {
+		writer.write("<c r=\"");
+		writer.write(columnName(cellNumber));
+		writer.write(Integer.toString(currentRowNumber));
+	}
+
+	//列设置了格式时使用列的样式，否则使用默认的
+	private String cellStart(int cellNumber, String defaultCellStart) {
+		String cellStart = cellNumber < columnCellStarts.length ? columnCellStarts[cellNumber] : null;
+		return cellStart == null ? defaultCellStart : cellStart;
+	}
+
+	private void writeLong(long value) throws IOException {
+		if (value == Long.MIN_VALUE) {
+			writer.write(Long.toString(value));
+			return;
+		}
+		boolean negative = value < 0;
+		long remaining = negative ? -value : value;
+		int pos = digits.length;
+		do {
+			digits[--pos] = (char) ('0' + (remaining % 10));
+			remaining /= 10;
+		} while (remaining != 0);
+		if (negative) {
+			digits[--pos] = '-';
+		}
+		writer.write(digits, pos, digits.length - pos);
+	}
+
+	private String columnName(int cellNumber) {
+		if (cellNumber >= columnNames.length) {
+			String[] names = new String[Math.max(cellNumber + 1, columnNames.length * 2)];
+			System.arraycopy(columnNames, 0, names, 0, columnNames.length);
+			for (int i = columnNames.length; i < names.length; i++) {
+				StringBuilder sb = new StringBuilder();
+				for (int n = i + 1; n > 0; n = (n - 1) / 26) {
+					sb.insert(0, (char) ('A' + (n - 1) % 26));
+				}
+				names[i] = sb.toString();
+			}
+			columnNames = names;
+		}
+		return columnNames[cellNumber];
+	}
+
+	//xml转义，并去掉xml中不允许出现的控制字符
+	private void writeEscaped(String value) throws IOException {
+		for (int i = 0, len = value.length(); i < len; i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '<': writer.write("&lt;"); break;
+				case '>': writer.write("&gt;"); break;
+				case '&': writer.write("&amp;"); break;
+				case '"': writer.write("&quot;"); break;
+				default:
+					if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+						writer.write(c);
+					}
+			}
+		}
+	}
+
+	private static String escape(String value) {
+		return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+
+	protected void closeSheet() throws IOException {
+		if (inSheet) {
+			writer.write(SHEET_FOOTER);
+			closeSheetPart();
+			inSheet = false;
+		}
+	}
+
+	/**开始输出第sheetNumber个sheet的xml，默认写入zip中的一个entry，子类可以改为写入其它地方*/
+	protected void openSheetPart(int sheetNumber) throws IOException {
+		zos.putNextEntry("xl/worksheets/sheet" + sheetNumber + ".xml");
+	}
+
+	/**当前sheet的xml输出完毕*/
+	protected void closeSheetPart() throws IOException {
+		writer.flush();
+		zos.closeEntry();
+	}
+
+	private void writeEntry(String name, String content) throws IOException {
+		zos.putNextEntry(name);
+		writer.write(content);
+		writer.flush();
+		zos.closeEntry();
+	}
+
+	private String workbookXml() {
+		StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+				+ "<workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" "
+				+ "xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\"><sheets>");
+		for (int i = 1; i <= sheetNames.size(); i++) {
+			sb.append("<sheet name=\"").append(escape(sheetNames.get(i - 1)))
+					.append("\" sheetId=\"").append(i).append("\" r:id=\"rId").append(i).append("\"/>");
+		}
+		return sb.append("</sheets></workbook>").toString();
+	}
+
+	private String workbookRelsXml() {
+		StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+				+ "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">");
+		for (int i = 1; i <= sheetNames.size(); i++) {
+			sb.append("<Relationship Id=\"rId").append(i)
+					.append("\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\" Target=\"worksheets/sheet")
+					.append(i).append(".xml\"/>");
+		}
+		sb.append("<Relationship Id=\"rId").append(sheetNames.size() + 1)
+				.append("\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/styles\" Target=\"styles.xml\"/>");
+		return sb.append("</Relationships>").toString();
+	}
+
+	private String stylesXml() {
+		StringBuilder numFmts = new StringBuilder("<numFmts count=\"").append(1 + customFormats.size())
+				.append("\"><numFmt numFmtId=\"164\" formatCode=\"yyyy-mm-dd hh:mm:ss\"/>");
+		StringBuilder customXfs = new StringBuilder();
+		for (int i = 0; i < customFormats.size(); i++) {
+			numFmts.append("<numFmt numFmtId=\"").append(CUSTOM_NUM_FMT_START + i)
+					.append("\" formatCode=\"").append(escape(customFormats.get(i))).append("\"/>");
+			customXfs.append("<xf numFmtId=\"").append(CUSTOM_NUM_FMT_START + i)
+					.append("\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyNumberFormat=\"1\"/>");
+		}
+		numFmts.append("</numFmts>");
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+				+ "<styleSheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">"
+				+ numFmts
+				+ "<fonts count=\"1\"><font><sz val=\"11\"/><name val=\"Calibri\"/></font></fonts>"
+				+ "<fills count=\"2\"><fill><patternFill patternType=\"none\"/></fill><fill><patternFill patternType=\"gray125\"/></fill></fills>"
+				+ "<borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>"
+				+ "<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>"
+				+ "<cellXfs count=\"" + (CUSTOM_STYLE_START + customFormats.size()) + "\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/>"
+				+ "<xf numFmtId=\"164\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyNumberFormat=\"1\"/>"
+				+ customXfs + "</cellXfs>"
+				+ "</styleSheet>";
+	}
+
+	private String contentTypesXml() {
+		StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+				+ "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+				+ "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+				+ "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+				+ "<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>"
+				+ "<Override PartName=\"/xl/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>");
+		for (int i = 1; i <= sheetNames.size(); i++) {
+			sb.append("<Override PartName=\"/xl/worksheets/sheet").append(i)
+					.append(".xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>");
+		}
+		return sb.append("</Types>").toString();
+	}
+
+}
@@ -1,15 +1,25 @@
 package cn.gzsendi.modules.user.controller;
 
-import java.util.LinkedList;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.http.HttpServletResponse;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
 
+import cn.gzsendi.modules.framework.utils.ExportFetchStrategy;
 import cn.gzsendi.modules.user.model.User;
 import cn.gzsendi.modules.user.service.UserService;
 
@@ -22,40 +32,93 @@ public class UserController {
 	
 	@Autowired
 	private UserService userService;
+	
+	//批量插入测试的数据行数
+	private static final int TEST_USER_COUNT = 1000101;
 
 	//1.插入1000101行测试数据
 	//http://localhost:8080/test/user/batchInsert
 	@RequestMapping(value="/batchInsert", method = RequestMethod.GET)
-	public String batchInsert(){
+	public Object batchInsert(){
 
 		logger.info("method starting...");
 		long startTime = System.currentTimeMillis();
 		
-		//每次批量插入2000条记录，提高插入效率
-		int batchSize = 2000;
+		//数据在读取时才逐行生成，每import.batchSize行一批，由多个写入线程在不同连接上并行插入，最后不满一批的数据也会写入
+		Map<String, Object> result = userService.parallelBatchInsert(testUsers(TEST_USER_COUNT));
+		
+		long endTime = System.currentTimeMillis();
 
-		List<User> list = new LinkedList<User>();
-		for(int i=0;i<1000101;i++){
+		logger.info("method finished,total spend time: {} ms.",(endTime-startTime));
+
+		return result;
+	}
+	
+	//插入一行，与其他请求的数据合并成一批写入，不单独占用一次数据库往返，写入后才返回
+	//http://localhost:8080/test/user/insertWriteBehind?username=test&age=18
+	@RequestMapping(value="/insertWriteBehind", method = RequestMethod.GET)
+	public Object insertWriteBehind(@RequestParam("username") String username, @RequestParam("age") Integer age, HttpServletResponse response){
+		
+		User user = new User();
+		user.setUsername(username);
+		user.setAge(age);
+		
+		try {
 			
-			User user = new User();
-			user.setUsername("name"+ i);
-			user.setAge(18);
+			//返回CompletableFuture时请求异步完成，等待写入期间不占用http线程
+			return userService.insertWriteBehind(Collections.singletonList(user));
 			
-			list.add(user);
+		} catch (RejectedExecutionException e) {
 			
-			if(list.size()>0 && list.size() % batchSize == 0) {
-				userService.batchInsert(list);
-				logger.info("has batchInsert size: {}", i);
-				list.clear();//清除list
-			}
+			logger.warn("write-behind buffer rejected: {}", e.getMessage());
+			response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return "insert buffer is full, please try again later";
 			
 		}
 		
+	}
+	
+	//按唯一键(username,age)批量插入或更新，重复提交不会失败，返回每批的插入、更新、未变化行数
+	//curl -H "Content-Type: application/json" -d '[{"username":"name1","age":18},{"username":"name1","age":18}]' http://localhost:8080/test/user/upsert
+	@RequestMapping(value="/upsert", method = RequestMethod.POST)
+	public Object upsert(@RequestBody List<User> list){
+		
+		return userService.upsert(list);
+		
+	}
+	
+	//通过LOAD DATA LOCAL INFILE插入1000101行测试数据，数据在发送时才逐行生成，不需要先放进list
+	//http://localhost:8080/test/user/bulkLoad
+	@RequestMapping(value="/bulkLoad", method = RequestMethod.GET)
+	public Object bulkLoad(){
+
+		logger.info("method starting...");
+		long startTime = System.currentTimeMillis();
+		
+		long loaded = userService.bulkLoad(testUsers(TEST_USER_COUNT));
+		
 		long endTime = System.currentTimeMillis();
 
-		logger.info("method finished,total spend time: {} ms.",(endTime-startTime));
+		logger.info("method finished, loaded {} rows, total spend time: {} ms.", loaded, (endTime-startTime));
 
-		return "batchInsert";
+		return loaded;
+	}
+	
+	//使用BATCH执行器插入1000101行测试数据，每行一条单行insert，由驱动按批合并发送
+	//http://localhost:8080/test/user/jdbcBatchInsert
+	@RequestMapping(value="/jdbcBatchInsert", method = RequestMethod.GET)
+	public Object jdbcBatchInsert(){
+
+		logger.info("method starting...");
+		long startTime = System.currentTimeMillis();
+		
+		long inserted = userService.jdbcBatchInsert(testUsers(TEST_USER_COUNT));
+		
+		long endTime = System.currentTimeMillis();
+
+		logger.info("method finished, inserted {} rows, total spend time: {} ms.", inserted, (endTime-startTime));
+
+		return inserted;
 	}
 	
 	//http://localhost:8080/test/user/queryById
@@ -92,15 +155,65 @@ public class UserController {
 
 	}
 	
-	//http://localhost:8080/test/user/export
+	//fields为需要导出的字段，多个用逗号分隔，不传时导出全部字段，sql只查询需要导出的列
+	//http://localhost:8080/test/user/export?fields=username,age
 	@RequestMapping(value="/export", method = RequestMethod.GET)
-	public Object export(){
+	public Object export(@RequestParam(value="fields", required=false) List<String> fields, HttpServletResponse response){
 
 		logger.info("method starting...");
 		long startTime = System.currentTimeMillis();
 
 		//调用service方法进行excel的导出
-		userService.export();
+		try {
+			userService.export(fields);
+		} catch (IllegalArgumentException e) {
+			logger.warn("invalid export fields: {}", fields);
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			return e.getMessage();
+		}
+
+		long endTime = System.currentTimeMillis();
+
+		logger.info("method finished,total spend time: {} ms.",(endTime-startTime));
+
+		return "ok";
+
+	}
+	
+	//导出csv，format=tsv时导出tsv，gzip=true时输出gzip压缩文件
+	//http://localhost:8080/test/user/exportCsv?format=tsv&gzip=true
+	@RequestMapping(value="/exportCsv", method = RequestMethod.GET)
+	public Object exportCsv(@RequestParam(value="format", defaultValue="csv") String format,
+			@RequestParam(value="gzip", defaultValue="false") boolean gzip){
+
+		logger.info("method starting...");
+		long startTime = System.currentTimeMillis();
+
+		userService.exportCsv("tsv".equalsIgnoreCase(format), gzip);
+
+		long endTime = System.currentTimeMillis();
+
+		logger.info("method finished,total spend time: {} ms.",(endTime-startTime));
+
+		return "ok";
+
+	}
+	
+	//按主键范围分片并行导出
+	//http://localhost:8080/test/user/exportSharded?fields=username,age
+	@RequestMapping(value="/exportSharded", method = RequestMethod.GET)
+	public Object exportSharded(@RequestParam(value="fields", required=false) List<String> fields, HttpServletResponse response){
+
+		logger.info("method starting...");
+		long startTime = System.currentTimeMillis();
+
+		try {
+			userService.exportSharded(fields);
+		} catch (IllegalArgumentException e) {
+			logger.warn("invalid export fields: {}", fields);
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			return e.getMessage();
+		}
 
 		long endTime = System.currentTimeMillis();
 
@@ -109,5 +222,100 @@ public class UserController {
 		return "ok";
 
 	}
+	
+	//查询结果为map的导出（报表类查询），每行按共享的列索引取值
+	//http://localhost:8080/test/user/exportMap
+	@RequestMapping(value="/exportMap", method = RequestMethod.GET)
+	public Object exportMap(){
+
+		logger.info("method starting...");
+		long startTime = System.currentTimeMillis();
+
+		userService.exportMap();
+
+		long endTime = System.currentTimeMillis();
+
+		logger.info("method finished,total spend time: {} ms.",(endTime-startTime));
+
+		return "ok";
+
+	}
+	
+	//流式导入excel，第一行为表头（姓名、年龄或username、age），不论文件多大内存占用都是固定的
+	//upsert=true时按唯一键(username,age)插入或更新，同一个文件可以重复导入，返回插入、更新、未变化的行数
+	//curl -F "file=@user.xlsx" http://localhost:8080/test/user/importExcel?upsert=true
+	@RequestMapping(value="/importExcel", method = RequestMethod.POST)
+	public Object importExcel(@RequestParam("file") MultipartFile file,
+			@RequestParam(value="upsert", defaultValue="false") boolean upsert, HttpServletResponse response) throws IOException{
+
+		logger.info("method starting...");
+
+		try {
+			return userService.importExcel(file, upsert);
+		} catch (IllegalArgumentException e) {
+			logger.warn("invalid import file: {}", e.getMessage());
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			return e.getMessage();
+		}
+
+	}
+	
+	//比较流式查询、服务端游标、主键分页在当前数据上的吞吐和内存分配，只读取数据不生成excel
+	//fetchSize为游标每批和分页每页的行数，不传时使用配置；rounds为每种方式执行的轮数（另有一轮预热）
+	//http://localhost:8080/test/user/fetchBenchmark?strategies=STREAM,CURSOR,KEYSET&fetchSize=1000&rounds=3
+	@RequestMapping(value="/fetchBenchmark", method = RequestMethod.GET)
+	public Object fetchBenchmark(@RequestParam(value="strategies", defaultValue="STREAM,CURSOR,KEYSET") List<ExportFetchStrategy> strategies,
+			@RequestParam(value="fetchSize", required=false) Integer fetchSize,
+			@RequestParam(value="rounds", defaultValue="3") int rounds, HttpServletResponse response){
+
+		if (rounds < 1 || rounds > 10 || (fetchSize != null && fetchSize < 1)) {
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			return "rounds must be between 1 and 10, fetchSize must be greater than 0";
+		}
+		
+		return userService.fetchBenchmark(strategies, fetchSize, rounds);
+
+	}
+	
+	//提交异步导出任务，立即返回任务信息，通过/export/jobs/{jobId}查询进度，完成后通过/export/jobs/{jobId}/download下载
+	//http://localhost:8080/test/user/exportJob
+	@RequestMapping(value="/exportJob", method = RequestMethod.POST)
+	public Object exportJob(HttpServletResponse response){
+
+		try {
+			
+			return userService.submitExportJob();
+			
+		} catch (RejectedExecutionException e) {
+			
+			logger.warn("export job queue is full");
+			response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return "export job queue is full, please try again later";
+			
+		}
+
+	}
+
+	//测试数据，在读取时才逐行生成，不需要先放进list
+	private Iterator<User> testUsers(final int total) {
+		
+		return new Iterator<User>() {
+			
+			private int i = 0;
+			
+			public boolean hasNext() {
+				return i < total;
+			}
+			
+			public User next() {
+				User user = new User();
+				user.setUsername("name"+ i++);
+				user.setAge(18);
+				return user;
+			}
+			
+		};
+		
+	}
 
 }
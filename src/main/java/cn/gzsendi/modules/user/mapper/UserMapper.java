@@ -1,7 +1,9 @@
 package cn.gzsendi.modules.user.mapper;
 
 import java.util.List;
+import java.util.Map;
 
+import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.session.ResultHandler;
 import org.springframework.stereotype.Repository;
 
@@ -14,12 +16,40 @@ public interface UserMapper {
 	
 	int batchInsert(List<User> list);
 	
+	/**单行插入，在BATCH执行器中逐行调用，由驱动合并成批量insert*/
+	int insert(User user);
+	
 	/**根据主键查询*/
 	public User queryById(Integer id);
 
 	/**ResultHandler测试，这里我没加参数，可以加上你的条件参数**/
 	public void resultHandlerTest(ResultHandler<User> resultHandler);
 	
-	/**导出，mapper的方法需要是void返回，并且参数中含ResultHandler(流式查询遍历的条件)，这里我没加参数，可以加上你的条件参数*/
-	public void export(ResultHandler<User> resultHandler);
+	/**导出，mapper的方法需要是void返回，并且参数中含ResultHandler(流式查询遍历的条件)，这里我没加参数，可以加上你的条件参数
+	 * columns为需要查询的列，由ExportProjection生成，为null时查询全部列*/
+	public void export(@Param("columns") String columns, ResultHandler<User> resultHandler);
+	
+	/**主键最小值，分片导出时用于切分主键范围，没有数据时返回null*/
+	public Long selectMinId();
+	
+	/**主键最大值*/
+	public Long selectMaxId();
+	
+	/**表版本信号（行数-最大修改时间），插入、原地更新和删除后都会变化，用于导出缓存*/
+	public String selectTableVersion();
+	
+	/**没有update_time列的旧表使用的表版本信号（行数-最大主键），原地更新后不会变化*/
+	public String selectTableVersionById();
+	
+	/**导出，结果为map（列名转驼峰后作为key），用于没有对应model的报表类查询*/
+	public void exportMap(ResultHandler<Map<String, Object>> resultHandler);
+	
+	/**分片导出，流式查询主键在[minId,maxId]范围内的数据*/
+	public void exportByIdRange(@Param("minId") long minId, @Param("maxId") long maxId, @Param("columns") String columns, ResultHandler<User> resultHandler);
+	
+	/**导出，使用服务端游标按批读取，需要在CursorFetchInterceptor.fetch中调用*/
+	public void exportByCursor(@Param("columns") String columns, ResultHandler<User> resultHandler);
+	
+	/**按主键分页导出，查询主键大于lastId的前limit行，按主键升序，lastId为null时从第一行开始*/
+	public List<User> exportAfterId(@Param("lastId") Long lastId, @Param("limit") int limit, @Param("columns") String columns);
 }
@@ -1,10 +1,22 @@
 package cn.gzsendi.modules.user.model;
 
+import cn.gzsendi.modules.framework.annotation.ExcelColumn;
+
 public class User{
 	
+	//主键，不导出，按主键分页导出时作为检查点
+	private Long id;
+	@ExcelColumn(header = "姓名", order = 1, width = 20)
 	private String username;
+	@ExcelColumn(header = "年龄", order = 2, width = 8)
 	private int age;
 	
+	public Long getId() {
+		return id;
+	}
+	public void setId(Long id) {
+		this.id = id;
+	}
 	public String getUsername() {
 		return username;
 	}
@@ -1,7 +1,16 @@
 package cn.gzsendi.modules.user.service;
 
+import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+import org.springframework.web.multipart.MultipartFile;
+
+import cn.gzsendi.modules.export.model.ExportJob;
+import cn.gzsendi.modules.framework.utils.BatchUpserter;
+import cn.gzsendi.modules.framework.utils.ExportFetchStrategy;
 import cn.gzsendi.modules.user.model.User;
 
 /**
@@ -11,13 +20,52 @@ public interface UserService {
 	
 	int batchInsert(List<User> list);
 	
+	/**按唯一键(username,age)批量插入或更新，返回每批的插入、更新、未变化行数*/
+	public List<BatchUpserter.BatchCounts> upsert(List<User> list);
+	
+	/**放入延迟合并写入的缓冲区，与其他调用的数据合并成一批插入，插入后future完成，缓冲区已满时抛出RejectedExecutionException*/
+	public CompletableFuture<Integer> insertWriteBehind(List<User> list);
+	
+	/**多个连接并行批量插入，返回行数、批数、耗时、吞吐量等信息*/
+	public Map<String, Object> parallelBatchInsert(Iterator<User> rows);
+	
+	/**通过LOAD DATA LOCAL INFILE批量写入，返回写入的行数*/
+	public long bulkLoad(List<User> list);
+	
+	/**通过LOAD DATA LOCAL INFILE批量写入，rows在发送时才逐行读取*/
+	public long bulkLoad(Iterator<User> rows);
+	
+	/**使用BATCH执行器批量插入，批大小按耗时自动调整，返回写入的行数*/
+	public long jdbcBatchInsert(List<User> list);
+	
+	/**使用BATCH执行器批量插入，rows逐行读取*/
+	public long jdbcBatchInsert(Iterator<User> rows);
+	
 	/**根据主键查询*/
 	public User queryById(Integer id);
 
 	/**resultHandler写法测试*/
 	public void resultHandlerTest();
 
-	/**导出*/
-	public void export();
+	/**导出，fields为需要导出的字段，为null时导出全部字段*/
+	public void export(List<String> fields);
+
+	/**导出csv/tsv，tsv为true时以tab分隔，gzip为true时输出gzip压缩文件*/
+	public void exportCsv(boolean tsv, boolean gzip);
+
+	/**按主键范围分片并行导出，fields为需要导出的字段，为null时导出全部字段*/
+	public void exportSharded(List<String> fields);
+
+	/**查询结果为map的导出*/
+	public void exportMap();
+
+	/**流式导入excel，upsert为true时按唯一键插入或更新，返回导入的行数等信息*/
+	public Map<String, Object> importExcel(MultipartFile file, boolean upsert) throws IOException;
+
+	/**比较各种取数方式的速度和内存，fetchSize为null时使用配置*/
+	public Map<String, Object> fetchBenchmark(List<ExportFetchStrategy> strategies, Integer fetchSize, int rounds);
+
+	/**提交异步导出任务*/
+	public ExportJob submitExportJob();
 
 }
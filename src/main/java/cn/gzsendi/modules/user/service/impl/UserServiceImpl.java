@@ -1,14 +1,55 @@
 package cn.gzsendi.modules.user.service.impl;
 
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
 
 import org.apache.ibatis.session.ResultContext;
 import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.BadSqlGrammarException;
 import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
 
+import cn.gzsendi.config.mybatis.CursorFetchInterceptor;
+import cn.gzsendi.modules.export.model.ExportJob;
+import cn.gzsendi.modules.export.model.ExportPermit;
+import cn.gzsendi.modules.export.service.ExportAdmissionService;
+import cn.gzsendi.modules.export.service.ExportCacheService;
+import cn.gzsendi.modules.export.service.ExportJobService;
+import cn.gzsendi.modules.framework.metrics.FetchBenchmark;
+import cn.gzsendi.modules.framework.utils.AdaptiveBatchSizer;
+import cn.gzsendi.modules.framework.utils.BatchUpserter;
+import cn.gzsendi.modules.framework.utils.CsvResultHandler;
+import cn.gzsendi.modules.framework.utils.ExcelImporter;
 import cn.gzsendi.modules.framework.utils.ExcelResultHandler;
+import cn.gzsendi.modules.framework.utils.ExportCompression;
+import cn.gzsendi.modules.framework.utils.ExportFetchStrategy;
+import cn.gzsendi.modules.framework.utils.ExportProjection;
+import cn.gzsendi.modules.framework.utils.JdbcBatchInserter;
+import cn.gzsendi.modules.framework.utils.KeysetPager;
+import cn.gzsendi.modules.framework.utils.LocalInfileLoader;
+import cn.gzsendi.modules.framework.utils.ParallelBatchWriter;
+import cn.gzsendi.modules.framework.utils.ShardedExcelResultHandler;
+import cn.gzsendi.modules.framework.utils.WriteBehindBuffer;
 import cn.gzsendi.modules.user.mapper.UserMapper;
 import cn.gzsendi.modules.user.model.User;
 import cn.gzsendi.modules.user.service.UserService;
@@ -16,9 +57,126 @@ import cn.gzsendi.modules.user.service.UserService;
 @Service
 public class UserServiceImpl implements UserService{
 	
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+	
+	private static final int MYSQL_UNKNOWN_COLUMN = 1054;
+	
 	@Autowired
 	private UserMapper userMapper;
 	
+	@Autowired
+	private ExportJobService exportJobService;
+	
+	@Autowired
+	private ExportCacheService exportCacheService;
+	
+	@Autowired
+	private ExportAdmissionService exportAdmissionService;
+	
+	//批量写入专用的连接池，只有这个池的连接允许LOAD DATA LOCAL INFILE，并且按实际变化返回影响行数
+	@Autowired
+	@Qualifier("bulkDataSource")
+	private DataSource bulkDataSource;
+	
+	@Autowired
+	@Qualifier("defaultSqlSessionFactory")
+	private SqlSessionFactory sqlSessionFactory;
+	
+	//每个sheet最多导出的行数，超过后自动写入下一个sheet
+	@Value("${export.maxRowsPerSheet:1048575}")
+	private int maxRowsPerSheet;
+	
+	//分片导出的分片数，每个分片占用一个数据库连接
+	@Value("${export.shards:4}")
+	private int shards;
+	
+	//导出文件的压缩级别
+	@Value("${export.compression:DEFAULT}")
+	private ExportCompression compression;
+	
+	//每导出多少行输出一次给客户端，0为不主动输出
+	@Value("${export.flushEveryRows:0}")
+	private int flushEveryRows;
+	
+	//查询和写入流水线的缓冲行数，0为不启用
+	@Value("${export.pipelineBufferSize:0}")
+	private int pipelineBufferSize;
+	
+	//读取导出数据的方式，流式查询或按主键分页
+	@Value("${export.fetchStrategy:STREAM}")
+	private ExportFetchStrategy fetchStrategy;
+	
+	//服务端游标每批读取的行数
+	@Value("${export.cursorFetchSize:1000}")
+	private int cursorFetchSize;
+	
+	//按主键分页时每页的行数
+	@Value("${export.keysetPageSize:5000}")
+	private int keysetPageSize;
+	
+	//导入时每批插入的行数
+	@Value("${import.batchSize:2000}")
+	private int importBatchSize;
+	
+	//导入时解析和插入之间最多缓冲的批数
+	@Value("${import.queueBatches:2}")
+	private int importQueueBatches;
+	
+	//LOAD DATA LOCAL INFILE每条语句写入的行数
+	@Value("${import.loadDataRowsPerStatement:100000}")
+	private int loadDataRowsPerStatement;
+	
+	//并行批量插入的写入线程数
+	@Value("${import.writers:4}")
+	private int importWriters;
+	
+	//BATCH执行器批量插入的批大小范围
+	@Value("${import.jdbcBatch.initialSize:1000}")
+	private int jdbcBatchInitialSize;
+	
+	@Value("${import.jdbcBatch.minSize:100}")
+	private int jdbcBatchMinSize;
+	
+	@Value("${import.jdbcBatch.maxSize:20000}")
+	private int jdbcBatchMaxSize;
+	
+	//一批的目标耗时上限
+	@Value("${import.jdbcBatch.targetBatchMillis:500}")
+	private long jdbcBatchTargetMillis;
+	
+	//延迟合并写入每批最多的行数和一行最多等待的时间
+	@Value("${import.writeBehind.maxBatchSize:2000}")
+	private int writeBehindMaxBatchSize;
+	
+	@Value("${import.writeBehind.maxDelayMillis:20}")
+	private long writeBehindMaxDelayMillis;
+	
+	//延迟合并写入缓冲区最多保留的行数，满时调用方最多等待offerTimeoutMillis
+	@Value("${import.writeBehind.capacity:20000}")
+	private int writeBehindCapacity;
+	
+	@Value("${import.writeBehind.offerTimeoutMillis:1000}")
+	private long writeBehindOfferTimeoutMillis;
+	
+	private WriteBehindBuffer<User> writeBehindBuffer;
+	
+	//t_user还没有执行t_user_update_time.sql时为true，表版本退回行数-最大主键
+	private volatile boolean updateTimeMissing = false;
+	
+	@PostConstruct
+	public void init() {
+		
+		writeBehindBuffer = new WriteBehindBuffer<User>(userMapper::batchInsert, writeBehindMaxBatchSize, writeBehindMaxDelayMillis,
+				writeBehindCapacity, writeBehindOfferTimeoutMillis, "user-write-behind");
+		
+	}
+	
+	//关闭前把已接收的数据全部写入
+	@PreDestroy
+	public void destroy() {
+		writeBehindBuffer.close();
+	}
+	
 	@Override
 	public int batchInsert(List<User> list) {
 		
@@ -26,6 +184,91 @@ public class UserServiceImpl implements UserService{
 		
 	}
 	
+	/**放入延迟合并写入的缓冲区，与其他调用的数据合并成一批插入，插入后future完成，缓冲区已满时抛出RejectedExecutionException*/
+	public CompletableFuture<Integer> insertWriteBehind(List<User> list) {
+		
+		return writeBehindBuffer.addAll(list);
+		
+	}
+	
+	/**多个连接并行批量插入，rows在调用线程中逐行读取，每batchSize行一批，返回行数、批数、耗时、吞吐量等信息*/
+	public Map<String, Object> parallelBatchInsert(Iterator<User> rows) {
+		
+		//每个写入线程占用一个数据库连接，与导出共用准入控制，写入线程数不能超过准入的最大连接数
+		int writers = Math.min(importWriters, exportAdmissionService.getMaxConcurrent());
+		ParallelBatchWriter<User> writer = new ParallelBatchWriter<User>(userMapper::batchInsert);
+		writer.setWriters(writers);
+		writer.setBatchSize(importBatchSize);
+		writer.setQueueBatches(writers * 2);
+		
+		ExportPermit permit = exportAdmissionService.acquire(writers);
+		try {
+			return writer.write(rows);
+		} finally {
+			permit.close();
+		}
+		
+	}
+	
+	/**按唯一键(username,age)插入或更新，每批先在内存中去重，重复执行不会因唯一键冲突失败，返回每批的插入、更新、未变化行数*/
+	public List<BatchUpserter.BatchCounts> upsert(List<User> list) {
+		
+		//t_user除唯一键外没有其他业务字段，已存在的行保持不变
+		BatchUpserter<User> upserter = new BatchUpserter<User>(User.class, "t_user", Arrays.asList("username","age"), new ArrayList<String>());
+		upserter.setBatchSize(importBatchSize);
+		
+		//使用批量写入专用的连接，不参与当前事务，每批单独提交
+		try (Connection connection = bulkDataSource.getConnection()) {
+			return upserter.upsert(connection, list);
+		} catch (SQLException e) {
+			throw new IllegalStateException("upsert failed", e);
+		}
+		
+	}
+	
+	/**通过LOAD DATA LOCAL INFILE批量写入，唯一键冲突的行会被跳过，返回写入的行数*/
+	public long bulkLoad(List<User> list) {
+		
+		return bulkLoad(list.iterator());
+		
+	}
+	
+	/**通过LOAD DATA LOCAL INFILE批量写入，rows在发送时才逐行读取，可以按需生成数据，返回写入的行数*/
+	public long bulkLoad(Iterator<User> rows) {
+		
+		LocalInfileLoader<User> loader = new LocalInfileLoader<User>(User.class, "t_user", Arrays.asList("username","age"));
+		loader.setRowsPerStatement(loadDataRowsPerStatement);
+		
+		//使用批量写入专用的连接，不参与当前事务，每条LOAD DATA单独提交
+		try (Connection connection = bulkDataSource.getConnection()) {
+			loader.load(connection, rows);
+		} catch (SQLException e) {
+			throw new IllegalStateException("load data failed, loaded rows: " + loader.getLoadedRows(), e);
+		}
+		if (loader.getSkippedRows() > 0) {
+			logger.warn("load data skipped {} duplicate or invalid rows", loader.getSkippedRows());
+		}
+		return loader.getLoadedRows();
+		
+	}
+	
+	/**使用BATCH执行器逐行插入，由驱动合并成批量insert，批大小按耗时自动调整，返回写入的行数*/
+	public long jdbcBatchInsert(List<User> list) {
+		
+		return jdbcBatchInsert(list.iterator());
+		
+	}
+	
+	/**使用BATCH执行器逐行插入，rows逐行读取，可以按需生成数据，返回写入的行数*/
+	public long jdbcBatchInsert(Iterator<User> rows) {
+		
+		AdaptiveBatchSizer batchSizer = new AdaptiveBatchSizer(jdbcBatchInitialSize, jdbcBatchMinSize, jdbcBatchMaxSize, jdbcBatchTargetMillis);
+		JdbcBatchInserter<User> inserter = new JdbcBatchInserter<User>(sqlSessionFactory, UserMapper.class.getName() + ".insert",
+				User.class, Arrays.asList("username","age"), batchSizer);
+		return inserter.insert(rows);
+		
+	}
+	
 	/**根据主键查询*/
 	public User queryById(Integer id){
 		
@@ -44,27 +287,16 @@ public class UserServiceImpl implements UserService{
 		});
 	}
 
-	/**导出*/
-	public void export() {
-
-		//定义导出的的表头，以及每个表头字段对应的对象变量名
-		List<String> headerArray = Arrays.asList("姓名","年龄");
-		List<String> fieldArray = Arrays.asList("username","age");
-
-		//定义要导出的excel的文件名，不带"xlsx"后缀。
-		String exportExcelFileName = "文件测试";
+	/**导出，fields为需要导出的字段，为null时导出全部字段*/
+	public void export(List<String> fields) {
 		
-		//每次导出new一个handler对象，将headerArray,fieldArray,exportExcelFileName传递进去。
-		ExcelResultHandler<User> handler = new ExcelResultHandler<User>(headerArray,fieldArray,exportExcelFileName) {
-			public void tryFetchDataAndWriteToExcel() {
-				//这里的this,指的就是ExcelResultHandler<User> handler这个对象，在这里写mapper调用获取数据的调用
-				userMapper.export(this);
-			}
-		};
+		ExcelResultHandler<User> handler = createExportHandler(fields);
 		
 		//真正调用excel的导出开始，在方法中exportExcel会调用写excel表头，
 		//然后调用tryFetchDataAndWriteToExcel，进行驱动调用userMapper的方法，然后遍历结果集，一条一条写入excel,最后关闭盯应的流资源。
-		handler.startExportExcel();
+		//表数据没有变化时直接输出缓存的文件，不再重新查询，表版本在获取导出许可后才查询
+		String columns = ExportProjection.selectColumns(User.class, handler.getFieldArray());
+		exportCacheService.export(UserMapper.class.getName() + ".export", columns, this::selectTableVersion, handler);
 
 		/**下面的方式类似，只是封装的方式不一样**/
 		/*//调用ExportExcelUtils的公共方法进行excel的导出
@@ -89,4 +321,256 @@ public class UserServiceImpl implements UserService{
 			
 		}.export();*/
 	}
+
+	//导出缓存的表版本信号，没有update_time列的旧表退回不能识别原地更新的行数-最大主键
+	private String selectTableVersion() {
+		
+		if(!updateTimeMissing){
+			try {
+				return userMapper.selectTableVersion();
+			} catch (BadSqlGrammarException e) {
+				//1054：Unknown column
+				if(e.getSQLException().getErrorCode() != MYSQL_UNKNOWN_COLUMN){
+					throw e;
+				}
+				updateTimeMissing = true;
+				logger.warn("t_user has no update_time column, run t_user_update_time.sql; export cache will not notice in-place updates until then");
+			}
+		}
+		return userMapper.selectTableVersionById();
+		
+	}
+
+	/**导出csv/tsv，不经过POI，直接编码成UTF-8字节输出*/
+	public void exportCsv(boolean tsv, boolean gzip) {
+		
+		List<String> headerArray = Arrays.asList("姓名","年龄");
+		List<String> fieldArray = Arrays.asList("username","age");
+		String exportFileName = "文件测试";
+		
+		CsvResultHandler<User> handler = new CsvResultHandler<User>(headerArray,fieldArray,exportFileName,
+				tsv ? CsvResultHandler.TSV_DELIMITER : CsvResultHandler.CSV_DELIMITER, gzip) {
+			public void tryFetchDataAndWriteToExcel() {
+				fetchExportRows(fieldArray, this, this::callBackWriteRowdataToCsv);
+			}
+		};
+		
+		//导出期间占用一个数据库连接，并发已满时排队
+		ExportPermit permit = exportAdmissionService.acquire(1);
+		try {
+			handler.startExportCsv();
+		} finally {
+			permit.close();
+		}
+		
+	}
+
+	/**按主键范围分片并行导出，每个分片一个连接并行流式查询，按分片顺序输出到各个sheet*/
+	public void exportSharded(List<String> fields) {
+		
+		String exportExcelFileName = "文件测试";
+		
+		//表头和字段取自User上的@ExcelColumn注解，只查询需要导出的列
+		ShardedExcelResultHandler<User> handler = new ShardedExcelResultHandler<User>(User.class,fields,exportExcelFileName) {
+			
+			public long[] queryIdRange() {
+				Long minId = userMapper.selectMinId();
+				Long maxId = userMapper.selectMaxId();
+				return minId == null || maxId == null ? null : new long[]{minId, maxId};
+			}
+			
+			public void fetchIdRange(long minId, long maxId, ResultHandler<User> resultHandler) {
+				userMapper.exportByIdRange(minId, maxId, ExportProjection.selectColumns(User.class, getFieldArray()), resultHandler);
+			}
+			
+		};
+		handler.setMaxRowsPerSheet(maxRowsPerSheet);
+		handler.setPipelineBufferSize(pipelineBufferSize);
+		handler.setCompression(compression);
+		handler.setFlushEveryRows(flushEveryRows);
+		//每个分片占用一个数据库连接，分片数不能超过准入的最大连接数
+		int shardCount = Math.min(shards, exportAdmissionService.getMaxConcurrent());
+		handler.setShards(shardCount);
+		
+		ExportPermit permit = exportAdmissionService.acquire(shardCount);
+		try {
+			handler.startExportExcel();
+		} finally {
+			permit.close();
+		}
+		
+	}
+
+	/**查询结果为map的导出，每行是按共享列索引存放的SlotRowMap，按fieldArray中的key取值*/
+	public void exportMap() {
+		
+		List<String> headerArray = Arrays.asList("编号","姓名","年龄");
+		List<String> fieldArray = Arrays.asList("id","username","age");
+		String exportExcelFileName = "文件测试";
+		
+		ExcelResultHandler<Map<String, Object>> handler = new ExcelResultHandler<Map<String, Object>>(headerArray,fieldArray,exportExcelFileName) {
+			public void tryFetchDataAndWriteToExcel() {
+				userMapper.exportMap(this);
+			}
+		};
+		handler.setMaxRowsPerSheet(maxRowsPerSheet);
+		handler.setPipelineBufferSize(pipelineBufferSize);
+		handler.setCompression(compression);
+		handler.setFlushEveryRows(flushEveryRows);
+		
+		//导出期间占用一个数据库连接，并发已满时排队
+		ExportPermit permit = exportAdmissionService.acquire(1);
+		try {
+			handler.startExportExcel();
+		} finally {
+			permit.close();
+		}
+		
+	}
+
+	/**流式导入excel，第一行为表头（姓名、年龄或username、age），解析的同时在写入线程中分批batchInsert，
+	 * upsert为true时按唯一键插入或更新，重复导入同一个文件不会失败*/
+	public Map<String, Object> importExcel(MultipartFile file, boolean upsert) throws IOException {
+		
+		//ZipFile需要随机访问，上传的内容先写入临时文件，不读入内存
+		File tempFile = File.createTempFile("import", ".xlsx");
+		try {
+			
+			file.transferTo(tempFile);
+			
+			//插入、更新、未变化的行数，只在写入线程中累加
+			final long[] upsertCounts = new long[3];
+			Consumer<List<User>> batchWriter = userMapper::batchInsert;
+			if (upsert) {
+				batchWriter = new Consumer<List<User>>() {
+					public void accept(List<User> batch) {
+						for (BatchUpserter.BatchCounts counts : upsert(batch)) {
+							upsertCounts[0] += counts.getInserted();
+							upsertCounts[1] += counts.getUpdated();
+							upsertCounts[2] += counts.getUnchanged();
+						}
+					}
+				};
+			}
+			
+			ExcelImporter<User> importer = new ExcelImporter<User>(User.class, batchWriter);
+			importer.setBatchSize(importBatchSize);
+			importer.setQueueBatches(importQueueBatches);
+			
+			//导入期间占用一个数据库连接，与导出共用准入控制
+			long startTime = System.currentTimeMillis();
+			ExportPermit permit = exportAdmissionService.acquire(1);
+			try {
+				importer.importFile(tempFile);
+			} finally {
+				permit.close();
+			}
+			
+			Map<String, Object> result = new LinkedHashMap<String, Object>();
+			result.put("rows", importer.getRows());
+			result.put("batches", importer.getBatches());
+			if (upsert) {
+				result.put("inserted", upsertCounts[0]);
+				result.put("updated", upsertCounts[1]);
+				result.put("unchanged", upsertCounts[2]);
+			}
+			result.put("spendMs", System.currentTimeMillis() - startTime);
+			return result;
+			
+		} finally {
+			tempFile.delete();
+		}
+		
+	}
+
+	/**比较各种取数方式在当前t_user数据上的速度和内存，fetchSize为游标每批和分页每页的行数，为null时使用配置*/
+	public Map<String, Object> fetchBenchmark(List<ExportFetchStrategy> strategies, Integer fetchSize, int rounds) {
+		
+		List<String> fields = Arrays.asList("username","age");
+		
+		FetchBenchmark benchmark = new FetchBenchmark();
+		for (ExportFetchStrategy strategy : strategies) {
+			int size = fetchSize != null ? fetchSize : defaultFetchSize(strategy);
+			String name = strategy == ExportFetchStrategy.STREAM ? strategy.name() : strategy.name() + "(" + size + ")";
+			benchmark.add(name, rowConsumer -> fetchExportRows(strategy, size, fields,
+					resultContext -> rowConsumer.accept(resultContext.getResultObject()), rowConsumer));
+		}
+		
+		//压测期间占用一个数据库连接
+		ExportPermit permit = exportAdmissionService.acquire(1);
+		try {
+			return benchmark.run(rounds);
+		} finally {
+			permit.close();
+		}
+		
+	}
+
+	/**提交异步导出任务，导出在导出线程池中执行并写入本地文件，通过/export/jobs/{jobId}查询进度和下载*/
+	public ExportJob submitExportJob() {
+		
+		//异步任务写入本地文件，不需要分块输出
+		ExcelResultHandler<User> handler = createExportHandler(null);
+		handler.setFlushEveryRows(0);
+		return exportJobService.submit(handler);
+		
+	}
+	
+	//创建导出的handler，同步导出和异步导出共用
+	private ExcelResultHandler<User> createExportHandler(List<String> fields) {
+
+		//定义要导出的excel的文件名，不带"xlsx"后缀。
+		String exportExcelFileName = "文件测试";
+		
+		//每次导出new一个handler对象，表头、字段、列宽取自User上的@ExcelColumn注解，
+		//行数据通过按注解生成的字节码直接写入，不需要再维护headerArray和fieldArray。
+		//fields不为null时只导出其中的字段，sql也只查询对应的列
+		ExcelResultHandler<User> handler = new ExcelResultHandler<User>(User.class,fields,exportExcelFileName) {
+			public void tryFetchDataAndWriteToExcel() {
+				//这里的this,指的就是ExcelResultHandler<User> handler这个对象，在这里写mapper调用获取数据的调用
+				fetchExportRows(getFieldArray(), this, this::callBackWriteRowdataToExcel);
+			}
+		};
+		handler.setMaxRowsPerSheet(maxRowsPerSheet);
+		handler.setPipelineBufferSize(pipelineBufferSize);
+		handler.setCompression(compression);
+		handler.setFlushEveryRows(flushEveryRows);
+		
+		return handler;
+	}
+	
+	//按配置的方式读取导出的数据
+	private void fetchExportRows(List<String> fields, ResultHandler<User> resultHandler, Consumer<Object> rowConsumer) {
+		fetchExportRows(fetchStrategy, defaultFetchSize(fetchStrategy), fields, resultHandler, rowConsumer);
+	}
+	
+	private int defaultFetchSize(ExportFetchStrategy strategy) {
+		return strategy == ExportFetchStrategy.KEYSET ? keysetPageSize : cursorFetchSize;
+	}
+	
+	//流式查询和游标查询的结果交给resultHandler，按主键分页时每一行交给rowConsumer，fetchSize为游标每批或分页每页的行数
+	private void fetchExportRows(ExportFetchStrategy strategy, int fetchSize, List<String> fields,
+			ResultHandler<User> resultHandler, Consumer<Object> rowConsumer) {
+		
+		if (strategy == ExportFetchStrategy.STREAM) {
+			userMapper.export(ExportProjection.selectColumns(User.class, fields), resultHandler);
+			return;
+		}
+		
+		if (strategy == ExportFetchStrategy.CURSOR) {
+			String columns = ExportProjection.selectColumns(User.class, fields);
+			CursorFetchInterceptor.fetch(fetchSize, () -> userMapper.exportByCursor(columns, resultHandler));
+			return;
+		}
+		
+		//分页需要按最后一行的主键定位下一页，id不导出也要查询
+		List<String> selectFields = new ArrayList<String>(fields);
+		selectFields.add("id");
+		String columns = ExportProjection.selectColumns(User.class, selectFields);
+		
+		//每一页是单独的一次mapper调用（不在事务中），页之间归还连接
+		KeysetPager<User> pager = new KeysetPager<User>((lastId, limit) -> userMapper.exportAfterId(lastId, limit, columns), User::getId, fetchSize);
+		pager.fetch(rowConsumer);
+		
+	}
 }
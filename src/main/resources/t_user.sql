@@ -2,6 +2,8 @@ CREATE TABLE `t_user`  (
   `id` bigint(20) NOT NULL AUTO_INCREMENT,
   `username` varchar(100) CHARACTER SET utf8 COLLATE utf8_general_ci NOT NULL DEFAULT '' COMMENT '姓名',
   `age` int(11) NOT NULL COMMENT '年龄',
+  `update_time` datetime(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3) COMMENT '最后修改时间，导出缓存的表版本信号',
   PRIMARY KEY (`id`) USING BTREE,
-  UNIQUE INDEX `uk_code_key`(`username`, `age`) USING BTREE
+  UNIQUE INDEX `uk_code_key`(`username`, `age`) USING BTREE,
+  INDEX `idx_update_time`(`update_time`) USING BTREE
 ) ENGINE = InnoDB AUTO_INCREMENT = 1 CHARACTER SET = utf8 COLLATE = utf8_general_ci ROW_FORMAT = Dynamic;
\ No newline at end of file
@@ -0,0 +1,5 @@
+-- 已有的t_user表加上update_time列，导出缓存用它识别原地更新；新建的表直接使用t_user.sql
+-- 已有行的update_time为执行时的时间
+ALTER TABLE `t_user`
+  ADD COLUMN `update_time` datetime(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3) COMMENT '最后修改时间，导出缓存的表版本信号',
+  ADD INDEX `idx_update_time`(`update_time`) USING BTREE;
@@ -0,0 +1,56 @@
+package cn.gzsendi.modules.framework.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class AdaptiveBatchSizerTest {
+
+	private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	//探测往返时间失败（roundTripNanos为0）时按目标耗时调整，不能退回minSize
+	@Test
+	public void probeFailureSizesByTargetBatchTime() {
+
+		AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(100, 10, 10000, 1000);
+
+		//每行1ms，目标1000ms为1000行，每次最多增大一倍
+		sizer.record(100, 100 * 50, 100 * MILLIS);
+		assertEquals(200, sizer.getBatchSize());
+		sizer.record(200, 200 * 50, 200 * MILLIS);
+		sizer.record(400, 400 * 50, 400 * MILLIS);
+		sizer.record(800, 800 * 50, 800 * MILLIS);
+		assertEquals(1000, sizer.getBatchSize());
+
+	}
+
+	//往返时间需要的行数是下限，超过目标耗时对应的行数时取下限
+	@Test
+	public void roundTripIsLowerBound() {
+
+		AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(1000, 10, 10000, 10);
+		sizer.setRoundTripNanos(5 * MILLIS);
+
+		//扣除往返时间后每行0.1ms，目标10ms为100行，往返时间只占1/20需要950行
+		sizer.record(1000, 1000 * 50, 105 * MILLIS);
+		assertEquals(950, sizer.getBatchSize());
+
+	}
+
+	//下限也不能超过max_allowed_packet
+	@Test
+	public void maxPacketCapsRoundTripLowerBound() {
+
+		AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(1000, 10, 10000, 10);
+		sizer.setRoundTripNanos(5 * MILLIS);
+		sizer.setMaxPacketBytes(40000);
+
+		//每行100字节，max_allowed_packet的3/4为30000字节，即300行
+		sizer.record(1000, 1000 * 100, 105 * MILLIS);
+		assertEquals(300, sizer.getBatchSize());
+
+	}
+
+}
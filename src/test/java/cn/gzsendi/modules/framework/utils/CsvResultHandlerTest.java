@@ -0,0 +1,82 @@
+package cn.gzsendi.modules.framework.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+
+import cn.gzsendi.modules.framework.metrics.MetricsRegistry;
+
+public class CsvResultHandlerTest {
+
+	private static final int ROWS = 20000;
+
+	@Test
+	public void gzipReadsBack() throws IOException {
+
+		long rowsBefore = MetricsRegistry.getInstance().counter("export.rows").sum();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		handler(-1).exportCsv(out);
+		//导出的行数汇总到MetricsRegistry
+		assertEquals(rowsBefore + ROWS, MetricsRegistry.getInstance().counter("export.rows").sum());
+
+		String csv = new String(gunzip(out.toByteArray()), StandardCharsets.UTF_8);
+		String[] lines = csv.split("\r\n");
+		assertEquals(ROWS + 1, lines.length);
+		assertEquals("姓名,年龄", lines[0]);
+		assertEquals("\"a,\"\"b\"\"0\",0", lines[1]);
+		assertEquals("\"a,\"\"b\"\"" + (ROWS - 1) + "\"," + ((ROWS - 1) % 100), lines[ROWS]);
+
+	}
+
+	//失败时不写入gzip尾部，截断的输出不能被当成完整的文件读出
+	@Test
+	public void failedGzipIsTruncated() throws IOException {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertThrows(IllegalStateException.class, () -> handler(ROWS / 2).exportCsv(out));
+		assertThrows(EOFException.class, () -> gunzip(out.toByteArray()));
+
+	}
+
+	private static CsvResultHandler<Map<String, Object>> handler(int failAt) {
+		return new CsvResultHandler<Map<String, Object>>(Arrays.asList("姓名", "年龄"), Arrays.asList("name", "age"),
+				"测试", CsvResultHandler.CSV_DELIMITER, true) {
+			public void tryFetchDataAndWriteToExcel() {
+				for (int i = 0; i < ROWS; i++) {
+					if (i == failAt) {
+						throw new IllegalStateException("query failed");
+					}
+					Map<String, Object> row = new HashMap<String, Object>();
+					row.put("name", "a,\"b\"" + i);
+					row.put("age", i % 100);
+					callBackWriteRowdataToCsv(row);
+				}
+			}
+		};
+	}
+
+	private static byte[] gunzip(byte[] gz) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gz))) {
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				out.write(buffer, 0, n);
+			}
+		}
+		return out.toByteArray();
+	}
+
+}
@@ -0,0 +1,132 @@
+package cn.gzsendi.modules.framework.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * 多线程压缩的zip用ZipInputStream（local header和data descriptor）和ZipFile（中央目录）读回，内容与写入的一致.
+ */
+public class ParallelZipOutputStreamTest {
+
+	private static Stream<Arguments> settings() {
+		List<Arguments> settings = new ArrayList<Arguments>();
+		for (ExportCompression compression : ExportCompression.values()) {
+			settings.add(Arguments.of(compression, false));
+			settings.add(Arguments.of(compression, true));
+		}
+		return settings.stream();
+	}
+
+	@ParameterizedTest
+	@MethodSource("settings")
+	public void readsBack(ExportCompression compression, boolean syncFlush) throws IOException {
+
+		List<String> names = new ArrayList<String>();
+		List<byte[]> contents = new ArrayList<byte[]>();
+		names.add("空.txt");
+		contents.add(new byte[0]);
+		//跨越多个128K的块，文本可压缩，块之间的字典有效
+		names.add("数据/rows.csv");
+		contents.add(text(20000));
+		//不可压缩的数据，deflate输出大于输入
+		names.add("random.bin");
+		contents.add(random(3 * 128 * 1024 + 17));
+		names.add("small.txt");
+		contents.add("hello".getBytes(StandardCharsets.UTF_8));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ParallelZipOutputStream zos = new ParallelZipOutputStream(out, compression, syncFlush)) {
+			for (int i = 0; i < names.size(); i++) {
+				zos.putNextEntry(names.get(i));
+				byte[] content = contents.get(i);
+				//按不规则的长度写入，中间穿插flush
+				for (int off = 0, n = 1; off < content.length; off += n, n = n * 3 + 1) {
+					n = Math.min(n, content.length - off);
+					zos.write(content, off, n);
+					zos.flush();
+				}
+			}
+			zos.finish();
+			assertEquals(out.size(), zos.getBytesWritten());
+		}
+
+		byte[] zip = out.toByteArray();
+
+		try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zip), StandardCharsets.UTF_8)) {
+			for (int i = 0; i < names.size(); i++) {
+				ZipEntry entry = zis.getNextEntry();
+				assertEquals(names.get(i), entry.getName());
+				assertArrayEquals(contents.get(i), readAll(zis), entry.getName());
+			}
+			assertEquals(null, zis.getNextEntry());
+		}
+
+		File file = File.createTempFile("parallel-zip-test", ".zip");
+		try {
+			Files.write(file.toPath(), zip);
+			try (ZipFile zipFile = new ZipFile(file, StandardCharsets.UTF_8)) {
+				assertEquals(names.size(), zipFile.size());
+				Enumeration<? extends ZipEntry> entries = zipFile.entries();
+				for (int i = 0; i < names.size(); i++) {
+					ZipEntry entry = entries.nextElement();
+					assertEquals(names.get(i), entry.getName());
+					assertEquals(contents.get(i).length, entry.getSize());
+					try (InputStream in = zipFile.getInputStream(entry)) {
+						assertArrayEquals(contents.get(i), readAll(in), entry.getName());
+					}
+				}
+				assertFalse(entries.hasMoreElements());
+			}
+		} finally {
+			assertTrue(file.delete());
+		}
+
+	}
+
+	private static byte[] text(int lines) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < lines; i++) {
+			sb.append(i).append(",名字").append(i % 977).append(",").append(i * 31 % 1000).append("\r\n");
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] random(int length) {
+		byte[] bytes = new byte[length];
+		new Random(length).nextBytes(bytes);
+		return bytes;
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+}
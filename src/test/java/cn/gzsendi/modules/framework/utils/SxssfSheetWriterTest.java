@@ -0,0 +1,81 @@
+package cn.gzsendi.modules.framework.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+
+public class SxssfSheetWriterTest {
+
+	//超过SXSSF的100行窗口，前面的行在写入过程中就已写入临时文件
+	private static final int ROWS = 250;
+
+	//BigDecimal单元格在文件中保存精确值，不经过double
+	@Test
+	public void decimalCellsKeepExactValue() throws IOException {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (SxssfSheetWriter writer = new SxssfSheetWriter()) {
+			writer.open(out);
+			writer.setColumnStyles(new String[]{null, "0.00"}, new int[]{0, 0});
+			writer.createSheet("Sheet 1");
+			for (int i = 0; i < ROWS; i++) {
+				writer.startRow(i);
+				writer.writeNumber(0, decimal(i));
+				writer.writeNumber(1, new BigDecimal("1E+3"));
+				writer.writeString(2, "row" + i);
+				writer.endRow();
+			}
+			writer.finish();
+		}
+
+		String sheetXml = sheetXml(out.toByteArray());
+		for (int i = 0; i < ROWS; i++) {
+			assertTrue(sheetXml.contains("<c r=\"A" + (i + 1) + "\" t=\"n\"><v>" + decimal(i).toPlainString() + "</v></c>"), "row " + i);
+		}
+		assertTrue(sheetXml.contains("<c r=\"B1\" s=\""), sheetXml.substring(0, 500));
+		assertTrue(sheetXml.contains("<v>1000</v>"));
+
+		try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()))) {
+			Cell cell = workbook.getSheetAt(0).getRow(ROWS - 1).getCell(0);
+			assertEquals(decimal(ROWS - 1).doubleValue(), cell.getNumericCellValue());
+			assertEquals("0.00", workbook.getSheetAt(0).getRow(0).getCell(1).getCellStyle().getDataFormatString());
+			assertEquals("row0", workbook.getSheetAt(0).getRow(0).getCell(2).getStringCellValue());
+		}
+
+	}
+
+	//超过double精度的值
+	private static BigDecimal decimal(int i) {
+		return new BigDecimal("12345678901234567.8901234567" + i);
+	}
+
+	private static String sheetXml(byte[] xlsx) throws IOException {
+		try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(xlsx))) {
+			ZipEntry entry;
+			while ((entry = zis.getNextEntry()) != null) {
+				if (entry.getName().equals("xl/worksheets/sheet1.xml")) {
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					byte[] buffer = new byte[8192];
+					int n;
+					while ((n = zis.read(buffer)) > 0) {
+						out.write(buffer, 0, n);
+					}
+					return new String(out.toByteArray(), StandardCharsets.UTF_8);
+				}
+			}
+		}
+		throw new AssertionError("sheet1.xml not found");
+	}
+
+}
@@ -0,0 +1,92 @@
+package cn.gzsendi.modules.framework.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+
+public class XlsxStreamReaderTest {
+
+	//科学计数法的数值转换成普通写法
+	@Test
+	public void numbersArePlain() throws IOException {
+		assertEquals("1500000", readNumber("1.5E6"));
+		assertEquals("25", readNumber("25.0"));
+		assertEquals("0.000012", readNumber("1.2E-5"));
+	}
+
+	//异常文件中超出double范围的指数直接报错，不能生成上亿位的字符串
+	@Test
+	public void hugeExponentIsRejected() {
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> readNumber("1E999999999"));
+		assertTrue(e.getMessage().contains("row 1"), e.getMessage());
+		assertThrows(IllegalArgumentException.class, () -> readNumber("1E-999999999"));
+	}
+
+	//POI生成只有A1一个数值单元格的xlsx，再把单元格的<v>替换成text
+	private static String readNumber(String text) throws IOException {
+
+		File source = File.createTempFile("xlsx-reader-test", ".xlsx");
+		File file = File.createTempFile("xlsx-reader-test", ".xlsx");
+		try {
+			try (XSSFWorkbook workbook = new XSSFWorkbook(); FileOutputStream out = new FileOutputStream(source)) {
+				XSSFRow row = workbook.createSheet("Sheet 1").createRow(0);
+				row.createCell(0).setCellValue(123);
+				workbook.write(out);
+			}
+			try (ZipFile zip = new ZipFile(source); ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file))) {
+				for (ZipEntry entry : Collections.list(zip.entries())) {
+					byte[] data = readAll(zip.getInputStream(entry));
+					if (entry.getName().equals("xl/worksheets/sheet1.xml")) {
+						String xml = new String(data, StandardCharsets.UTF_8);
+						assertTrue(xml.contains("<v>123.0</v>"), xml);
+						data = xml.replace("<v>123.0</v>", "<v>" + text + "</v>").getBytes(StandardCharsets.UTF_8);
+					}
+					zos.putNextEntry(new ZipEntry(entry.getName()));
+					zos.write(data);
+					zos.closeEntry();
+				}
+			}
+
+			List<String> values = new ArrayList<String>();
+			try (XlsxStreamReader reader = new XlsxStreamReader(file)) {
+				reader.readFirstSheet((rowNumber, cells, cellCount) -> values.add(cells[0]));
+			}
+			assertEquals(1, values.size());
+			return values.get(0);
+		} finally {
+			Files.deleteIfExists(source.toPath());
+			Files.deleteIfExists(file.toPath());
+		}
+
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			out.write(buffer, 0, n);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+}
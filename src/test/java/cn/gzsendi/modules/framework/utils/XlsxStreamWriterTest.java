@@ -0,0 +1,158 @@
+package cn.gzsendi.modules.framework.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * 导出的xlsx（及外层zip）用ZipInputStream和POI读回，检查每种压缩级别和分块输出下的内容.
+ */
+public class XlsxStreamWriterTest {
+
+	//每个sheet的数据行数，ROWS行分成3个sheet；数据量超过几个压缩块（128K），覆盖块之间的字典
+	private static final int ROWS_PER_SHEET = 4000;
+	private static final int ROWS = 10000;
+
+	private static final long BASE_TIME = 1600000000000L;
+
+	private static Stream<Arguments> settings() {
+		List<Arguments> settings = new ArrayList<Arguments>();
+		for (ExportCompression compression : ExportCompression.values()) {
+			settings.add(Arguments.of(compression, 0));
+			settings.add(Arguments.of(compression, 1000));
+		}
+		return settings.stream();
+	}
+
+	@ParameterizedTest
+	@MethodSource("settings")
+	public void xlsxReadsBack(ExportCompression compression, int flushEveryRows) throws IOException {
+
+		byte[] xlsx = export(compression, flushEveryRows, false);
+
+		List<String> names = readEntries(new ByteArrayInputStream(xlsx));
+		assertTrue(names.contains("xl/worksheets/sheet3.xml"), names.toString());
+		assertTrue(names.contains("[Content_Types].xml"), names.toString());
+
+		assertWorkbook(xlsx);
+
+	}
+
+	@ParameterizedTest
+	@MethodSource("settings")
+	public void zippedXlsxReadsBack(ExportCompression compression, int flushEveryRows) throws IOException {
+
+		byte[] zip = export(compression, flushEveryRows, true);
+
+		try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zip))) {
+			ZipEntry entry = zis.getNextEntry();
+			assertEquals("测试.xlsx", entry.getName());
+			byte[] xlsx = readAll(zis);
+			assertEquals(null, zis.getNextEntry());
+			assertWorkbook(xlsx);
+		}
+
+	}
+
+	private byte[] export(ExportCompression compression, int flushEveryRows, boolean isExportZip) throws IOException {
+
+		ExcelResultHandler<Map<String, Object>> handler = new ExcelResultHandler<Map<String, Object>>(
+				Arrays.asList("姓名", "年龄", "金额", "时间"), Arrays.asList("name", "age", "amount", "time"), "测试", isExportZip) {
+			public void tryFetchDataAndWriteToExcel() {
+				for (int i = 0; i < ROWS; i++) {
+					callBackWriteRowdataToExcel(row(i));
+				}
+			}
+		};
+		handler.setMaxRowsPerSheet(ROWS_PER_SHEET);
+		handler.setCompression(compression);
+		handler.setFlushEveryRows(flushEveryRows);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		handler.exportExcel(out);
+		assertEquals(ROWS, handler.getCurrentRowNumber());
+		return out.toByteArray();
+
+	}
+
+	private static Map<String, Object> row(int i) {
+		Map<String, Object> row = new HashMap<String, Object>();
+		row.put("name", "名字<&>" + i);
+		row.put("age", i % 100);
+		row.put("amount", new BigDecimal("12345678.0" + i));
+		row.put("time", new Date(BASE_TIME + i * 1000L));
+		return row;
+	}
+
+	//3个sheet，每个sheet都有表头，数据按顺序分布在各个sheet中
+	private void assertWorkbook(byte[] xlsx) throws IOException {
+
+		try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(xlsx))) {
+
+			assertEquals(3, workbook.getNumberOfSheets());
+			int i = 0;
+			for (int s = 0; s < workbook.getNumberOfSheets(); s++) {
+				Sheet sheet = workbook.getSheetAt(s);
+				assertEquals("Sheet " + (s + 1), sheet.getSheetName());
+				assertEquals("姓名", sheet.getRow(0).getCell(0).getStringCellValue());
+				assertEquals("时间", sheet.getRow(0).getCell(3).getStringCellValue());
+				for (int r = 1; r <= sheet.getLastRowNum(); r++, i++) {
+					Row row = sheet.getRow(r);
+					Map<String, Object> expected = row(i);
+					assertEquals(expected.get("name"), row.getCell(0).getStringCellValue());
+					assertEquals(((Integer) expected.get("age")).doubleValue(), row.getCell(1).getNumericCellValue());
+					assertEquals(((BigDecimal) expected.get("amount")).doubleValue(), row.getCell(2).getNumericCellValue());
+					assertEquals(expected.get("time"), row.getCell(3).getDateCellValue());
+				}
+			}
+			assertEquals(ROWS, i);
+
+		}
+
+	}
+
+	//逐个entry读完，数据或data descriptor有误时ZipInputStream会抛出异常
+	private static List<String> readEntries(InputStream in) throws IOException {
+		List<String> names = new ArrayList<String>();
+		try (ZipInputStream zis = new ZipInputStream(in)) {
+			ZipEntry entry;
+			while ((entry = zis.getNextEntry()) != null) {
+				readAll(zis);
+				names.add(entry.getName());
+			}
+		}
+		return names;
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+}